@@ -69,6 +69,12 @@ if %ERRORLEVEL%==0 (
   exit /b 1
 )
 
+where java >nul 2>nul
+if %ERRORLEVEL%==0 (
+  echo [INFO] 预压缩前端静态文件 ...
+  java -cp "%JAR%" org.village.system.StaticAssets "%BASEDIR%frontend"
+)
+
 echo [INFO] 生成离线包 zip ...
 powershell -NoProfile -Command "$root='%BASEDIR%'.TrimEnd('\\'); $dist=Join-Path $root 'dist'; $zip=Join-Path $dist 'countryside-offline.zip'; if (Test-Path $zip) { Remove-Item $zip -Force }; $items=Get-ChildItem -Path $root -Force | Where-Object { $_.Name -notin @('dist','.git') } | ForEach-Object { $_.FullName }; Compress-Archive -Path $items -DestinationPath $zip -Force;"
 
@@ -5,7 +5,8 @@ document.addEventListener('DOMContentLoaded', ()=>{
   const modulesEl = document.getElementById('modules');
   const moduleContent = document.getElementById('moduleContent');
   const mainTitle = document.getElementById('mainTitle');
-  const API_BASE = 'http://localhost:8080';
+  // 由后端直接提供页面时同源访问接口
+  const API_BASE = location.port === '8080' ? '' : 'http://localhost:8080';
   let currentModule = null;
 
   function activeContainer(){
@@ -52,7 +53,7 @@ document.addEventListener('DOMContentLoaded', ()=>{
   async function checkBackend(){
     statusEl.textContent = '检测中...';
     try{
-      const r = await fetch(API_BASE + '/api/', {cache:'no-store'});
+      const r = await fetch(API_BASE + '/api/', {cache:'no-cache'});
       const text = await r.text();
       statusEl.textContent = '后端响应：' + text;
       statusEl.style.color = 'green';
@@ -121,7 +122,7 @@ document.addEventListener('DOMContentLoaded', ()=>{
     mainTitle.textContent = '用户管理';
     activeContainer().innerHTML = '<div class="muted">加载用户...</div>';
     try{
-      const r = await fetch(API_BASE + '/api/users', {cache:'no-store'});
+      const r = await fetch(API_BASE + '/api/users', {cache:'no-cache'});
       if(!r.ok) throw new Error('no users');
       const users = await r.json();
       renderUserList(users, false);
@@ -253,14 +254,69 @@ document.addEventListener('DOMContentLoaded', ()=>{
   }
 
   // --- Warnings module ---
+  // 列表加载一次，之后由 /api/stream 推送增量变更；断线时浏览器带 Last-Event-ID 自动重连补发
+  let warningItems = null;
+  let warningList = null;
+  let warningStream = null;
+  // 列表请求进行中收到的变更先存这里，最后一次请求返回后按顺序补上
+  let warningPending = null;
+  let warningSeq = 0;
+  let warningSubscribed = false;
+
+  function watchWarnings(){
+    if(warningStream || !window.EventSource) return;
+    warningStream = new EventSource(API_BASE + '/api/stream?topics=warnings');
+    warningStream.addEventListener('warnings', ev=>{
+      const change = JSON.parse(ev.data);
+      if(warningPending){ warningPending.push(change); return; }
+      if(!warningItems) return;
+      applyWarningChange(change);
+      renderWarningList();
+    });
+    // 首次连上之前的变更收不到，而列表可能是在那之前查的：连上后再取一次
+    warningStream.addEventListener('open', ()=>{
+      if(warningSubscribed) return;
+      warningSubscribed = true;
+      if(currentModule === 'warning') loadWarnings();
+    });
+    // 断开太久、补发不了时整体重新加载
+    warningStream.addEventListener('reset', ()=>{ if(currentModule === 'warning') loadWarnings(); });
+  }
+
+  // 重复应用无害：已有的 id 只会被覆盖字段
+  function applyWarningChange(change){
+    const action = change.action;
+    const fields = Object.assign({}, change);
+    delete fields.action;
+    const i = warningItems.findIndex(it=>it.id === fields.id);
+    if(action === 'deleted'){ if(i >= 0) warningItems.splice(i, 1); }
+    else if(i >= 0) Object.assign(warningItems[i], fields);
+    else if(action === 'created') warningItems.unshift(fields);
+  }
+
+  function streamOpen(){
+    return warningStream && warningStream.readyState === EventSource.OPEN;
+  }
+
   async function loadWarnings(){
     mainTitle.textContent = '预警中心';
     activeContainer().innerHTML = '<div class="muted">加载预警...</div>';
+    const seq = ++warningSeq;
+    if(!warningPending) warningPending = [];
+    watchWarnings();
     try{
       const r = await fetch(API_BASE + '/api/warnings/events');
       const items = await r.json();
-      renderWarnings(items);
+      // 期间又发起了加载：由最后一次接手缓冲的变更
+      if(seq !== warningSeq) return;
+      const pending = warningPending;
+      warningPending = null;
+      warningItems = items;
+      (pending || []).forEach(applyWarningChange);
+      renderWarnings(warningItems);
     }catch(e){
+      if(seq !== warningSeq) return;
+      warningPending = null;
       activeContainer().innerHTML = '<div class="muted">无法加载预警数据（后端未就绪）。</div>';
     }
   }
@@ -280,21 +336,30 @@ document.addEventListener('DOMContentLoaded', ()=>{
       try{
         const r = await fetch(API_BASE + '/api/warnings/events', {method:'POST',headers:{'content-type':'application/json'},body:JSON.stringify(payload)});
         if(!r.ok) throw new Error('提交失败');
-        await loadWarnings();
+        // 推送连接正常时新告警会自己出现在列表里
+        if(streamOpen()) form.reset();
+        else await loadWarnings();
       }catch(err){ alert('提交失败：'+err.message); }
     });
     wrapper.appendChild(form);
 
-    const list = document.createElement('div');
-    list.style.marginTop = '12px';
-    items.forEach(it=>{
+    warningItems = items;
+    warningList = document.createElement('div');
+    warningList.style.marginTop = '12px';
+    renderWarningList();
+    wrapper.appendChild(warningList);
+    const cont = activeContainer(); cont.innerHTML = ''; cont.appendChild(wrapper);
+  }
+
+  function renderWarningList(){
+    if(!warningList || !warningItems) return;
+    warningList.innerHTML = '';
+    warningItems.forEach(it=>{
       const el = document.createElement('div');
       el.className = 'warning-item';
       el.innerHTML = `<strong>${it.title}</strong> <div class="muted">${it.msg||''}</div>`;
-      list.appendChild(el);
+      warningList.appendChild(el);
     });
-    wrapper.appendChild(list);
-    const cont = activeContainer(); cont.innerHTML = ''; cont.appendChild(wrapper);
   }
 
   refresh.addEventListener('click', checkBackend);
@@ -330,7 +395,7 @@ document.addEventListener('DOMContentLoaded', ()=>{
   // admin-check helper: simple heuristic from users list
   async function isAdmin(){
     try{
-      const r = await fetch(API_BASE + '/api/users', {cache:'no-store'});
+      const r = await fetch(API_BASE + '/api/users', {cache:'no-cache'});
       if(!r.ok) return false;
       const users = await r.json();
       return users.some(u=> (u.role||'').includes('管理员'));
@@ -103,7 +103,7 @@ echo([INFO] 标准输出日志: runtime\logs\app.log
 echo([INFO] 错误日志: runtime\logs\app.err
 echo([INFO] 启动信息: runtime\logs\start-debug.txt
 echo([INFO] 后端已启动: http://localhost:8080
-echo([INFO] 前端请手动打开: frontend\index.html
+echo([INFO] 前端地址: http://localhost:8080/
 "%JAVA_EXE%" -jar "%JAR%" 1>>"%APP_OUT%" 2>>"%APP_ERR%"
 popd
 endlocal
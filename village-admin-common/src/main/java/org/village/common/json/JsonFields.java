@@ -0,0 +1,325 @@
+package org.village.common.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Top-level members of a JSON object, read in one regex-free pass over the text.
+ * The whole document is validated (strings, escapes, numbers, nesting); member values are kept
+ * as offsets into the source and only decoded when asked for, so unread fields cost nothing.
+ * An empty or blank body reads as an empty object. A repeated key resolves to its last occurrence.
+ */
+public final class JsonFields {
+    public enum Kind { STRING, NUMBER, TRUE, FALSE, NULL, OBJECT, ARRAY }
+
+    private static final int MAX_DEPTH = 64;
+    private static final JsonFields EMPTY = new JsonFields("", new String[0], new int[0], new int[0], new Kind[0], new boolean[0], 0);
+
+    private final String src;
+    private final String[] keys;
+    private final int[] starts;
+    private final int[] ends;
+    private final Kind[] kinds;
+    private final boolean[] escaped;
+    private final int size;
+
+    private JsonFields(String src, String[] keys, int[] starts, int[] ends, Kind[] kinds, boolean[] escaped, int size){
+        this.src = src;
+        this.keys = keys;
+        this.starts = starts;
+        this.ends = ends;
+        this.kinds = kinds;
+        this.escaped = escaped;
+        this.size = size;
+    }
+
+    public static JsonFields parse(String json){
+        if (json == null) return EMPTY;
+        Scanner s = new Scanner(json);
+        s.skipWs();
+        if (s.pos == json.length()) return EMPTY;
+        JsonFields f = s.object();
+        s.skipWs();
+        if (s.pos != json.length()) throw s.error("trailing characters");
+        return f;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean has(String key){
+        return index(key) >= 0;
+    }
+
+    public List<String> keys(){
+        List<String> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) if (!out.contains(keys[i])) out.add(keys[i]);
+        return out;
+    }
+
+    public Kind kind(String key){
+        int i = index(key);
+        return i < 0 ? null : kinds[i];
+    }
+
+    /** String value decoded, or the literal text of a number/boolean; null when absent, null, object or array. */
+    public String text(String key){
+        int i = index(key);
+        if (i < 0) return null;
+        switch (kinds[i]){
+            case STRING: return decode(i);
+            case NUMBER: case TRUE: case FALSE: return src.substring(starts[i], ends[i]);
+            default: return null;
+        }
+    }
+
+    /** Only string values; numbers and everything else read as null. */
+    public String string(String key){
+        int i = index(key);
+        return i < 0 || kinds[i] != Kind.STRING ? null : decode(i);
+    }
+
+    /** The value's JSON text as sent, or null when absent. */
+    public String raw(String key){
+        int i = index(key);
+        if (i < 0) return null;
+        // string slices exclude the quotes
+        return kinds[i] == Kind.STRING ? src.substring(starts[i] - 1, ends[i] + 1) : src.substring(starts[i], ends[i]);
+    }
+
+    /** Array of strings, or null when absent or not an array; any other element is a JsonParseException. */
+    public List<String> strings(String key){
+        int i = index(key);
+        if (i < 0 || kinds[i] != Kind.ARRAY) return null;
+        Scanner sc = new Scanner(src);
+        sc.pos = starts[i];
+        sc.expect('[');
+        List<String> out = new ArrayList<>();
+        sc.skipWs();
+        if (sc.peek() == ']') return out;
+        while (true){
+            sc.skipWs();
+            if (sc.peek() != '"') throw sc.error("expected string");
+            int s0 = sc.pos + 1;
+            int e0 = sc.string();
+            out.add(sc.lastEscaped ? unescape(src, s0, e0) : src.substring(s0, e0));
+            sc.skipWs();
+            if (sc.next() == ']') return out;
+        }
+    }
+
+    /** Nested object member, or null when absent or not an object. */
+    public JsonFields object(String key){
+        int i = index(key);
+        return i < 0 || kinds[i] != Kind.OBJECT ? null : parse(src.substring(starts[i], ends[i]));
+    }
+
+    private int index(String key){
+        for (int i = size - 1; i >= 0; i--) if (keys[i].equals(key)) return i;
+        return -1;
+    }
+
+    private String decode(int i){
+        if (!escaped[i]) return src.substring(starts[i], ends[i]);
+        return unescape(src, starts[i], ends[i]);
+    }
+
+    private static String unescape(String s, int from, int to){
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++){
+            char c = s.charAt(i);
+            if (c != '\\'){ sb.append(c); continue; }
+            char e = s.charAt(++i);
+            switch (e){
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16)); i += 4; break;
+                default: sb.append(e); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    // single forward pass; top-level members are recorded, nested values are validated and skipped
+    private static final class Scanner {
+        final String s;
+        final int len;
+        int pos;
+        boolean lastEscaped;
+
+        Scanner(String s){
+            this.s = s;
+            this.len = s.length();
+        }
+
+        JsonFields object(){
+            expect('{');
+            String[] keys = new String[8];
+            int[] starts = new int[8], ends = new int[8];
+            Kind[] kinds = new Kind[8];
+            boolean[] esc = new boolean[8];
+            int n = 0;
+            skipWs();
+            if (peek() == '}'){ pos++; return new JsonFields(s, keys, starts, ends, kinds, esc, 0); }
+            while (true){
+                skipWs();
+                if (peek() != '"') throw error("expected member name");
+                int ks = pos + 1;
+                int ke = string();
+                String key = lastEscaped ? unescape(s, ks, ke) : s.substring(ks, ke);
+                skipWs();
+                expect(':');
+                skipWs();
+                if (n == keys.length){
+                    keys = Arrays.copyOf(keys, n * 2);
+                    starts = Arrays.copyOf(starts, n * 2);
+                    ends = Arrays.copyOf(ends, n * 2);
+                    kinds = Arrays.copyOf(kinds, n * 2);
+                    esc = Arrays.copyOf(esc, n * 2);
+                }
+                keys[n] = key;
+                char c = peek();
+                if (c == '"'){
+                    starts[n] = pos + 1;
+                    ends[n] = string();
+                    kinds[n] = Kind.STRING;
+                    esc[n] = lastEscaped;
+                } else {
+                    starts[n] = pos;
+                    kinds[n] = value(1);
+                    ends[n] = pos;
+                }
+                n++;
+                skipWs();
+                char d = next();
+                if (d == '}') return new JsonFields(s, keys, starts, ends, kinds, esc, n);
+                if (d != ',') throw error("expected ',' or '}'", pos - 1);
+            }
+        }
+
+        // skips one value of any kind and reports what it was
+        Kind value(int depth){
+            if (depth > MAX_DEPTH) throw error("nesting too deep");
+            char c = peek();
+            switch (c){
+                case '"': string(); return Kind.STRING;
+                case '{': skipContainer('{', '}', depth); return Kind.OBJECT;
+                case '[': skipContainer('[', ']', depth); return Kind.ARRAY;
+                case 't': literal("true"); return Kind.TRUE;
+                case 'f': literal("false"); return Kind.FALSE;
+                case 'n': literal("null"); return Kind.NULL;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')){ number(); return Kind.NUMBER; }
+                    throw error("unexpected character");
+            }
+        }
+
+        void skipContainer(char open, char close, int depth){
+            expect(open);
+            skipWs();
+            if (peek() == close){ pos++; return; }
+            while (true){
+                skipWs();
+                if (open == '{'){
+                    if (peek() != '"') throw error("expected member name");
+                    string();
+                    skipWs();
+                    expect(':');
+                    skipWs();
+                }
+                value(depth + 1);
+                skipWs();
+                char d = next();
+                if (d == close) return;
+                if (d != ',') throw error("expected ',' or '" + close + "'", pos - 1);
+            }
+        }
+
+        // pos at the opening quote; returns the offset of the closing quote and leaves pos after it
+        int string(){
+            pos++;
+            lastEscaped = false;
+            while (pos < len){
+                char c = s.charAt(pos);
+                if (c == '"'){ int end = pos; pos++; return end; }
+                if (c == '\\'){
+                    lastEscaped = true;
+                    if (pos + 1 >= len) break;
+                    char e = s.charAt(pos + 1);
+                    if (e == 'u'){
+                        if (pos + 6 > len) throw error("bad unicode escape");
+                        for (int k = pos + 2; k < pos + 6; k++) if (Character.digit(s.charAt(k), 16) < 0) throw error("bad unicode escape", k);
+                        pos += 6;
+                        continue;
+                    }
+                    if ("\"\\/bfnrt".indexOf(e) < 0) throw error("bad escape", pos + 1);
+                    pos += 2;
+                    continue;
+                }
+                if (c < 0x20) throw error("control character in string");
+                pos++;
+            }
+            throw error("unterminated string");
+        }
+
+        void number(){
+            if (peek() == '-') pos++;
+            if (peek() == '0') pos++;
+            else if (!digits()) throw error("bad number");
+            if (peek() == '.'){ pos++; if (!digits()) throw error("bad number"); }
+            char c = peek();
+            if (c == 'e' || c == 'E'){
+                pos++;
+                c = peek();
+                if (c == '+' || c == '-') pos++;
+                if (!digits()) throw error("bad number");
+            }
+        }
+
+        boolean digits(){
+            int start = pos;
+            while (pos < len && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') pos++;
+            return pos > start;
+        }
+
+        void literal(String word){
+            if (!s.startsWith(word, pos)) throw error("unexpected literal");
+            pos += word.length();
+        }
+
+        void skipWs(){
+            while (pos < len){
+                char c = s.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+                pos++;
+            }
+        }
+
+        char peek(){
+            return pos < len ? s.charAt(pos) : '\0';
+        }
+
+        char next(){
+            if (pos >= len) throw error("unexpected end of input");
+            return s.charAt(pos++);
+        }
+
+        void expect(char c){
+            if (pos >= len || s.charAt(pos) != c) throw error("expected '" + c + "'");
+            pos++;
+        }
+
+        JsonParseException error(String msg){
+            return error(msg, pos);
+        }
+
+        JsonParseException error(String msg, int at){
+            return new JsonParseException(msg, at);
+        }
+    }
+}
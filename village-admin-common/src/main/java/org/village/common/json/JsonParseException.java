@@ -0,0 +1,17 @@
+package org.village.common.json;
+
+// malformed request JSON; an IllegalArgumentException so HTTP layers can map it to 400
+public final class JsonParseException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public JsonParseException(String message, int position){
+        super(message + " at offset " + position);
+        this.position = position;
+    }
+
+    public int getPosition(){
+        return position;
+    }
+}
@@ -0,0 +1,340 @@
+package org.village.common.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes JSON straight into a pooled byte buffer as UTF-8: no intermediate String, char[] or getBytes copy.
+ * Strings are escaped in the same pass through a lookup table, ints are written digit by digit,
+ * and member names are pre-encoded {@link Name} constants. Commas are inserted automatically.
+ * In streaming mode a full buffer is flushed to the sink; in buffered mode the result is read with toByteArray().
+ */
+public final class JsonWriter implements Closeable {
+    private static final int BUFFER = 8192;
+    private static final int POOL_MAX = 256;
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // per ASCII char: 0 = as is, otherwise the char following the backslash ('u' = \\u00XX)
+    private static final byte[] ESCAPE = new byte[128];
+    static {
+        for (int c = 0; c < 0x20; c++) ESCAPE[c] = 'u';
+        ESCAPE['"'] = '"';
+        ESCAPE['\\'] = '\\';
+        ESCAPE['\b'] = 'b';
+        ESCAPE['\f'] = 'f';
+        ESCAPE['\n'] = 'n';
+        ESCAPE['\r'] = 'r';
+        ESCAPE['\t'] = 't';
+    }
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] MIN_INT = "-2147483648".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+
+    /** A member name encoded once, with its quotes and colon: {@code "name":} */
+    public static final class Name {
+        final byte[] bytes;
+        private final String name;
+
+        private Name(String name){
+            this.name = name;
+            JsonWriter w = buffered();
+            try {
+                w.string(name);
+                w.writeByte(':');
+            } catch (IOException e) {
+                // buffered writers never touch a stream
+                throw new IllegalStateException(e);
+            }
+            this.bytes = w.toByteArray();
+        }
+
+        public static Name of(String name){
+            return new Name(name);
+        }
+
+        @Override
+        public String toString(){
+            return name;
+        }
+    }
+
+    private final OutputStream sink;
+    private ByteArrayOutputStream spill;
+    private byte[] buf;
+    private int pos;
+    // bit d set: the container at depth d already holds an element, so the next one needs a comma
+    private long elements;
+    private int depth;
+    private boolean afterName;
+
+    private JsonWriter(OutputStream sink){
+        this.sink = sink;
+        this.buf = acquire();
+    }
+
+    /** Streams to {@code out}, one buffer at a time; close() flushes and closes it. */
+    public static JsonWriter to(OutputStream out){
+        return new JsonWriter(out);
+    }
+
+    /** Collects the document in memory; read it with toByteArray(). */
+    public static JsonWriter buffered(){
+        return new JsonWriter(null);
+    }
+
+    public JsonWriter beginObject() throws IOException { open('{'); return this; }
+    public JsonWriter endObject() throws IOException { close('}'); return this; }
+    public JsonWriter beginArray() throws IOException { open('['); return this; }
+    public JsonWriter endArray() throws IOException { close(']'); return this; }
+
+    public JsonWriter name(Name name) throws IOException {
+        separator();
+        write(name.bytes, 0, name.bytes.length);
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(int v) throws IOException {
+        separator();
+        writeInt(v);
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException {
+        separator();
+        writeLong(v);
+        return this;
+    }
+
+    public JsonWriter value(boolean v) throws IOException {
+        separator();
+        byte[] b = v ? TRUE : FALSE;
+        write(b, 0, b.length);
+        return this;
+    }
+
+    /** A JSON string, or null when {@code v} is null. */
+    public JsonWriter value(String v) throws IOException {
+        separator();
+        if (v == null) write(NULL, 0, NULL.length);
+        else string(v);
+        return this;
+    }
+
+    /** A value that is already JSON text, copied as is; the caller vouches for it being well formed. */
+    public JsonWriter rawValue(byte[] json, int off, int len) throws IOException {
+        separator();
+        write(json, off, len);
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separator();
+        write(NULL, 0, NULL.length);
+        return this;
+    }
+
+    public JsonWriter field(Name name, int v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public JsonWriter field(Name name, long v) throws IOException {
+        return name(name).value(v);
+    }
+
+    public JsonWriter field(Name name, String v) throws IOException {
+        return name(name).value(v);
+    }
+
+    /** The buffered document; not available on a streaming writer. Releases the buffer. */
+    public byte[] toByteArray(){
+        if (sink != null) throw new IllegalStateException("streaming writer");
+        byte[] out;
+        if (spill == null){
+            out = new byte[pos];
+            System.arraycopy(buf, 0, out, 0, pos);
+        } else {
+            spill.write(buf, 0, pos);
+            out = spill.toByteArray();
+        }
+        release();
+        return out;
+    }
+
+    public void flush() throws IOException {
+        drain();
+        if (sink != null) sink.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buf == null) return;
+        try {
+            drain();
+            if (sink != null) sink.close();
+        } finally {
+            release();
+        }
+    }
+
+    /** escape() for code that still assembles JSON as text; returns {@code s} itself when nothing needs escaping. */
+    public static String escape(String s){
+        if (s == null) return "";
+        int len = s.length();
+        int i = 0;
+        while (i < len){
+            char c = s.charAt(i);
+            if (c < 128 && ESCAPE[c] != 0) break;
+            i++;
+        }
+        if (i == len) return s;
+        StringBuilder sb = new StringBuilder(len + 16).append(s, 0, i);
+        for (; i < len; i++){
+            char c = s.charAt(i);
+            byte e = c < 128 ? ESCAPE[c] : 0;
+            if (e == 0) sb.append(c);
+            else if (e == 'u') sb.append("\\u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xF]);
+            else sb.append('\\').append((char) e);
+        }
+        return sb.toString();
+    }
+
+    private void open(char c) throws IOException {
+        separator();
+        writeByte(c);
+        if (++depth >= 64) throw new IllegalStateException("nesting too deep");
+        elements &= ~(1L << depth);
+    }
+
+    private void close(char c) throws IOException {
+        writeByte(c);
+        depth--;
+    }
+
+    private void separator() throws IOException {
+        if (afterName){
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((elements & bit) != 0) writeByte(',');
+        else elements |= bit;
+    }
+
+    // single pass: ASCII through the escape table, the rest encoded to UTF-8 in place
+    private void string(String s) throws IOException {
+        writeByte('"');
+        int len = s.length();
+        for (int i = 0; i < len; i++){
+            if (pos + 12 > buf.length) drain();
+            char c = s.charAt(i);
+            if (c < 128){
+                byte e = ESCAPE[c];
+                if (e == 0){
+                    buf[pos++] = (byte) c;
+                } else if (e == 'u'){
+                    buf[pos++] = '\\'; buf[pos++] = 'u'; buf[pos++] = '0'; buf[pos++] = '0';
+                    buf[pos++] = HEX[c >> 4]; buf[pos++] = HEX[c & 0xF];
+                } else {
+                    buf[pos++] = '\\'; buf[pos++] = e;
+                }
+            } else if (c < 0x800){
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))){
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)){
+                // unpaired surrogate, same replacement String.getBytes(UTF_8) uses
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeInt(int v) throws IOException {
+        if (v == Integer.MIN_VALUE){ write(MIN_INT, 0, MIN_INT.length); return; }
+        if (pos + 11 > buf.length) drain();
+        if (v < 0){ buf[pos++] = '-'; v = -v; }
+        int digits = 1;
+        for (int t = v; t >= 10; t /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--){
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE){ writeInt((int) v); return; }
+        if (v == Long.MIN_VALUE){ write(MIN_LONG, 0, MIN_LONG.length); return; }
+        if (pos + 20 > buf.length) drain();
+        if (v < 0){ buf[pos++] = '-'; v = -v; }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--){
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = (byte) b;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0){
+            if (pos == buf.length) drain();
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(b, off, buf, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void drain() throws IOException {
+        if (pos == 0) return;
+        if (sink != null){
+            sink.write(buf, 0, pos);
+        } else {
+            if (spill == null) spill = new ByteArrayOutputStream(buf.length * 2);
+            spill.write(buf, 0, pos);
+        }
+        pos = 0;
+    }
+
+    private static byte[] acquire(){
+        byte[] b = POOL.poll();
+        if (b == null) return new byte[BUFFER];
+        POOLED.decrementAndGet();
+        return b;
+    }
+
+    private void release(){
+        byte[] b = buf;
+        buf = null;
+        if (b != null && POOLED.incrementAndGet() <= POOL_MAX) POOL.offer(b);
+        else if (b != null) POOLED.decrementAndGet();
+    }
+}
@@ -0,0 +1,163 @@
+package org.village.common.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class JsonFieldsTest {
+
+    @Test
+    void emptyBodiesReadAsEmptyObject(){
+        assertEquals(0, JsonFields.parse(null).size());
+        assertEquals(0, JsonFields.parse("").size());
+        assertEquals(0, JsonFields.parse(" \r\n\t").size());
+        assertEquals(0, JsonFields.parse("{}").size());
+        assertEquals(0, JsonFields.parse(" { } ").size());
+    }
+
+    @Test
+    void stringEscapes(){
+        JsonFields f = JsonFields.parse("{\"s\":\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\"}");
+        assertEquals("a\"b\\c/d\be\ff\ng\rh\ti", f.string("s"));
+        assertEquals("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\"", f.raw("s"));
+    }
+
+    @Test
+    void unicodeEscapes(){
+        JsonFields f = JsonFields.parse("{\"a\":\"\\u00e9\\u4E2D\",\"b\":\"x\\u0000y\",\"\\u006be\\u0079\":1}");
+        assertEquals("\u00e9\u4e2d", f.string("a"));
+        assertEquals("x\u0000y", f.string("b"));
+        assertEquals("1", f.text("key"));
+    }
+
+    @Test
+    void surrogatePairs(){
+        JsonFields f = JsonFields.parse("{\"esc\":\"\\ud83d\\ude00!\",\"raw\":\"\ud83d\ude00!\"}");
+        assertEquals("\ud83d\ude00!", f.string("esc"));
+        assertEquals("\ud83d\ude00!", f.string("raw"));
+        assertEquals(0x1F600, f.string("esc").codePointAt(0));
+    }
+
+    @Test
+    void numbers(){
+        JsonFields f = JsonFields.parse("{\"a\":0,\"b\":-12,\"c\":3.25,\"d\":-0.5e-2,\"e\":1E+10,\"f\":6e3}");
+        for (String k : Arrays.asList("a", "b", "c", "d", "e", "f")) assertEquals(JsonFields.Kind.NUMBER, f.kind(k), k);
+        assertEquals("0", f.text("a"));
+        assertEquals("-12", f.text("b"));
+        assertEquals("3.25", f.text("c"));
+        assertEquals("-0.5e-2", f.text("d"));
+        assertEquals("1E+10", f.text("e"));
+        assertEquals("6e3", f.text("f"));
+        // string() is for strings only
+        assertNull(f.string("b"));
+    }
+
+    @Test
+    void malformedNumbers(){
+        for (String n : Arrays.asList("01", "-", "1.", ".5", "1e", "1e+", "+1", "--1", "0x10")){
+            assertThrows(JsonParseException.class, () -> JsonFields.parse("{\"n\":" + n + "}"), n);
+        }
+    }
+
+    @Test
+    void literals(){
+        JsonFields f = JsonFields.parse("{\"t\":true,\"f\":false,\"n\":null}");
+        assertEquals(JsonFields.Kind.TRUE, f.kind("t"));
+        assertEquals("true", f.text("t"));
+        assertEquals("false", f.text("f"));
+        assertEquals(JsonFields.Kind.NULL, f.kind("n"));
+        assertTrue(f.has("n"));
+        assertNull(f.text("n"));
+        assertNull(f.kind("missing"));
+        assertThrows(JsonParseException.class, () -> JsonFields.parse("{\"t\":tru}"));
+        assertThrows(JsonParseException.class, () -> JsonFields.parse("{\"n\":NULL}"));
+    }
+
+    @Test
+    void nestedObjectsAndArrays(){
+        JsonFields f = JsonFields.parse("{\"o\":{\"x\":\"1\",\"in\":{\"y\":[1,{\"z\":[]}]}},\"tags\":[\"a\", \"b\\n\" ,\"\\u00e9\"],\"empty\":[],\"mixed\":[1,\"a\"],\"after\":7}");
+        assertEquals(JsonFields.Kind.OBJECT, f.kind("o"));
+        assertEquals("1", f.object("o").text("x"));
+        assertEquals(JsonFields.Kind.ARRAY, f.object("o").object("in").kind("y"));
+        // nested members stay out of the top level
+        assertFalse(f.has("x"));
+        assertNull(f.text("o"));
+        assertEquals("[1,{\"z\":[]}]", f.object("o").object("in").raw("y"));
+        assertEquals(Arrays.asList("a", "b\n", "\u00e9"), f.strings("tags"));
+        assertEquals(Collections.emptyList(), f.strings("empty"));
+        assertThrows(JsonParseException.class, () -> f.strings("mixed"));
+        assertNull(f.strings("after"));
+        assertNull(f.object("tags"));
+        assertEquals("7", f.text("after"));
+    }
+
+    @Test
+    void duplicateKeysResolveToTheLast(){
+        JsonFields f = JsonFields.parse("{\"a\":1,\"b\":2,\"a\":\"x\"}");
+        assertEquals("x", f.text("a"));
+        assertEquals(JsonFields.Kind.STRING, f.kind("a"));
+        assertEquals(Arrays.asList("a", "b"), f.keys());
+    }
+
+    @Test
+    void manyMembers(){
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < 50; i++) sb.append(i == 0 ? "" : ",").append("\"k").append(i).append("\":").append(i);
+        JsonFields f = JsonFields.parse(sb.append('}').toString());
+        assertEquals(50, f.size());
+        assertEquals("0", f.text("k0"));
+        assertEquals("49", f.text("k49"));
+    }
+
+    @Test
+    void trailingGarbage(){
+        for (String s : Arrays.asList("{}x", "{} {}", "{\"a\":1}}", "{\"a\":1},", "{\"a\":1} 2")){
+            assertThrows(JsonParseException.class, () -> JsonFields.parse(s), s);
+        }
+        JsonParseException e = assertThrows(JsonParseException.class, () -> JsonFields.parse("{} x"));
+        assertEquals(3, e.getPosition());
+    }
+
+    @Test
+    void truncatedInput(){
+        String doc = "{\"a\":\"b\\u00e9\",\"n\":[1,{\"m\":-2.5e3}],\"t\":true}";
+        for (int i = 1; i < doc.length(); i++){
+            String cut = doc.substring(0, i);
+            if (cut.trim().isEmpty()) continue;
+            assertThrows(JsonParseException.class, () -> JsonFields.parse(cut), cut);
+        }
+        assertEquals(3, JsonFields.parse(doc).size());
+    }
+
+    @Test
+    void otherMalformedDocuments(){
+        for (String s : Arrays.asList("[1]", "\"a\"", "{a:1}", "{\"a\" 1}", "{\"a\":1,}", "{,}", "{\"a\":[1,]}",
+                "{\"a\":[1 2]}", "{\"a\":\"\\x\"}", "{\"a\":\"\\u12g4\"}", "{\"a\":\"\\u12\"}", "{\"a\":\"tab\there\"}", "{'a':1}")){
+            assertThrows(JsonParseException.class, () -> JsonFields.parse(s), s);
+        }
+    }
+
+    @Test
+    void nestingLimit(){
+        StringBuilder ok = new StringBuilder("{\"a\":");
+        for (int i = 0; i < 63; i++) ok.append('[');
+        for (int i = 0; i < 63; i++) ok.append(']');
+        assertEquals(JsonFields.Kind.ARRAY, JsonFields.parse(ok.append('}').toString()).kind("a"));
+        StringBuilder deep = new StringBuilder("{\"a\":");
+        for (int i = 0; i < 100; i++) deep.append('[');
+        for (int i = 0; i < 100; i++) deep.append(']');
+        assertThrows(JsonParseException.class, () -> JsonFields.parse(deep.append('}').toString()));
+    }
+
+    @Test
+    void parseErrorsAreIllegalArguments(){
+        // the HTTP layer maps IllegalArgumentException to 400
+        assertThrows(IllegalArgumentException.class, () -> JsonFields.parse("{"));
+    }
+}
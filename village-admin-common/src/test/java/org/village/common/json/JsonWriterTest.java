@@ -0,0 +1,167 @@
+package org.village.common.json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+    private static final JsonWriter.Name A = JsonWriter.Name.of("a");
+    private static final JsonWriter.Name B = JsonWriter.Name.of("b");
+
+    private static String string(String v) throws IOException {
+        JsonWriter w = JsonWriter.buffered();
+        w.value(v);
+        return new String(w.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void controlCharacters() throws IOException {
+        assertEquals("\"\\u0000\\u0001\\u001f\"", string("\u0000\u0001\u001f"));
+        assertEquals("\"\\b\\f\\n\\r\\t\"", string("\b\f\n\r\t"));
+        // DEL and '/' need no escape
+        assertEquals("\"\u007f/\"", string("\u007f/"));
+        assertEquals("\\u0000\\u0001\\u001f\\b\\f\\n\\r\\t\u007f/", JsonWriter.escape("\u0000\u0001\u001f\b\f\n\r\t\u007f/"));
+    }
+
+    @Test
+    void quotesAndBackslashes() throws IOException {
+        assertEquals("\"say \\\"hi\\\" c:\\\\x\"", string("say \"hi\" c:\\x"));
+        assertEquals("say \\\"hi\\\" c:\\\\x", JsonWriter.escape("say \"hi\" c:\\x"));
+    }
+
+    @Test
+    void escapedOutputParsesBack() throws IOException {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x100; c++) all.append(c);
+        all.append("\u4e2d\ud83d\ude00");
+        String s = all.toString();
+        JsonWriter w = JsonWriter.buffered();
+        w.beginObject().field(A, s).endObject();
+        assertEquals(s, JsonFields.parse(new String(w.toByteArray(), StandardCharsets.UTF_8)).string("a"));
+        assertEquals(s, JsonFields.parse("{\"a\":\"" + JsonWriter.escape(s) + "\"}").string("a"));
+    }
+
+    @Test
+    void nonAsciiIsUtf8() throws IOException {
+        String s = "\u00e9\u4e2d\ud83d\ude00\ud834\udd1e";
+        JsonWriter w = JsonWriter.buffered();
+        w.value(s);
+        assertArrayEquals(("\"" + s + "\"").getBytes(StandardCharsets.UTF_8), w.toByteArray());
+        // escape() leaves non-ASCII alone
+        assertSame(s, JsonWriter.escape(s));
+    }
+
+    @Test
+    void unpairedSurrogatesBecomeQuestionMarks() throws IOException {
+        String s = "a\ud83db\ude00c\ud83d";
+        assertEquals("\"a?b?c?\"", string(s));
+        // same bytes String.getBytes(UTF_8) gives
+        JsonWriter w = JsonWriter.buffered();
+        w.value(s);
+        assertArrayEquals(("\"" + s + "\"").getBytes(StandardCharsets.UTF_8), w.toByteArray());
+    }
+
+    @Test
+    void nullText() throws IOException {
+        // as the text helpers always did: a null becomes an empty string
+        assertEquals("", JsonWriter.escape(null));
+        // the writer itself spells null as JSON null
+        assertEquals("null", string(null));
+        JsonWriter w = JsonWriter.buffered();
+        w.beginObject().field(A, (String) null).name(B).nullValue().endObject();
+        assertEquals("{\"a\":null,\"b\":null}", new String(w.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void escapeReturnsTheSameStringWhenClean(){
+        String s = "plain text 123";
+        assertSame(s, JsonWriter.escape(s));
+        assertEquals("", JsonWriter.escape(""));
+    }
+
+    @Test
+    void structureAndCommas() throws IOException {
+        JsonWriter w = JsonWriter.buffered();
+        w.beginObject().field(A, 1).name(B).beginArray().value(true).value(false).beginObject().endObject()
+            .beginArray().endArray().value(-7L).endArray().endObject();
+        assertEquals("{\"a\":1,\"b\":[true,false,{},[],-7]}", new String(w.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void numbers() throws IOException {
+        JsonWriter w = JsonWriter.buffered();
+        w.beginArray().value(0).value(-1).value(Integer.MAX_VALUE).value(Integer.MIN_VALUE)
+            .value(Long.MAX_VALUE).value(Long.MIN_VALUE).value(-10_000_000_000L).endArray();
+        assertEquals("[0,-1,2147483647,-2147483648,9223372036854775807,-9223372036854775808,-10000000000]",
+            new String(w.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void largeDocumentsSpillAndStream() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        // multi-byte and escaped characters land on the buffer boundaries
+        for (int i = 0; i < 5000; i++) sb.append("x\u00e9\u4e2d\ud83d\ude00\"\n");
+        String s = sb.toString();
+        byte[] expected = ("[\"" + JsonWriter.escape(s) + "\"," + Integer.MAX_VALUE + "]").getBytes(StandardCharsets.UTF_8);
+
+        JsonWriter buffered = JsonWriter.buffered();
+        buffered.beginArray().value(s).value(Integer.MAX_VALUE).endArray();
+        assertArrayEquals(expected, buffered.toByteArray());
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        JsonWriter streaming = JsonWriter.to(sink);
+        streaming.beginArray().value(s).value(Integer.MAX_VALUE).endArray();
+        streaming.close();
+        assertArrayEquals(expected, sink.toByteArray());
+    }
+
+    @Test
+    void pooledBuffersStartClean() throws IOException {
+        for (int round = 0; round < 3; round++){
+            JsonWriter big = JsonWriter.buffered();
+            big.beginArray();
+            for (int i = 0; i < 1000; i++) big.value("leftover");
+            big.endArray();
+            big.close();
+            // closing twice, or after toByteArray(), must not put the buffer back twice
+            big.close();
+            JsonWriter read = JsonWriter.buffered();
+            read.value("r");
+            read.toByteArray();
+            read.close();
+
+            // two writers alive at once: each must own its buffer
+            JsonWriter x = JsonWriter.buffered();
+            JsonWriter y = JsonWriter.buffered();
+            x.beginObject();
+            y.beginArray();
+            x.field(A, "x");
+            y.value(1);
+            x.endObject();
+            y.value(2).endArray();
+            assertEquals("{\"a\":\"x\"}", new String(x.toByteArray(), StandardCharsets.UTF_8));
+            assertEquals("[1,2]", new String(y.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void streamingCloseFlushesAndClosesTheSink() throws IOException {
+        final boolean[] closed = { false };
+        ByteArrayOutputStream sink = new ByteArrayOutputStream() {
+            @Override public void close(){ closed[0] = true; }
+        };
+        JsonWriter w = JsonWriter.to(sink);
+        w.value("a");
+        assertEquals(0, sink.size());
+        w.close();
+        assertEquals("\"a\"", new String(sink.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(true, closed[0]);
+        // a second close is a no-op
+        w.close();
+    }
+}
@@ -1,13 +1,9 @@
 package org.village.system;
 
-import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
-import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -26,6 +22,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import de.mkammerer.argon2.Argon2;
 import de.mkammerer.argon2.Argon2Factory;
+import org.village.common.json.JsonFields;
+import org.village.common.json.JsonWriter;
+import org.village.system.WorkerPools.RouteClass;
 
 public class Application {
     // persistence config (environment or defaults)
@@ -35,14 +34,130 @@ public class Application {
     private static final String DB_USER = System.getenv().getOrDefault("DB_USER", "village");
     private static final String DB_PASS = System.getenv().getOrDefault("DB_PASS", "villagepass");
 
-    private static javax.sql.DataSource dataSource = null;
-    private static volatile boolean tablesEnsured = false;
+    private static volatile javax.sql.DataSource dataSource = null;
+    private static volatile String sampleMapStamp = null;
     private static final SecureRandom SECURE_RANDOM = new SecureRandom();
     private static final int CAPTCHA_EXPIRES_SECONDS = 120;
     private static final Map<String, CaptchaEntry> CAPTCHA_STORE = new ConcurrentHashMap<>();
     private static final int ARGON2_ITERATIONS = 3;
     private static final int ARGON2_MEMORY_KB = 65536;
     private static final int ARGON2_PARALLELISM = 1;
+    private static final WorkerPools WORKERS = WorkerPools.fromEnv();
+    private static Router ROUTER;
+    private static final DashboardSummary DASHBOARD = new DashboardSummary(Application::openOwnConnection);
+    // the tables each GET reads (as its notModified() lists them); routes not named here coalesce on the global write epoch
+    private static final SingleFlight SINGLE_FLIGHT = SingleFlight.fromEnv(WORKERS)
+            .reads("/api/users/{id:int}", "users")
+            .reads("/api/finance/transactions", "transactions")
+            .reads("/api/finance/transactions/{id:int}", "transactions")
+            .reads("/api/warnings/events", "warnings")
+            .reads("/api/warnings/events/{id:int}", "warnings")
+            .reads("/api/warnings/logs", "warning_logs")
+            .reads("/api/warnings/stats", "warnings")
+            .reads("/api/industry/metrics", "industry_metrics")
+            .reads("/api/industry/metrics/{id:int}", "industry_metrics")
+            .reads("/api/map", "map_data")
+            .reads("/api/residents", "residents")
+            .reads("/api/residents/{id:int}", "residents")
+            .reads("/api/ai/records", "ai_records")
+            .reads("/api/ai/records/{id:int}", "ai_records")
+            .reads("/api/ops/monitor", "ops_monitor")
+            .reads("/api/ops/health", "ops_health")
+            .reads("/api/ops/logs", "ops_logs")
+            .reads("/api/ops/logs/report", "ops_logs")
+            .reads("/api/ops/backups", "ops_backups")
+            .reads("/api/ops/restores", "ops_restores")
+            .reads("/api/ops/audit", "ops_audit")
+            .reads("/api/ops/audit/report", "ops_audit")
+            .reads("/api/gov/tasks", "gov_tasks")
+            .reads("/api/gov/tasks/{id:int}", "gov_tasks")
+            .reads("/api/gov/checkins", "gov_checkins")
+            .reads("/api/gov/acceptance", "gov_acceptance")
+            .reads("/api/gov/point-rules", "gov_point_rules")
+            .reads("/api/gov/point-audit", "gov_point_audit")
+            .reads("/api/gov/activities", "gov_activities")
+            .reads("/api/gov/activities/{id:int}", "gov_activities")
+            .reads("/api/feedback/items", "feedback_items")
+            .reads("/api/feedback/items/{id:int}", "feedback_items")
+            .reads("/api/feedback/flow", "feedback_flow")
+            .reads("/api/feedback/announcements", "feedback_announcements")
+            .reads("/api/feedback/announcements/{id:int}", "feedback_announcements")
+            .reads("/api/feedback/stats", "feedback_items");
+    private static final ResponseCache RESPONSES = ResponseCache.fromEnv();
+    private static final Idempotency IDEMPOTENCY = Idempotency.fromEnv(Application::openOwnConnection);
+    private static final EventStream EVENTS = EventStream.fromEnv("warnings", "tasks", "feedback");
+    private static final SqlProfiler SQL_PROFILER = SqlProfiler.fromEnv();
+    // login also counts attempts per username, so spreading guesses over many addresses doesn't help
+    private static final RateLimiter.Rule LOGIN_USER_LIMIT = RateLimiter.Rule.fromEnv("login-user", 10, 5);
+    private static final RateLimiter.Rule AI_LIMIT = RateLimiter.Rule.fromEnv("ai", 20, 5);
+    private static final RateLimiter RATE_LIMITS = new RateLimiter()
+            .limit("/api/auth/login", RateLimiter.Rule.fromEnv("login", 10, 5))
+            .limit("/api/auth/captcha", RateLimiter.Rule.fromEnv("captcha", 30, 10))
+            .limit("/api/auth/password", RateLimiter.Rule.fromEnv("password", 5, 3))
+            .limit("/api/ai/ask", AI_LIMIT)
+            .limit("/api/ai/summarize", AI_LIMIT);
+
+    // list endpoint schemas: the JSON field names accepted for filtering/sorting, and the columns they read;
+    // timed() marks the event time that from/to filter on
+    private static final TableSchema USERS = TableSchema.of("users", "id:int", "name", "role", "username", "password");
+    private static final TableSchema TRANSACTIONS = TableSchema.of("transactions", "id:int", "description", "amount:int", "category", "owner", "status", "time").timed("time");
+    private static final TableSchema WARNINGS = TableSchema.of("warnings", "id:int", "title", "msg", "severity", "status", "assignee", "handler", "notify_status", "handled_at", "triggered_at").timed("triggered_at");
+    private static final TableSchema WARNING_LOGS = TableSchema.of("warning_logs", "id:int", "warning_id:int", "action", "actor", "note", "created_at").timed("created_at");
+    private static final TableSchema GOV_TASKS = TableSchema.of("gov_tasks", "id:int", "title", "description", "assignee", "status", "due_at", "created_at").timed("created_at");
+    private static final TableSchema GOV_CHECKINS = TableSchema.of("gov_checkins", "id:int", "task_id:int", "user_name", "note", "checkin_time").timed("checkin_time");
+    private static final TableSchema GOV_ACCEPTANCE = TableSchema.of("gov_acceptance", "id:int", "task_id:int", "result", "reviewer", "note", "accepted_at").timed("accepted_at");
+    private static final TableSchema GOV_POINT_RULES = TableSchema.of("gov_point_rules", "id:int", "rule_name", "points:int", "status", "created_at");
+    private static final TableSchema GOV_POINT_AUDIT = TableSchema.of("gov_point_audit", "id:int", "user_name", "rule_name", "points:int", "status", "applied_at", "approved_at").timed("applied_at");
+    private static final TableSchema GOV_ACTIVITIES = TableSchema.of("gov_activities", "id:int", "title", "organizer", "status", "start_at", "end_at", "created_at").timed("created_at");
+    private static final TableSchema FEEDBACK_ITEMS = TableSchema.of("feedback_items", "id:int", "title", "content", "reporter", "type", "status", "created_at", "updated_at").timed("created_at");
+    private static final TableSchema FEEDBACK_FLOW = TableSchema.of("feedback_flow", "id:int", "step_name", "owner", "status", "updated_at");
+    private static final TableSchema FEEDBACK_ANNOUNCEMENTS = TableSchema.of("feedback_announcements", "id:int", "title", "content", "publisher", "status", "published_at", "created_at").timed("created_at");
+    private static final TableSchema INDUSTRY_METRICS = TableSchema.of("industry_metrics", "id:int", "name", "value=value_num:int", "unit", "updated_at");
+    private static final TableSchema RESIDENTS = TableSchema.of("residents", "id:int", "name", "address", "phone", "x=x_num:int", "y=y_num:int");
+    private static final TableSchema AI_RECORDS = TableSchema.of("ai_records", "id:int", "type", "question", "answer", "created_at").timed("created_at");
+    private static final TableSchema OPS_AUDIT = TableSchema.of("ops_audit", "id:int", "action=action_desc", "actor", "status", "created_at").timed("created_at");
+    private static final TableSchema OPS_MONITOR = TableSchema.of("ops_monitor", "id:int", "metric=metric_name", "value=metric_value", "status", "created_at").timed("created_at");
+    private static final TableSchema OPS_HEALTH = TableSchema.of("ops_health", "id:int", "service=service_name", "status", "detail", "checked_at").timed("checked_at");
+    private static final TableSchema OPS_LOGS = TableSchema.of("ops_logs", "id:int", "level", "source", "message", "created_at").timed("created_at");
+    private static final TableSchema OPS_BACKUPS = TableSchema.of("ops_backups", "id:int", "target", "type=backup_type", "status", "operator", "started_at", "finished_at").timed("started_at");
+    private static final TableSchema OPS_RESTORES = TableSchema.of("ops_restores", "id:int", "backup_id:int", "status", "operator", "started_at", "finished_at").timed("started_at");
+    // users stay out: rows carry password hashes
+    private static final ChangeLog CHANGES = ChangeLog.fromEnv(Application::openConnection, RESIDENTS, TRANSACTIONS, WARNINGS, WARNING_LOGS,
+        GOV_TASKS, GOV_CHECKINS, GOV_ACCEPTANCE, GOV_POINT_RULES, GOV_POINT_AUDIT, GOV_ACTIVITIES, FEEDBACK_ITEMS, FEEDBACK_FLOW,
+        FEEDBACK_ANNOUNCEMENTS, INDUSTRY_METRICS, AI_RECORDS, OPS_MONITOR, OPS_HEALTH, OPS_LOGS, OPS_BACKUPS, OPS_RESTORES);
+    // write handlers commit through these; an unlogged table fails here, at class init, not after a row write
+    private static final ChangeLog.Table RESIDENTS_LOG = CHANGES.table(RESIDENTS);
+    private static final ChangeLog.Table TRANSACTIONS_LOG = CHANGES.table(TRANSACTIONS);
+    private static final ChangeLog.Table WARNINGS_LOG = CHANGES.table(WARNINGS);
+    private static final ChangeLog.Table WARNING_LOGS_LOG = CHANGES.table(WARNING_LOGS);
+    private static final ChangeLog.Table GOV_TASKS_LOG = CHANGES.table(GOV_TASKS);
+    private static final ChangeLog.Table GOV_CHECKINS_LOG = CHANGES.table(GOV_CHECKINS);
+    private static final ChangeLog.Table GOV_ACCEPTANCE_LOG = CHANGES.table(GOV_ACCEPTANCE);
+    private static final ChangeLog.Table GOV_POINT_RULES_LOG = CHANGES.table(GOV_POINT_RULES);
+    private static final ChangeLog.Table GOV_POINT_AUDIT_LOG = CHANGES.table(GOV_POINT_AUDIT);
+    private static final ChangeLog.Table GOV_ACTIVITIES_LOG = CHANGES.table(GOV_ACTIVITIES);
+    private static final ChangeLog.Table FEEDBACK_ITEMS_LOG = CHANGES.table(FEEDBACK_ITEMS);
+    private static final ChangeLog.Table FEEDBACK_FLOW_LOG = CHANGES.table(FEEDBACK_FLOW);
+    private static final ChangeLog.Table FEEDBACK_ANNOUNCEMENTS_LOG = CHANGES.table(FEEDBACK_ANNOUNCEMENTS);
+    private static final ChangeLog.Table INDUSTRY_METRICS_LOG = CHANGES.table(INDUSTRY_METRICS);
+    private static final ChangeLog.Table AI_RECORDS_LOG = CHANGES.table(AI_RECORDS);
+    private static final ChangeLog.Table OPS_MONITOR_LOG = CHANGES.table(OPS_MONITOR);
+    private static final ChangeLog.Table OPS_HEALTH_LOG = CHANGES.table(OPS_HEALTH);
+    private static final ChangeLog.Table OPS_LOGS_LOG = CHANGES.table(OPS_LOGS);
+    private static final ChangeLog.Table OPS_BACKUPS_LOG = CHANGES.table(OPS_BACKUPS);
+    private static final ChangeLog.Table OPS_RESTORES_LOG = CHANGES.table(OPS_RESTORES);
+    private static final TemporalBackfill TEMPORAL = TemporalBackfill.fromEnv(Application::openOwnConnection, TRANSACTIONS, WARNINGS, WARNING_LOGS,
+        GOV_TASKS, GOV_CHECKINS, GOV_ACCEPTANCE, GOV_POINT_AUDIT, GOV_ACTIVITIES, FEEDBACK_ITEMS, FEEDBACK_ANNOUNCEMENTS, AI_RECORDS,
+        OPS_AUDIT, OPS_MONITOR, OPS_HEALTH, OPS_LOGS, OPS_BACKUPS, OPS_RESTORES);
+    private static final Migrations MIGRATIONS = schemaMigrations();
+    private static final Startup STARTUP = Startup.fromEnv();
+    // GETs behind the caches and the busiest screens; sent through the router before the server reports ready
+    private static final String[] WARMUP_PATHS = {
+        "/api/dashboard/summary", "/api/map", "/api/gov/point-rules", "/api/feedback/flow", "/api/feedback/announcements",
+        "/api/industry/metrics", "/api/warnings/stats", "/api/warnings/rules", "/api/warnings/events?limit=50", "/api/feedback/stats",
+        "/api/feedback/items?limit=50", "/api/gov/tasks?limit=50", "/api/finance/transactions?limit=50", "/api/residents?limit=50",
+        "/api/ops/audit/report"
+    };
 
     private static class CaptchaEntry {
         final String code;
@@ -50,86 +165,107 @@ public class Application {
         CaptchaEntry(String code, long expiresAt){ this.code = code; this.expiresAt = expiresAt; }
     }
 
-    static {
-        try {
-            initializeDataSource();
-            ensureTables();
-            ensureColumns();
-            seedIfEmpty();
-        } catch (Exception e) {
-            System.err.println("DB init failed: " + e.getMessage());
-        }
-    }
-
     public static void main(String[] args) throws Exception {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-
-        server.createContext("/api/", exchange -> {
-            // handle preflight
-            if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) { addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; }
-            if ("GET".equals(exchange.getRequestMethod())) {
-                writeText(exchange, 200, "Village 管理系统 - API (Java JDBC) 已启动");
-            } else {
-                writeText(exchange, 405, "Method Not Allowed");
-            }
-        });
-
-        // users
-        server.createContext("/api/users", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleUsersRoot(exchange); });
-        server.createContext("/api/finance/transactions", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleTransactions(exchange); });
-        server.createContext("/api/finance/transactions/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleTransactionById(exchange); });
-        server.createContext("/api/warnings/events", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleWarnings(exchange); });
-        server.createContext("/api/warnings/events/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleWarningById(exchange); });
-        server.createContext("/api/warnings/rules", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleWarningRules(exchange); });
-        server.createContext("/api/warnings/logs", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleWarningLogs(exchange); });
-        server.createContext("/api/warnings/stats", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleWarningStats(exchange); });
-        server.createContext("/api/auth/login", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleLogin(exchange); });
-        server.createContext("/api/auth/captcha", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleCaptcha(exchange); });
-        server.createContext("/api/auth/password", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handlePasswordChange(exchange); });
-        server.createContext("/api/industry/metrics", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleIndustryMetrics(exchange); });
-        server.createContext("/api/industry/metrics/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleIndustryMetricById(exchange); });
-        server.createContext("/api/map", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleMapData(exchange); });
-        server.createContext("/api/residents", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleResidents(exchange); });
-        server.createContext("/api/residents/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleResidentById(exchange); });
-        server.createContext("/api/ai/records", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleAiRecords(exchange); });
-        server.createContext("/api/ai/records/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleAiRecordById(exchange); });
-        server.createContext("/api/ai/ask", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleAiAsk(exchange); });
-        server.createContext("/api/ai/summarize", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleAiSummarize(exchange); });
-        server.createContext("/api/ops/monitor", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsMonitor(exchange); });
-        server.createContext("/api/ops/health", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsHealth(exchange); });
-        server.createContext("/api/ops/logs", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsLogs(exchange); });
-        server.createContext("/api/ops/logs/report", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsLogsReport(exchange); });
-        server.createContext("/api/ops/backups", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsBackups(exchange); });
-        server.createContext("/api/ops/restores", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsRestores(exchange); });
-        server.createContext("/api/ops/audit", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsAudit(exchange); });
-        server.createContext("/api/ops/audit/report", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleOpsAuditReport(exchange); });
-        server.createContext("/api/gov/tasks", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovTasks(exchange); });
-        server.createContext("/api/gov/tasks/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovTaskById(exchange); });
-        server.createContext("/api/gov/checkins", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovCheckins(exchange); });
-        server.createContext("/api/gov/acceptance", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovAcceptance(exchange); });
-        server.createContext("/api/gov/point-rules", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovPointRules(exchange); });
-        server.createContext("/api/gov/point-rules/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovPointRuleById(exchange); });
-        server.createContext("/api/gov/point-audit", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovPointAudit(exchange); });
-        server.createContext("/api/gov/point-audit/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovPointAuditById(exchange); });
-        server.createContext("/api/gov/activities", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovActivities(exchange); });
-        server.createContext("/api/gov/activities/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleGovActivityById(exchange); });
-        server.createContext("/api/feedback/items", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackItems(exchange); });
-        server.createContext("/api/feedback/items/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackItemById(exchange); });
-        server.createContext("/api/feedback/flow", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackFlow(exchange); });
-        server.createContext("/api/feedback/announcements", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackAnnouncements(exchange); });
-        server.createContext("/api/feedback/announcements/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackAnnouncementById(exchange); });
-        server.createContext("/api/feedback/stats", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleFeedbackStats(exchange); });
-
-        // dynamic id handlers for users
-        server.createContext("/api/users/", exchange -> { if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())){ addCorsHeaders(exchange); exchange.sendResponseHeaders(204, -1); return; } handleUserById(exchange); });
-
-        server.setExecutor(null);
-        server.start();
-        System.out.println("Village 管理系统 已启动，监听端口 8080");
+        ROUTER = buildRouter();
+        ServerEngine engine = ServerEngine.fromEnv(8080);
+        engine.start(ROUTER);
+        System.out.println("Village 管理系统 已启动，监听端口 " + engine.port() + " (" + engine.name() + ")");
+        // the port is open from here on; database routes answer 503 until bootstrap and warm-up are done
+        STARTUP.begin(Application::initializeDataSource, () -> { MIGRATIONS.migrate(dataSource); TEMPORAL.start(); }, ROUTER, WARMUP_PATHS);
+    }
+
+    // every API route, compiled once; by-id routes carry a typed {id:int} path param
+    static Router buildRouter(){
+        Router router = new Router(WORKERS)
+                .admission(STARTUP.admission("/api", "/api/health/live", "/api/health/ready", "/api/ops/executors", "/api/ops/routes",
+                        "/api/ops/db-pool", "/api/ops/sql", "/api/ops/migrations", "/api/ops/temporal", "/api/ops/coalescing", "/api/ops/response-cache",
+                        "/api/ops/rate-limits", "/api/ops/idempotency", "/api/ops/stream", "/api/ops/sync"))
+                .admission(RATE_LIMITS.admission())
+                .use(Middlewares.cors(86400))
+                .use(Middlewares.timing(WorkerPools.envInt("HTTP_SLOW_MS", 1000)))
+                .use(Middlewares.errors())
+                .use(Batch.scope())
+                .use(IDEMPOTENCY.middleware())
+                .use(SINGLE_FLIGHT.middleware());
+        router.add("/api", RouteClass.CRUD, Application::handleApiRoot);
+        router.add("/api/health/live", RouteClass.CRUD, STARTUP::live);
+        router.add("/api/health/ready", RouteClass.CRUD, STARTUP::ready);
+        router.add("/api/users", RouteClass.AUTH, Application::handleUsersRoot);
+        router.add("/api/users/{id:int}", RouteClass.CRUD, Application::handleUserById);
+        router.add("/api/finance/transactions", RouteClass.CRUD, Application::handleTransactions);
+        router.add("/api/finance/transactions/{id:int}", RouteClass.CRUD, Application::handleTransactionById);
+        router.add("/api/warnings/events", RouteClass.CRUD, Application::handleWarnings);
+        router.add("/api/warnings/events/{id:int}", RouteClass.CRUD, Application::handleWarningById);
+        router.add("/api/warnings/rules", RouteClass.CRUD, Application::handleWarningRules);
+        router.add("/api/warnings/logs", RouteClass.CRUD, Application::handleWarningLogs);
+        router.add("/api/warnings/stats", RouteClass.CRUD, Application::handleWarningStats);
+        router.add("/api/auth/login", RouteClass.AUTH, Application::handleLogin);
+        router.add("/api/auth/captcha", RouteClass.AUTH, Application::handleCaptcha);
+        router.add("/api/auth/password", RouteClass.AUTH, Application::handlePasswordChange);
+        router.add("/api/industry/metrics", RouteClass.CRUD, Application::handleIndustryMetrics);
+        router.add("/api/industry/metrics/{id:int}", RouteClass.CRUD, Application::handleIndustryMetricById);
+        router.add("/api/map", RouteClass.EXPORT, Application::handleMapData);
+        router.add("/api/residents", RouteClass.CRUD, Application::handleResidents);
+        router.add("/api/residents/{id:int}", RouteClass.CRUD, Application::handleResidentById);
+        router.add("/api/ai/records", RouteClass.CRUD, Application::handleAiRecords);
+        router.add("/api/ai/records/{id:int}", RouteClass.CRUD, Application::handleAiRecordById);
+        router.add("/api/ai/ask", RouteClass.AI, Application::handleAiAsk);
+        router.add("/api/ai/summarize", RouteClass.AI, Application::handleAiSummarize);
+        router.add("/api/ops/monitor", RouteClass.CRUD, Application::handleOpsMonitor);
+        router.add("/api/ops/health", RouteClass.CRUD, Application::handleOpsHealth);
+        router.add("/api/ops/logs", RouteClass.CRUD, Application::handleOpsLogs);
+        router.add("/api/ops/logs/report", RouteClass.EXPORT, Application::handleOpsLogsReport);
+        router.add("/api/ops/backups", RouteClass.CRUD, Application::handleOpsBackups);
+        router.add("/api/ops/restores", RouteClass.CRUD, Application::handleOpsRestores);
+        router.add("/api/ops/audit", RouteClass.CRUD, Application::handleOpsAudit);
+        router.add("/api/ops/audit/report", RouteClass.EXPORT, Application::handleOpsAuditReport);
+        router.add("/api/ops/executors", RouteClass.CRUD, Application::handleOpsExecutors);
+        router.add("/api/ops/db-pool", RouteClass.CRUD, Application::handleOpsDbPool);
+        router.add("/api/ops/sql", RouteClass.CRUD, Application::handleOpsSql);
+        router.add("/api/ops/migrations", RouteClass.CRUD, Application::handleOpsMigrations);
+        router.add("/api/ops/temporal", RouteClass.CRUD, Application::handleOpsTemporal);
+        router.add("/api/ops/routes", RouteClass.CRUD, Application::handleOpsRoutes);
+        router.add("/api/ops/coalescing", RouteClass.CRUD, Application::handleOpsCoalescing);
+        router.add("/api/ops/response-cache", RouteClass.CRUD, Application::handleOpsResponseCache);
+        router.add("/api/ops/rate-limits", RouteClass.CRUD, Application::handleOpsRateLimits);
+        router.add("/api/ops/idempotency", RouteClass.CRUD, Application::handleOpsIdempotency);
+        router.add("/api/ops/stream", RouteClass.CRUD, Application::handleOpsStream);
+        router.add("/api/ops/sync", RouteClass.CRUD, Application::handleOpsSync);
+        router.add("/api/batch", RouteClass.BATCH, Application::handleBatch);
+        router.add("/api/stream", RouteClass.STREAM, EVENTS);
+        router.add("/api/sync", RouteClass.CRUD, Application::handleSync);
+        router.add("/api/dashboard/summary", RouteClass.CRUD, Application::handleDashboardSummary);
+        router.add("/api/gov/tasks", RouteClass.CRUD, Application::handleGovTasks);
+        router.add("/api/gov/tasks/{id:int}", RouteClass.CRUD, Application::handleGovTaskById);
+        router.add("/api/gov/checkins", RouteClass.CRUD, Application::handleGovCheckins);
+        router.add("/api/gov/acceptance", RouteClass.CRUD, Application::handleGovAcceptance);
+        router.add("/api/gov/point-rules", RouteClass.CRUD, Application::handleGovPointRules);
+        router.add("/api/gov/point-rules/{id:int}", RouteClass.CRUD, Application::handleGovPointRuleById);
+        router.add("/api/gov/point-audit", RouteClass.CRUD, Application::handleGovPointAudit);
+        router.add("/api/gov/point-audit/{id:int}", RouteClass.CRUD, Application::handleGovPointAuditById);
+        router.add("/api/gov/activities", RouteClass.CRUD, Application::handleGovActivities);
+        router.add("/api/gov/activities/{id:int}", RouteClass.CRUD, Application::handleGovActivityById);
+        router.add("/api/feedback/items", RouteClass.CRUD, Application::handleFeedbackItems);
+        router.add("/api/feedback/items/{id:int}", RouteClass.CRUD, Application::handleFeedbackItemById);
+        router.add("/api/feedback/flow", RouteClass.CRUD, Application::handleFeedbackFlow);
+        router.add("/api/feedback/announcements", RouteClass.CRUD, Application::handleFeedbackAnnouncements);
+        router.add("/api/feedback/announcements/{id:int}", RouteClass.CRUD, Application::handleFeedbackAnnouncementById);
+        router.add("/api/feedback/stats", RouteClass.CRUD, Application::handleFeedbackStats);
+        StaticAssets assets = StaticAssets.fromEnv();
+        if (assets != null) router.fallback(RouteClass.STATIC, assets);
+        return router;
+    }
+
+    private static void handleApiRoot(Exchange ex) throws IOException {
+        if ("GET".equals(ex.getRequestMethod())) {
+            writeText(ex, 200, "Village 管理系统 - API (Java JDBC) 已启动");
+        } else {
+            writeText(ex, 405, "Method Not Allowed");
+        }
     }
 
     // helper to read request body
-    private static String readBody(HttpExchange ex) throws IOException {
+    private static String readBody(Exchange ex) throws IOException {
         InputStream in = ex.getRequestBody();
         java.io.ByteArrayOutputStream bout = new java.io.ByteArrayOutputStream();
         byte[] buf = new byte[4096];
@@ -140,21 +276,34 @@ public class Application {
         return new String(bout.toByteArray(), StandardCharsets.UTF_8);
     }
 
+    // request body parsed once; malformed JSON is a JsonParseException (IllegalArgumentException) and answers 400
+    private static JsonFields readJson(Exchange ex) throws IOException {
+        return JsonFields.parse(readBody(ex));
+    }
+
     // DataSource init
-    private static void initializeDataSource() throws Exception {
+    private static synchronized void initializeDataSource() throws Exception {
+        if (dataSource != null) return;
         com.mysql.cj.jdbc.MysqlDataSource ds = new com.mysql.cj.jdbc.MysqlDataSource();
-        String url = String.format("jdbc:mysql://%s:%s/%s?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC", DB_HOST, DB_PORT, DB_NAME);
+        // pooled connections live long enough for the driver's per-connection statement cache to pay off;
+        // local session state skips the round trips the pool's autocommit/isolation resets would cost
+        String url = String.format("jdbc:mysql://%s:%s/%s?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC"
+            + "&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=2048&useLocalSessionState=true", DB_HOST, DB_PORT, DB_NAME);
         ds.setURL(url);
         ds.setUser(DB_USER);
         ds.setPassword(DB_PASS);
-        dataSource = ds;
+        // DB_POOL_MAX=0: a fresh connection per request, as before
+        javax.sql.DataSource pooled = WorkerPools.envInt("DB_POOL_MAX", 1) == 0 ? ds : ConnectionPool.fromEnv(ds);
+        // outside the pool, so checkout waits don't count as statement time
+        dataSource = SQL_PROFILER.wrap(pooled);
         // quick test
         try (java.sql.Connection c = dataSource.getConnection()) {
             System.out.println("Connected to MySQL: " + c.getMetaData().getURL());
         }
     }
 
-    private static void ensureTables() throws Exception {
+    // append only: a schema change is a new numbered migration, applied ones are never edited (see Migrations)
+    private static Migrations schemaMigrations(){
         String u = "CREATE TABLE IF NOT EXISTS users (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), role VARCHAR(100), username VARCHAR(100), password VARCHAR(100)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
         String t = "CREATE TABLE IF NOT EXISTS transactions (id INT AUTO_INCREMENT PRIMARY KEY, description VARCHAR(255), amount INT, category VARCHAR(32), owner VARCHAR(64), status VARCHAR(32), time VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
         String w = "CREATE TABLE IF NOT EXISTS warnings (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), msg TEXT, severity VARCHAR(50), status VARCHAR(50), assignee VARCHAR(64), handler VARCHAR(64), notify_status VARCHAR(32), handled_at VARCHAR(64), triggered_at VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
@@ -178,47 +327,48 @@ public class Application {
         String gact = "CREATE TABLE IF NOT EXISTS gov_activities (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), organizer VARCHAR(64), status VARCHAR(32), start_at VARCHAR(64), end_at VARCHAR(64), created_at VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
         String fb = "CREATE TABLE IF NOT EXISTS feedback_items (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), content TEXT, reporter VARCHAR(64), type VARCHAR(32), status VARCHAR(32), created_at VARCHAR(64), updated_at VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
         String ff = "CREATE TABLE IF NOT EXISTS feedback_flow (id INT AUTO_INCREMENT PRIMARY KEY, step_name VARCHAR(255), owner VARCHAR(64), status VARCHAR(32), updated_at VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+        String ik = "CREATE TABLE IF NOT EXISTS idempotency_keys (scope_hash CHAR(64) PRIMARY KEY, fingerprint CHAR(64) NOT NULL, status INT NOT NULL, headers TEXT, body MEDIUMBLOB, created_at BIGINT NOT NULL, INDEX idx_idempotency_created (created_at)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
         String fa = "CREATE TABLE IF NOT EXISTS feedback_announcements (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255), content TEXT, publisher VARCHAR(64), status VARCHAR(32), published_at VARCHAR(64), created_at VARCHAR(64)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
-        try (java.sql.Connection c = dataSource.getConnection(); java.sql.Statement s = c.createStatement()){
-            s.execute(u); s.execute(t); s.execute(w); s.execute(wl); s.execute(im); s.execute(md); s.execute(rs); s.execute(ai); s.execute(oa); s.execute(om); s.execute(oh); s.execute(ol); s.execute(ob); s.execute(orr); s.execute(ak);
-            s.execute(gt); s.execute(gc); s.execute(ga); s.execute(gpr); s.execute(gpa); s.execute(gact);
-            s.execute(fb); s.execute(ff); s.execute(fa);
-        }
+        return new Migrations()
+            .add(1, "base tables",
+                Migrations.sql(u), Migrations.sql(t), Migrations.sql(w), Migrations.sql(wl), Migrations.sql(im), Migrations.sql(md), Migrations.sql(rs),
+                Migrations.sql(ai), Migrations.sql(oa), Migrations.sql(om), Migrations.sql(oh), Migrations.sql(ol), Migrations.sql(ob), Migrations.sql(orr),
+                Migrations.sql(ak), Migrations.sql(gt), Migrations.sql(gc), Migrations.sql(ga), Migrations.sql(gpr), Migrations.sql(gpa), Migrations.sql(gact),
+                Migrations.sql(fb), Migrations.sql(ff), Migrations.sql(fa), Migrations.sql(ik), Migrations.sql(ChangeLog.DDL))
+            // columns added after the first release; tables created above already have them
+            .add(2, "columns missing from early databases",
+                Migrations.addColumn("users", "username VARCHAR(100)"),
+                Migrations.addColumn("users", "password VARCHAR(100)"),
+                Migrations.addColumn("ai_records", "type VARCHAR(32)"),
+                Migrations.addColumn("transactions", "category VARCHAR(32)"),
+                Migrations.addColumn("transactions", "owner VARCHAR(64)"),
+                Migrations.addColumn("transactions", "status VARCHAR(32)"),
+                Migrations.addColumn("warnings", "assignee VARCHAR(64)"),
+                Migrations.addColumn("warnings", "handler VARCHAR(64)"),
+                Migrations.addColumn("warnings", "notify_status VARCHAR(32)"),
+                Migrations.addColumn("warnings", "handled_at VARCHAR(64)"),
+                Migrations.addColumn("map_data", "map_type VARCHAR(16)"))
+            .add(3, "seed data", Migrations.code("seedIfEmpty", Application::seedIfEmpty))
+            // nullable column + secondary index: online DDL, the values are filled in by TEMPORAL afterwards
+            .add(4, "event-time DATETIME(3) shadow columns", TEMPORAL.migrationSteps());
     }
 
-    private static void ensureColumns() throws Exception {
-        try (java.sql.Connection c = dataSource.getConnection(); java.sql.Statement s = c.createStatement()){
-            try { s.execute("ALTER TABLE users ADD COLUMN username VARCHAR(100)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE users ADD COLUMN password VARCHAR(100)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE ai_records ADD COLUMN type VARCHAR(32)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE transactions ADD COLUMN category VARCHAR(32)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE transactions ADD COLUMN owner VARCHAR(64)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE transactions ADD COLUMN status VARCHAR(32)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE warnings ADD COLUMN assignee VARCHAR(64)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE warnings ADD COLUMN handler VARCHAR(64)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE warnings ADD COLUMN notify_status VARCHAR(32)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE warnings ADD COLUMN handled_at VARCHAR(64)"); } catch (Exception ignored) {}
-            try { s.execute("ALTER TABLE map_data ADD COLUMN map_type VARCHAR(16)"); } catch (Exception ignored) {}
-        }
-    }
-
-    private static void ensureTablesSafe(){
-        if (tablesEnsured) return;
-        synchronized (Application.class){
-            if (tablesEnsured) return;
-            try { ensureTables(); ensureColumns(); tablesEnsured = true; } catch (Exception e) { /* ignore and retry later */ }
-        }
+    private static java.sql.Connection openConnection() throws Exception {
+        java.sql.Connection shared = Batch.lease();
+        if (shared != null) return shared;
+        return openOwnConnection();
     }
 
-    private static java.sql.Connection openConnection() throws Exception {
+    private static java.sql.Connection openOwnConnection() throws Exception {
         if (dataSource == null) {
             initializeDataSource();
         }
-        ensureTablesSafe();
+        // only does something when the startup migration failed (database down at boot)
+        MIGRATIONS.migrateQuietly(dataSource);
         return dataSource.getConnection();
     }
 
-    private static String loadSvgFromFile(){
+    private static Path findSvgFile(){
         String[] candidates = new String[]{
                 "地图.svg",
                 Paths.get(System.getProperty("user.dir"), "地图.svg").toString(),
@@ -228,14 +378,44 @@ public class Application {
         for (String p : candidates){
             try {
                 Path path = Paths.get(p).toAbsolutePath().normalize();
-                if (Files.exists(path)){
-                    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
-                }
+                if (Files.exists(path)) return path;
             } catch (Exception ignored) {}
         }
         return null;
     }
 
+    private static String loadSvgFromFile(){
+        Path path = findSvgFile();
+        if (path == null) return null;
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // copies 地图.svg into map_data only when the file is new or changed since the last sync,
+    // so map GETs no longer rewrite the row (and bump its version) on every hit
+    private static void syncSampleMapFile(){
+        Path path = findSvgFile();
+        if (path == null) return;
+        String stamp;
+        try {
+            stamp = path + ":" + Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+        } catch (Exception e) {
+            return;
+        }
+        if (stamp.equals(sampleMapStamp)) return;
+        synchronized (Application.class){
+            if (stamp.equals(sampleMapStamp)) return;
+            try (java.sql.Connection c = openConnection()){
+                ensureSampleMapData(c);
+                TableVersions.bump("map_data");
+                sampleMapStamp = stamp;
+            } catch (Exception ignored) {}
+        }
+    }
+
     private static void ensureSampleMapData(java.sql.Connection c){
         try {
             String sampleSvg = loadSvgFromFile();
@@ -266,8 +446,9 @@ public class Application {
         }
     }
 
-    private static void seedIfEmpty() throws Exception {
-        try (java.sql.Connection c = dataSource.getConnection(); java.sql.Statement s = c.createStatement()){
+    // runs once, as migration 3; the counts keep it from duplicating data in databases older than schema_version
+    private static void seedIfEmpty(java.sql.Connection c) throws Exception {
+        try (java.sql.Statement s = c.createStatement()){
             java.sql.ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM users"); rs.next(); if (rs.getInt(1)==0){
                 s.execute("INSERT INTO users (name,role,username,password) VALUES ('张三','管理员',NULL,NULL),('李四','普通用户',NULL,NULL)");
             }
@@ -346,67 +527,93 @@ public class Application {
         }
     }
 
-    private static void writeJson(HttpExchange ex, int status, String json) throws IOException {
-        addCorsHeaders(ex);
-        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
-        byte[] b = json.getBytes(StandardCharsets.UTF_8);
-        ex.sendResponseHeaders(status, b.length);
-        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    private static void writeJson(Exchange ex, int status, String json) throws IOException {
+        ResponseCompression.write(ex, status, "application/json; charset=utf-8", json.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static void writeJson(Exchange ex, int status, byte[] json) throws IOException {
+        ResponseCompression.write(ex, status, "application/json; charset=utf-8", json, null);
+    }
+
+    // for payloads that rarely change: the gzip body is kept per key and reused while the bytes stay identical
+    private static void writeJsonCached(Exchange ex, int status, String cacheKey, String json) throws IOException {
+        writeJsonCached(ex, status, cacheKey, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeJsonCached(Exchange ex, int status, String cacheKey, byte[] json) throws IOException {
+        ResponseCompression.write(ex, status, "application/json; charset=utf-8", json, cacheKey);
     }
 
-    private static void writeText(HttpExchange ex, int status, String txt) throws IOException {
-        addCorsHeaders(ex);
-        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
-        byte[] b = txt.getBytes(StandardCharsets.UTF_8);
-        ex.sendResponseHeaders(status, b.length);
-        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    // 200 for a table-tagged GET: kept in the off-heap response cache when possible, so the next hit skips the database
+    private static void writeJsonTagged(Exchange ex, ResponseCache.Ticket cached, byte[] json) throws IOException {
+        if (!RESPONSES.put(ex, cached, "application/json; charset=utf-8", json)) writeJson(ex, 200, json);
     }
 
-    // add basic CORS headers
-    private static void addCorsHeaders(HttpExchange ex){
-        ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        ex.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-        ex.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type, Authorization");
+    // forward-only + read-only + Integer.MIN_VALUE fetch size makes Connector/J hand rows over one at a time
+    // instead of buffering the whole result; pair with JsonStream so neither side holds the full table
+    private static java.sql.Statement streamingStatement(java.sql.Connection c) throws java.sql.SQLException {
+        java.sql.Statement s = c.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
+        s.setFetchSize(Integer.MIN_VALUE);
+        return s;
+    }
+
+    private static java.sql.PreparedStatement streamingStatement(java.sql.Connection c, String sql) throws java.sql.SQLException {
+        java.sql.PreparedStatement ps = c.prepareStatement(sql, java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(Integer.MIN_VALUE);
+        return ps;
+    }
+
+    // conditional GET: 304 straight away when If-None-Match still matches the tables' versions, else tag the response
+    private static boolean notModified(Exchange ex, String... tables) throws IOException {
+        String etag = TableVersions.etag(ex.getRequestURI().toString(), tables);
+        // each representation of the same URL gets its own tag
+        if (ListQuery.acceptsColumnar(ex)) etag = etag.substring(0, etag.length() - 1) + ".col\"";
+        if (ResponseCompression.acceptsGzip(ex)) etag = etag.substring(0, etag.length() - 1) + ".gz\"";
+        ex.getResponseHeaders().set("ETag", etag);
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        String inm = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (inm == null) return false;
+        for (String tag : inm.split(",")){
+            String t = tag.trim();
+            if (t.equals(etag) || t.equals("*")){
+                ResponseCompression.write(ex, 304, "application/json; charset=utf-8", new byte[0], null);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeText(Exchange ex, int status, String txt) throws IOException {
+        ResponseCompression.write(ex, status, "text/plain; charset=utf-8", txt.getBytes(StandardCharsets.UTF_8), null);
     }
 
     // Users root handler
-    private static void handleUsersRoot(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleUsersRoot(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)) {
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,name,role,username,password FROM users");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"name\":\"").append(escape(rs.getString("name"))).append("\",")
-                      .append("\"role\":\"").append(escape(rs.getString("role"))).append("\",")
-                      .append("\"username\":\"").append(escape(rs.getString("username"))).append("\",")
-                      .append("\"password\":\"").append(escape(rs.getString("password"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']');
-                writeJson(ex,200,sb.toString());
+            if (notModified(ex, "users")) return;
+            try (java.sql.Connection c = openConnection(); java.sql.Statement s = streamingStatement(c)){
+                java.sql.ResultSet rs = s.executeQuery(USERS.select);
+                JsonWriter out = JsonStream.open(ex, 200); out.beginArray();
+                while(rs.next()) USERS.writeRow(out, rs);
+                out.endArray(); out.close();
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
 
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonString(body, "name");
-            String role = extractJsonString(body, "role");
-            String username = extractJsonString(body, "username");
-            String password = extractJsonString(body, "password");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String role = body.text("role");
+            String username = body.text("username");
+            String password = body.text("password");
             String passwordHash = password == null ? null : hashPassword(password);
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO users (name,role,username,password) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, name==null?"用户":name);
                 ps.setString(2, role==null?"普通用户":role);
                 ps.setString(3, username);
                 ps.setString(4, passwordHash);
-                ps.executeUpdate();
+                ps.executeUpdate(); TableVersions.bump("users");
                 java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
                 writeJson(ex,201,"{\"id\":"+id+",\"name\":\""+escape(name==null?"用户":name)+"\",\"role\":\""+escape(role==null?"普通用户":role)+"\"}");
                 return;
@@ -416,11 +623,9 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleUserById(HttpExchange ex) throws IOException {
-        String path = ex.getRequestURI().getPath(); // /api/users/{id}
-        String idStr = path.replaceFirst(".*/api/users/","");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleUserById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
+        if ("GET".equals(ex.getRequestMethod()) && notModified(ex, "users")) return;
         Map<String,Object> found = null;
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,role,username,password FROM users WHERE id=?")){
             ps.setInt(1,id); java.sql.ResultSet rs = ps.executeQuery(); if (rs.next()){ found = new HashMap<>(); found.put("id", rs.getInt("id")); found.put("name", rs.getString("name")); found.put("role", rs.getString("role")); }
@@ -433,58 +638,47 @@ public class Application {
         }
         if ("PUT".equals(method)){
             if (found==null) { writeText(ex,404,"not found"); return; }
-            String body = readBody(ex);
-            String name = extractJsonField(body, "name");
-            String role = extractJsonField(body, "role");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String role = body.text("role");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE users SET name=?,role=? WHERE id=?")){
                 ps.setString(1, name==null?found.get("name").toString():name);
                 ps.setString(2, role==null?found.get("role").toString():role);
                 ps.setInt(3, id);
-                ps.executeUpdate();
+                if (ps.executeUpdate() > 0) TableVersions.bump("users");
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             if (found==null) { writeText(ex,404,"not found"); return; }
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM users WHERE id=?")){
-                ps.setInt(1,id); ps.executeUpdate(); writeText(ex,204,""); return;
+                ps.setInt(1,id); if (ps.executeUpdate() > 0) TableVersions.bump("users"); writeText(ex,204,""); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleTransactions(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleTransactions(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,description,amount,category,owner,status,time FROM transactions ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"description\":\"").append(escape(rs.getString("description"))).append("\",")
-                      .append("\"amount\":").append(rs.getInt("amount")).append(',')
-                      .append("\"category\":\"").append(escape(rs.getString("category"))).append("\",")
-                      .append("\"owner\":\"").append(escape(rs.getString("owner"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"time\":\"").append(escape(rs.getString("time"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "transactions")) return;
+            ListQuery q = ListQuery.parse(ex, TRANSACTIONS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
 
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String description = extractJsonField(body, "description");
-            if (description == null) description = extractJsonField(body, "desc");
-            String amount = extractJsonField(body, "amount");
-            String category = extractJsonField(body, "category");
-            String owner = extractJsonField(body, "owner");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String description = body.text("description");
+            if (description == null) description = body.text("desc");
+            String amount = body.text("amount");
+            String category = body.text("category");
+            String owner = body.text("owner");
+            String status = body.text("status");
             int amountValue = 0;
             try { amountValue = amount==null?0:Integer.parseInt(amount); } catch(Exception ignored) { amountValue = 0; }
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO transactions (description,amount,category,owner,status,time) VALUES (?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
@@ -494,8 +688,8 @@ public class Application {
                 ps.setString(4, owner);
                 ps.setString(5, status==null?"待审核":status);
                 ps.setString(6, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); TRANSACTIONS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"description\":\""+escape(description==null?"交易":description)+"\",\"amount\":"+amountValue+",\"category\":\""+escape(category==null?"收入":category)+"\",\"owner\":\""+escape(owner)+"\",\"status\":\""+escape(status==null?"待审核":status)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -504,12 +698,9 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleTransactionById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/finance/transactions/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleTransactionById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
+        if ("GET".equals(ex.getRequestMethod()) && notModified(ex, "transactions")) return;
 
         Map<String,Object> found = null;
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,description,amount,category,owner,status,time FROM transactions WHERE id=?")){
@@ -535,12 +726,12 @@ public class Application {
         }
         if ("PUT".equals(method)){
             if (found==null) { writeText(ex,404,"not found"); return; }
-            String body = readBody(ex);
-            String description = extractJsonField(body, "description");
-            String amount = extractJsonField(body, "amount");
-            String category = extractJsonField(body, "category");
-            String owner = extractJsonField(body, "owner");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String description = body.text("description");
+            String amount = body.text("amount");
+            String category = body.text("category");
+            String owner = body.text("owner");
+            String status = body.text("status");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE transactions SET description=?,amount=?,category=?,owner=?,status=? WHERE id=?")){
                 ps.setString(1, description==null?found.get("description").toString():description);
                 int amountValue = (Integer)found.get("amount");
@@ -550,7 +741,7 @@ public class Application {
                 ps.setString(4, owner==null?String.valueOf(found.get("owner")):owner);
                 ps.setString(5, status==null?String.valueOf(found.get("status")):status);
                 ps.setInt(6, id);
-                ps.executeUpdate();
+                c.setAutoCommit(false); if (ps.executeUpdate() > 0) TRANSACTIONS_LOG.commit(c, id, 'U');
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
@@ -558,44 +749,31 @@ public class Application {
             if (found==null) { writeText(ex,404,"not found"); return; }
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM transactions WHERE id=?")){
                 ps.setInt(1, id);
-                ps.executeUpdate();
+                c.setAutoCommit(false); if (ps.executeUpdate() > 0) TRANSACTIONS_LOG.commit(c, id, 'D');
                 writeText(ex,204,""); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleWarnings(HttpExchange ex) throws IOException {
+    private static void handleWarnings(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,title,msg,severity,status,assignee,handler,notify_status,handled_at,triggered_at FROM warnings ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"title\":\"").append(escape(rs.getString("title"))).append("\",")
-                      .append("\"msg\":\"").append(escape(rs.getString("msg"))).append("\",")
-                      .append("\"severity\":\"").append(escape(rs.getString("severity"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"assignee\":\"").append(escape(rs.getString("assignee"))).append("\",")
-                      .append("\"handler\":\"").append(escape(rs.getString("handler"))).append("\",")
-                      .append("\"notify_status\":\"").append(escape(rs.getString("notify_status"))).append("\",")
-                      .append("\"handled_at\":\"").append(escape(rs.getString("handled_at"))).append("\",")
-                      .append("\"triggered_at\":\"").append(escape(rs.getString("triggered_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "warnings")) return;
+            ListQuery q = ListQuery.parse(ex, WARNINGS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body,"title");
-            String msg = extractJsonField(body,"msg");
-            String severity = extractJsonField(body,"severity");
-            String assignee = extractJsonField(body,"assignee");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String msg = body.text("msg");
+            String severity = body.text("severity");
+            String assignee = body.text("assignee");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO warnings (title,msg,severity,status,assignee,notify_status,triggered_at) VALUES (?,?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, title==null?"未命名":title);
                 ps.setString(2, msg==null?"":msg);
@@ -604,124 +782,94 @@ public class Application {
                 ps.setString(5, assignee);
                 ps.setString(6, "未通知");
                 ps.setString(7, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); WARNINGS_LOG.commit(c, id, 'I');
+                publishChange("warnings","created",id,"title",title==null?"未命名":title,"msg",msg==null?"":msg,"severity",severity==null?"中":severity,"status","未处理","assignee",assignee);
                 writeJson(ex,201,"{\"id\":"+id+",\"title\":\""+escape(title==null?"未命名":title)+"\",\"msg\":\""+escape(msg==null?"":msg)+"\"}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleWarningRules(HttpExchange ex) throws IOException {
+    private static void handleWarningRules(Exchange ex) throws IOException {
         if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String rule = extractJsonField(body, "rule");
+        JsonFields body = readJson(ex);
+        String rule = body.text("rule");
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO warnings (title,msg,severity,status,triggered_at) VALUES (?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
-            ps.setString(1, rule==null?"rule":rule); ps.setString(2, "rule-created"); ps.setString(3, "中"); ps.setString(4, "未生效"); ps.setString(5, java.time.Instant.now().toString()); ps.executeUpdate();
-            java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+            ps.setString(1, rule==null?"rule":rule); ps.setString(2, "rule-created"); ps.setString(3, "中"); ps.setString(4, "未生效"); ps.setString(5, java.time.Instant.now().toString()); c.setAutoCommit(false); ps.executeUpdate();
+            java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); WARNINGS_LOG.commit(c, id, 'I');
+            publishChange("warnings","created",id,"title",rule==null?"rule":rule,"msg","rule-created","severity","中","status","未生效");
             writeJson(ex,201,"{\"id\":"+id+",\"rule\":\""+escape(rule==null?"rule":rule)+"\"}"); return;
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handleWarningLogs(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleWarningLogs(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            String action = getQueryParam(ex, "action");
-            String warningId = getQueryParam(ex, "warning_id");
-            String sql = "SELECT id,warning_id,action,actor,note,created_at FROM warning_logs";
-            List<Object> params = new ArrayList<>();
-            if ((action!=null && !action.isEmpty()) || (warningId!=null && !warningId.isEmpty())){
-                StringBuilder where = new StringBuilder();
-                if (action!=null && !action.isEmpty()) { where.append("action=?"); params.add(action); }
-                if (warningId!=null && !warningId.isEmpty()) { if (where.length()>0) where.append(" AND "); where.append("warning_id=?"); params.add(Integer.parseInt(warningId)); }
-                sql += " WHERE " + where;
-            }
-            sql += " ORDER BY id DESC";
-            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(sql)){
-                for (int i=0;i<params.size();i++) ps.setObject(i+1, params.get(i));
-                java.sql.ResultSet rs = ps.executeQuery();
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"warning_id\":").append(rs.getInt("warning_id")).append(',')
-                      .append("\"action\":\"").append(escape(rs.getString("action"))).append("\",")
-                      .append("\"actor\":\"").append(escape(rs.getString("actor"))).append("\",")
-                      .append("\"note\":\"").append(escape(rs.getString("note"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "warning_logs")) return;
+            ListQuery q = ListQuery.parse(ex, WARNING_LOGS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String warningId = extractJsonField(body, "warning_id");
-            String action = extractJsonField(body, "action");
-            String actor = extractJsonField(body, "actor");
-            String note = extractJsonField(body, "note");
+            JsonFields body = readJson(ex);
+            String warningId = body.text("warning_id");
+            String action = body.text("action");
+            String actor = body.text("actor");
+            String note = body.text("note");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO warning_logs (warning_id,action,actor,note,created_at) VALUES (?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setInt(1, warningId==null?0:Integer.parseInt(warningId));
                 ps.setString(2, action==null?"":action);
                 ps.setString(3, actor);
                 ps.setString(4, note);
                 ps.setString(5, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); WARNING_LOGS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleWarningStats(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleWarningStats(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-            java.sql.ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM warnings"); rs.next(); int total = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM warnings WHERE status='未处理'"); rs.next(); int pending = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM warnings WHERE status='已处理'"); rs.next(); int handled = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM warnings WHERE severity='高'"); rs.next(); int high = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM warnings WHERE severity='中'"); rs.next(); int mid = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM warnings WHERE severity='低'"); rs.next(); int low = rs.getInt(1);
+        if (notModified(ex, "warnings")) return;
+        TimeRange range = TimeRange.of(WARNINGS, getQueryParam(ex,"from"), getQueryParam(ex,"to"));
+        try (java.sql.Connection c = openConnection()){
+            int total = count(c, "SELECT COUNT(*) FROM warnings", range);
+            int pending = count(c, "SELECT COUNT(*) FROM warnings WHERE status='未处理'", range);
+            int handled = count(c, "SELECT COUNT(*) FROM warnings WHERE status='已处理'", range);
+            int high = count(c, "SELECT COUNT(*) FROM warnings WHERE severity='高'", range);
+            int mid = count(c, "SELECT COUNT(*) FROM warnings WHERE severity='中'", range);
+            int low = count(c, "SELECT COUNT(*) FROM warnings WHERE severity='低'", range);
             String json = "{\"total\":"+total+",\"pending\":"+pending+",\"handled\":"+handled+",\"severity\":{\"high\":"+high+",\"mid\":"+mid+",\"low\":"+low+"}}";
             writeJson(ex,200,json); return;
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
     }
 
-    private static void handleGovTasks(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovTasks(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,title,description,assignee,status,due_at,created_at FROM gov_tasks ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"title\":\"").append(escape(rs.getString("title"))).append("\",")
-                      .append("\"description\":\"").append(escape(rs.getString("description"))).append("\",")
-                      .append("\"assignee\":\"").append(escape(rs.getString("assignee"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"due_at\":\"").append(escape(rs.getString("due_at"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_tasks")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_TASKS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String description = extractJsonField(body, "description");
-            String assignee = extractJsonField(body, "assignee");
-            String status = extractJsonField(body, "status");
-            String dueAt = extractJsonField(body, "due_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String description = body.text("description");
+            String assignee = body.text("assignee");
+            String status = body.text("status");
+            String dueAt = body.text("due_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_tasks (title,description,assignee,status,due_at,created_at) VALUES (?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, title==null?"任务":title);
                 ps.setString(2, description==null?"":description);
@@ -729,28 +877,25 @@ public class Application {
                 ps.setString(4, status==null?"待执行":status);
                 ps.setString(5, dueAt);
                 ps.setString(6, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_TASKS_LOG.commit(c, id, 'I');
+                publishChange("tasks","created",id,"title",title==null?"任务":title,"description",description==null?"":description,"assignee",assignee,"status",status==null?"待执行":status,"due_at",dueAt);
                 writeJson(ex,201,"{\"id\":"+id+",\"title\":\""+escape(title==null?"任务":title)+"\"}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovTaskById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/gov/tasks/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleGovTaskById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         String method = ex.getRequestMethod();
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String description = extractJsonField(body, "description");
-            String assignee = extractJsonField(body, "assignee");
-            String status = extractJsonField(body, "status");
-            String dueAt = extractJsonField(body, "due_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String description = body.text("description");
+            String assignee = body.text("assignee");
+            String status = body.text("status");
+            String dueAt = body.text("due_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE gov_tasks SET title=COALESCE(?,title), description=COALESCE(?,description), assignee=COALESCE(?,assignee), status=COALESCE(?,status), due_at=COALESCE(?,due_at) WHERE id=?")){
                 ps.setString(1, title);
                 ps.setString(2, description);
@@ -758,189 +903,153 @@ public class Application {
                 ps.setString(4, status);
                 ps.setString(5, dueAt);
                 ps.setInt(6, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                GOV_TASKS_LOG.commit(c, id, 'U');
+                publishChange("tasks","updated",id,"title",title,"description",description,"assignee",assignee,"status",status,"due_at",dueAt);
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM gov_tasks WHERE id=?")){
                 ps.setInt(1, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                GOV_TASKS_LOG.commit(c, id, 'D');
+                publishChange("tasks","deleted",id);
                 writeText(ex,204,""); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovCheckins(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovCheckins(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,task_id,user_name,note,checkin_time FROM gov_checkins ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"task_id\":").append(rs.getInt("task_id")).append(',')
-                      .append("\"user_name\":\"").append(escape(rs.getString("user_name"))).append("\",")
-                      .append("\"note\":\"").append(escape(rs.getString("note"))).append("\",")
-                      .append("\"checkin_time\":\"").append(escape(rs.getString("checkin_time"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_checkins")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_CHECKINS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String taskId = extractJsonField(body, "task_id");
-            String user = extractJsonField(body, "user_name");
-            String note = extractJsonField(body, "note");
+            JsonFields body = readJson(ex);
+            String taskId = body.text("task_id");
+            String user = body.text("user_name");
+            String note = body.text("note");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_checkins (task_id,user_name,note,checkin_time) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setInt(1, taskId==null?0:Integer.parseInt(taskId));
                 ps.setString(2, user);
                 ps.setString(3, note);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_CHECKINS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovAcceptance(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovAcceptance(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,task_id,result,reviewer,note,accepted_at FROM gov_acceptance ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"task_id\":").append(rs.getInt("task_id")).append(',')
-                      .append("\"result\":\"").append(escape(rs.getString("result"))).append("\",")
-                      .append("\"reviewer\":\"").append(escape(rs.getString("reviewer"))).append("\",")
-                      .append("\"note\":\"").append(escape(rs.getString("note"))).append("\",")
-                      .append("\"accepted_at\":\"").append(escape(rs.getString("accepted_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_acceptance")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_ACCEPTANCE);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String taskId = extractJsonField(body, "task_id");
-            String result = extractJsonField(body, "result");
-            String reviewer = extractJsonField(body, "reviewer");
-            String note = extractJsonField(body, "note");
+            JsonFields body = readJson(ex);
+            String taskId = body.text("task_id");
+            String result = body.text("result");
+            String reviewer = body.text("reviewer");
+            String note = body.text("note");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_acceptance (task_id,result,reviewer,note,accepted_at) VALUES (?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setInt(1, taskId==null?0:Integer.parseInt(taskId));
                 ps.setString(2, result==null?"通过":result);
                 ps.setString(3, reviewer);
                 ps.setString(4, note);
                 ps.setString(5, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_ACCEPTANCE_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovPointRules(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovPointRules(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,rule_name,points,status,created_at FROM gov_point_rules ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"rule_name\":\"").append(escape(rs.getString("rule_name"))).append("\",")
-                      .append("\"points\":").append(rs.getInt("points")).append(',')
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_point_rules")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_POINT_RULES);
+            ResponseCache.Ticket cached = RESPONSES.ticket(ex, q.cacheKey("gov_point_rules"), "gov_point_rules");
+            if (RESPONSES.serve(ex, cached)) return;
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonWriter.buffered(); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); writeJsonTagged(ex,cached,out.toByteArray()); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonField(body, "rule_name");
-            String points = extractJsonField(body, "points");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String name = body.text("rule_name");
+            String points = body.text("points");
+            String status = body.text("status");
             int p = 0; try { p = points==null?0:Integer.parseInt(points); } catch(Exception ignored) {}
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_point_rules (rule_name,points,status,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, name==null?"规则":name);
                 ps.setInt(2, p);
                 ps.setString(3, status==null?"启用":status);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_POINT_RULES_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovPointRuleById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/gov/point-rules/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleGovPointRuleById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         if (!"PUT".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String status = extractJsonField(body, "status");
+        JsonFields body = readJson(ex);
+        String status = body.text("status");
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE gov_point_rules SET status=COALESCE(?,status) WHERE id=?")){
             ps.setString(1, status);
             ps.setInt(2, id);
-            int rows = ps.executeUpdate();
+            c.setAutoCommit(false); int rows = ps.executeUpdate();
             if (rows==0){ writeText(ex,404,"not found"); return; }
+            GOV_POINT_RULES_LOG.commit(c, id, 'U');
             writeJson(ex,200,"{\"ok\":true}");
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
     }
 
-    private static void handleGovPointAudit(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovPointAudit(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,user_name,rule_name,points,status,applied_at,approved_at FROM gov_point_audit ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"user_name\":\"").append(escape(rs.getString("user_name"))).append("\",")
-                      .append("\"rule_name\":\"").append(escape(rs.getString("rule_name"))).append("\",")
-                      .append("\"points\":").append(rs.getInt("points")).append(',')
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"applied_at\":\"").append(escape(rs.getString("applied_at"))).append("\",")
-                      .append("\"approved_at\":\"").append(escape(rs.getString("approved_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_point_audit")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_POINT_AUDIT);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String user = extractJsonField(body, "user_name");
-            String rule = extractJsonField(body, "rule_name");
-            String points = extractJsonField(body, "points");
+            JsonFields body = readJson(ex);
+            String user = body.text("user_name");
+            String rule = body.text("rule_name");
+            String points = body.text("points");
             int p=0; try { p = points==null?0:Integer.parseInt(points); } catch(Exception ignored) {}
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_point_audit (user_name,rule_name,points,status,applied_at) VALUES (?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, user);
@@ -948,64 +1057,50 @@ public class Application {
                 ps.setInt(3, p);
                 ps.setString(4, "待审核");
                 ps.setString(5, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_POINT_AUDIT_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovPointAuditById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/gov/point-audit/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleGovPointAuditById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         if (!"PUT".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String status = extractJsonField(body, "status");
-        String approvedAt = extractJsonField(body, "approved_at");
+        JsonFields body = readJson(ex);
+        String status = body.text("status");
+        String approvedAt = body.text("approved_at");
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE gov_point_audit SET status=COALESCE(?,status), approved_at=COALESCE(?,approved_at) WHERE id=?")){
             ps.setString(1, status);
             ps.setString(2, approvedAt);
             ps.setInt(3, id);
-            int rows = ps.executeUpdate();
+            c.setAutoCommit(false); int rows = ps.executeUpdate();
             if (rows==0){ writeText(ex,404,"not found"); return; }
+            GOV_POINT_AUDIT_LOG.commit(c, id, 'U');
             writeJson(ex,200,"{\"ok\":true}");
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
     }
 
-    private static void handleGovActivities(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleGovActivities(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,title,organizer,status,start_at,end_at,created_at FROM gov_activities ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"title\":\"").append(escape(rs.getString("title"))).append("\",")
-                      .append("\"organizer\":\"").append(escape(rs.getString("organizer"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"start_at\":\"").append(escape(rs.getString("start_at"))).append("\",")
-                      .append("\"end_at\":\"").append(escape(rs.getString("end_at"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "gov_activities")) return;
+            ListQuery q = ListQuery.parse(ex, GOV_ACTIVITIES);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String organizer = extractJsonField(body, "organizer");
-            String status = extractJsonField(body, "status");
-            String startAt = extractJsonField(body, "start_at");
-            String endAt = extractJsonField(body, "end_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String organizer = body.text("organizer");
+            String status = body.text("status");
+            String startAt = body.text("start_at");
+            String endAt = body.text("end_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO gov_activities (title,organizer,status,start_at,end_at,created_at) VALUES (?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, title==null?"活动":title);
                 ps.setString(2, organizer);
@@ -1013,28 +1108,24 @@ public class Application {
                 ps.setString(4, startAt);
                 ps.setString(5, endAt);
                 ps.setString(6, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); GOV_ACTIVITIES_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleGovActivityById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/gov/activities/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleGovActivityById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         String method = ex.getRequestMethod();
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String organizer = extractJsonField(body, "organizer");
-            String status = extractJsonField(body, "status");
-            String startAt = extractJsonField(body, "start_at");
-            String endAt = extractJsonField(body, "end_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String organizer = body.text("organizer");
+            String status = body.text("status");
+            String startAt = body.text("start_at");
+            String endAt = body.text("end_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE gov_activities SET title=COALESCE(?,title), organizer=COALESCE(?,organizer), status=COALESCE(?,status), start_at=COALESCE(?,start_at), end_at=COALESCE(?,end_at) WHERE id=?")){
                 ps.setString(1, title);
                 ps.setString(2, organizer);
@@ -1042,65 +1133,43 @@ public class Application {
                 ps.setString(4, startAt);
                 ps.setString(5, endAt);
                 ps.setInt(6, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                GOV_ACTIVITIES_LOG.commit(c, id, 'U');
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM gov_activities WHERE id=?")){
                 ps.setInt(1, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                GOV_ACTIVITIES_LOG.commit(c, id, 'D');
                 writeText(ex,204,""); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackItems(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleFeedbackItems(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            String status = getQueryParam(ex, "status");
-            String type = getQueryParam(ex, "type");
-            String sql = "SELECT id,title,content,reporter,type,status,created_at,updated_at FROM feedback_items";
-            List<Object> params = new ArrayList<>();
-            if ((status!=null && !status.isEmpty()) || (type!=null && !type.isEmpty())){
-                StringBuilder where = new StringBuilder();
-                if (status!=null && !status.isEmpty()) { where.append("status=?"); params.add(status); }
-                if (type!=null && !type.isEmpty()) { if (where.length()>0) where.append(" AND "); where.append("type=?"); params.add(type); }
-                sql += " WHERE " + where;
-            }
-            sql += " ORDER BY id DESC";
-            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(sql)){
-                for (int i=0;i<params.size();i++) ps.setObject(i+1, params.get(i));
-                java.sql.ResultSet rs = ps.executeQuery();
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"title\":\"").append(escape(rs.getString("title"))).append("\",")
-                      .append("\"content\":\"").append(escape(rs.getString("content"))).append("\",")
-                      .append("\"reporter\":\"").append(escape(rs.getString("reporter"))).append("\",")
-                      .append("\"type\":\"").append(escape(rs.getString("type"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\",")
-                      .append("\"updated_at\":\"").append(escape(rs.getString("updated_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "feedback_items")) return;
+            ListQuery q = ListQuery.parse(ex, FEEDBACK_ITEMS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String content = extractJsonField(body, "content");
-            String reporter = extractJsonField(body, "reporter");
-            String type = extractJsonField(body, "type");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String content = body.text("content");
+            String reporter = body.text("reporter");
+            String type = body.text("type");
+            String status = body.text("status");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO feedback_items (title,content,reporter,type,status,created_at,updated_at) VALUES (?,?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, title==null?"反馈":title);
                 ps.setString(2, content==null?"":content);
@@ -1110,28 +1179,25 @@ public class Application {
                 String now = java.time.Instant.now().toString();
                 ps.setString(6, now);
                 ps.setString(7, now);
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); FEEDBACK_ITEMS_LOG.commit(c, id, 'I');
+                publishChange("feedback","created",id,"title",title==null?"反馈":title,"content",content==null?"":content,"reporter",reporter,"type",type==null?"民情反馈":type,"status",status==null?"待处理":status);
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackItemById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/feedback/items/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleFeedbackItemById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         String method = ex.getRequestMethod();
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String content = extractJsonField(body, "content");
-            String reporter = extractJsonField(body, "reporter");
-            String type = extractJsonField(body, "type");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String content = body.text("content");
+            String reporter = body.text("reporter");
+            String type = body.text("type");
+            String status = body.text("status");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE feedback_items SET title=COALESCE(?,title), content=COALESCE(?,content), reporter=COALESCE(?,reporter), type=COALESCE(?,type), status=COALESCE(?,status), updated_at=? WHERE id=?")){
                 ps.setString(1, title);
                 ps.setString(2, content);
@@ -1140,91 +1206,79 @@ public class Application {
                 ps.setString(5, status);
                 ps.setString(6, java.time.Instant.now().toString());
                 ps.setInt(7, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                FEEDBACK_ITEMS_LOG.commit(c, id, 'U');
+                publishChange("feedback","updated",id,"title",title,"content",content,"reporter",reporter,"type",type,"status",status);
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM feedback_items WHERE id=?")){
                 ps.setInt(1, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                FEEDBACK_ITEMS_LOG.commit(c, id, 'D');
+                publishChange("feedback","deleted",id);
                 writeText(ex,204,""); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackFlow(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleFeedbackFlow(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,step_name,owner,status,updated_at FROM feedback_flow ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"step_name\":\"").append(escape(rs.getString("step_name"))).append("\",")
-                      .append("\"owner\":\"").append(escape(rs.getString("owner"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"updated_at\":\"").append(escape(rs.getString("updated_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "feedback_flow")) return;
+            ListQuery q = ListQuery.parse(ex, FEEDBACK_FLOW);
+            ResponseCache.Ticket cached = RESPONSES.ticket(ex, q.cacheKey("feedback_flow"), "feedback_flow");
+            if (RESPONSES.serve(ex, cached)) return;
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonWriter.buffered(); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); writeJsonTagged(ex,cached,out.toByteArray()); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String step = extractJsonField(body, "step_name");
-            String owner = extractJsonField(body, "owner");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String step = body.text("step_name");
+            String owner = body.text("owner");
+            String status = body.text("status");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO feedback_flow (step_name,owner,status,updated_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, step==null?"流程":step);
                 ps.setString(2, owner);
                 ps.setString(3, status==null?"启用":status);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); FEEDBACK_FLOW_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackAnnouncements(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleFeedbackAnnouncements(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,title,content,publisher,status,published_at,created_at FROM feedback_announcements ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"title\":\"").append(escape(rs.getString("title"))).append("\",")
-                      .append("\"content\":\"").append(escape(rs.getString("content"))).append("\",")
-                      .append("\"publisher\":\"").append(escape(rs.getString("publisher"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"published_at\":\"").append(escape(rs.getString("published_at"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "feedback_announcements")) return;
+            ListQuery q = ListQuery.parse(ex, FEEDBACK_ANNOUNCEMENTS);
+            ResponseCache.Ticket cached = RESPONSES.ticket(ex, q.cacheKey("feedback_announcements"), "feedback_announcements");
+            if (RESPONSES.serve(ex, cached)) return;
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonWriter.buffered(); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); writeJsonTagged(ex,cached,out.toByteArray()); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String content = extractJsonField(body, "content");
-            String publisher = extractJsonField(body, "publisher");
-            String status = extractJsonField(body, "status");
-            String publishedAt = extractJsonField(body, "published_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String content = body.text("content");
+            String publisher = body.text("publisher");
+            String status = body.text("status");
+            String publishedAt = body.text("published_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO feedback_announcements (title,content,publisher,status,published_at,created_at) VALUES (?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, title==null?"公告":title);
                 ps.setString(2, content==null?"":content);
@@ -1232,28 +1286,24 @@ public class Application {
                 ps.setString(4, status==null?"草稿":status);
                 ps.setString(5, publishedAt);
                 ps.setString(6, java.time.Instant.now().toString());
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id=-1; if (g.next()) id=g.getInt(1); FEEDBACK_ANNOUNCEMENTS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackAnnouncementById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath();
-        String idStr = path.replaceFirst(".*/api/feedback/announcements/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleFeedbackAnnouncementById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         String method = ex.getRequestMethod();
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body, "title");
-            String content = extractJsonField(body, "content");
-            String publisher = extractJsonField(body, "publisher");
-            String status = extractJsonField(body, "status");
-            String publishedAt = extractJsonField(body, "published_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String content = body.text("content");
+            String publisher = body.text("publisher");
+            String status = body.text("status");
+            String publishedAt = body.text("published_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE feedback_announcements SET title=COALESCE(?,title), content=COALESCE(?,content), publisher=COALESCE(?,publisher), status=COALESCE(?,status), published_at=COALESCE(?,published_at) WHERE id=?")){
                 ps.setString(1, title);
                 ps.setString(2, content);
@@ -1261,55 +1311,54 @@ public class Application {
                 ps.setString(4, status);
                 ps.setString(5, publishedAt);
                 ps.setInt(6, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                FEEDBACK_ANNOUNCEMENTS_LOG.commit(c, id, 'U');
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM feedback_announcements WHERE id=?")){
                 ps.setInt(1, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                FEEDBACK_ANNOUNCEMENTS_LOG.commit(c, id, 'D');
                 writeText(ex,204,""); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleFeedbackStats(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleFeedbackStats(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-            java.sql.ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items"); rs.next(); int total = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items WHERE status='待处理'"); rs.next(); int pending = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items WHERE status='处理中'"); rs.next(); int processing = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items WHERE status='已完成'"); rs.next(); int done = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items WHERE type='民情反馈'"); rs.next(); int feedback = rs.getInt(1);
-            rs = s.executeQuery("SELECT COUNT(*) FROM feedback_items WHERE type='政务公开'"); rs.next(); int govt = rs.getInt(1);
+        if (notModified(ex, "feedback_items")) return;
+        TimeRange range = TimeRange.of(FEEDBACK_ITEMS, getQueryParam(ex,"from"), getQueryParam(ex,"to"));
+        try (java.sql.Connection c = openConnection()){
+            int total = count(c, "SELECT COUNT(*) FROM feedback_items", range);
+            int pending = count(c, "SELECT COUNT(*) FROM feedback_items WHERE status='待处理'", range);
+            int processing = count(c, "SELECT COUNT(*) FROM feedback_items WHERE status='处理中'", range);
+            int done = count(c, "SELECT COUNT(*) FROM feedback_items WHERE status='已完成'", range);
+            int feedback = count(c, "SELECT COUNT(*) FROM feedback_items WHERE type='民情反馈'", range);
+            int govt = count(c, "SELECT COUNT(*) FROM feedback_items WHERE type='政务公开'", range);
             String json = "{\"total\":"+total+",\"pending\":"+pending+",\"processing\":"+processing+",\"done\":"+done+",\"types\":{\"feedback\":"+feedback+",\"public\":"+govt+"}}";
             writeJson(ex,200,json); return;
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
     }
 
-    private static void handleWarningById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath(); // /api/warnings/events/{id}
-        String idStr = path.replaceFirst(".*/api/warnings/events/","" );
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleWarningById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
 
         String method = ex.getRequestMethod();
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String title = extractJsonField(body,"title");
-            String msg = extractJsonField(body,"msg");
-            String severity = extractJsonField(body,"severity");
-            String status = extractJsonField(body,"status");
-            String assignee = extractJsonField(body,"assignee");
-            String handler = extractJsonField(body,"handler");
-            String notify = extractJsonField(body,"notify_status");
-            String handledAt = extractJsonField(body,"handled_at");
+            JsonFields body = readJson(ex);
+            String title = body.text("title");
+            String msg = body.text("msg");
+            String severity = body.text("severity");
+            String status = body.text("status");
+            String assignee = body.text("assignee");
+            String handler = body.text("handler");
+            String notify = body.text("notify_status");
+            String handledAt = body.text("handled_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE warnings SET title=COALESCE(?,title), msg=COALESCE(?,msg), severity=COALESCE(?,severity), status=COALESCE(?,status), assignee=COALESCE(?,assignee), handler=COALESCE(?,handler), notify_status=COALESCE(?,notify_status), handled_at=COALESCE(?,handled_at) WHERE id=?")){
                 ps.setString(1, title);
                 ps.setString(2, msg);
@@ -1320,8 +1369,10 @@ public class Application {
                 ps.setString(7, notify);
                 ps.setString(8, handledAt);
                 ps.setInt(9, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                WARNINGS_LOG.commit(c, id, 'U');
+                publishChange("warnings","updated",id,"title",title,"msg",msg,"severity",severity,"status",status,"assignee",assignee,"handler",handler,"notify_status",notify,"handled_at",handledAt);
                 writeJson(ex,200,"{\"ok\":true}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1329,8 +1380,10 @@ public class Application {
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM warnings WHERE id=?")){
                 ps.setInt(1,id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                WARNINGS_LOG.commit(c, id, 'D');
+                publishChange("warnings","deleted",id);
                 writeText(ex,204,"");
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
             return;
@@ -1338,16 +1391,16 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleLogin(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleLogin(Exchange ex) throws IOException {
         if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String username = extractJsonString(body,"username");
-        String password = extractJsonString(body,"password");
-        String captchaToken = extractJsonString(body,"captchaToken");
-        String captchaCode = extractJsonString(body,"captchaCode");
+        JsonFields body = readJson(ex);
+        String username = body.text("username");
+        String password = body.text("password");
+        String captchaToken = body.text("captchaToken");
+        String captchaCode = body.text("captchaCode");
         if (username==null || username.isEmpty()) { writeJson(ex,400,"{\"error\":\"username required\"}"); return; }
         if (password==null || password.isEmpty()) { writeJson(ex,400,"{\"error\":\"password required\"}"); return; }
+        if (!RATE_LIMITS.admit(ex, LOGIN_USER_LIMIT, "user:" + username)) return;
         if (!verifyCaptcha(captchaToken, captchaCode)) { writeJson(ex,401,"{\"error\":\"captcha invalid\"}"); return; }
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,role,username,password FROM users WHERE username=? LIMIT 1")){
             ps.setString(1, username);
@@ -1367,7 +1420,7 @@ public class Application {
                     try (java.sql.PreparedStatement ups = c.prepareStatement("UPDATE users SET password=? WHERE id=?")){
                         ups.setString(1, newHash);
                         ups.setInt(2, id);
-                        ups.executeUpdate();
+                        ups.executeUpdate(); TableVersions.bump("users");
                     }
                 }
             }
@@ -1375,13 +1428,12 @@ public class Application {
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handlePasswordChange(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handlePasswordChange(Exchange ex) throws IOException {
         if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String username = extractJsonString(body,"username");
-        String oldPassword = extractJsonString(body,"oldPassword");
-        String newPassword = extractJsonString(body,"newPassword");
+        JsonFields body = readJson(ex);
+        String username = body.text("username");
+        String oldPassword = body.text("oldPassword");
+        String newPassword = body.text("newPassword");
         if (username==null || username.isEmpty()) { writeJson(ex,400,"{\"error\":\"username required\"}"); return; }
         if (oldPassword==null || oldPassword.isEmpty()) { writeJson(ex,400,"{\"error\":\"oldPassword required\"}"); return; }
         if (newPassword==null || newPassword.isEmpty()) { writeJson(ex,400,"{\"error\":\"newPassword required\"}"); return; }
@@ -1398,13 +1450,13 @@ public class Application {
             try (java.sql.PreparedStatement ps = c.prepareStatement("UPDATE users SET password=? WHERE username=?")){
                 ps.setString(1, newHash);
                 ps.setString(2, username);
-                ps.executeUpdate();
+                if (ps.executeUpdate() > 0) TableVersions.bump("users");
                 writeJson(ex,200,"{\"ok\":true}"); return;
             }
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handleCaptcha(HttpExchange ex) throws IOException {
+    private static void handleCaptcha(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
         String code = randomDigits(4);
         String token = randomToken(24);
@@ -1423,11 +1475,10 @@ public class Application {
         return null;
     }
 
-    private static void handleAiAsk(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleAiAsk(Exchange ex) throws IOException {
         if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String question = extractJsonField(body, "question");
+        JsonFields body = readJson(ex);
+        String question = body.text("question");
         if (question==null || question.isEmpty()) { writeJson(ex,400,"{\"error\":\"question required\"}"); return; }
         try {
             String apiKey = loadApiKey("deepseek");
@@ -1454,12 +1505,13 @@ public class Application {
             if (m.find()) answer = m.group(1).replace("\\n", "\n");
             if (answer.isEmpty()) answer = "（未获取到答案）";
 
-            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ai_records (type,question,answer,created_at) VALUES (?,?,?,?)")){
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ai_records (type,question,answer,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, "chat");
                 ps.setString(2, question);
                 ps.setString(3, answer);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); AI_RECORDS_LOG.commit(c, g.next() ? g.getInt(1) : -1, 'I');
             }
             writeJson(ex,200,"{\"question\":\""+escape(question)+"\",\"answer\":\""+escape(answer)+"\"}");
         } catch(Exception e){
@@ -1467,11 +1519,10 @@ public class Application {
         }
     }
 
-    private static void handleAiSummarize(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleAiSummarize(Exchange ex) throws IOException {
         if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String body = readBody(ex);
-        String content = extractJsonField(body, "content");
+        JsonFields body = readJson(ex);
+        String content = body.text("content");
         if (content==null || content.isEmpty()) { writeJson(ex,400,"{\"error\":\"content required\"}"); return; }
         try {
             String apiKey = loadApiKey("deepseek");
@@ -1495,12 +1546,13 @@ public class Application {
             java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\\"content\\\"\\s*:\\s*\\\"(.*?)\\\"", java.util.regex.Pattern.DOTALL).matcher(resp);
             if (m.find()) summary = m.group(1).replace("\\n", "\n");
             if (summary.isEmpty()) summary = "（未获取到摘要）";
-            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ai_records (type,question,answer,created_at) VALUES (?,?,?,?)")){
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ai_records (type,question,answer,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, "summary");
                 ps.setString(2, "摘要");
                 ps.setString(3, summary);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); AI_RECORDS_LOG.commit(c, g.next() ? g.getInt(1) : -1, 'I');
             }
             writeJson(ex,200,"{\"summary\":\""+escape(summary)+"\"}");
         } catch(Exception e){
@@ -1508,47 +1560,37 @@ public class Application {
         }
     }
 
-    private static void handleIndustryMetrics(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleIndustryMetrics(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,name,value_num,unit,updated_at FROM industry_metrics ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"name\":\"").append(escape(rs.getString("name"))).append("\",")
-                      .append("\"value\":").append(rs.getInt("value_num")).append(',')
-                      .append("\"unit\":\"").append(escape(rs.getString("unit"))).append("\",")
-                      .append("\"updated_at\":\"").append(escape(rs.getString("updated_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "industry_metrics")) return;
+            ListQuery q = ListQuery.parse(ex, INDUSTRY_METRICS);
+            ResponseCache.Ticket cached = RESPONSES.ticket(ex, q.cacheKey("industry_metrics"), "industry_metrics");
+            if (RESPONSES.serve(ex, cached)) return;
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonWriter.buffered(); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); writeJsonTagged(ex,cached,out.toByteArray()); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonField(body, "name");
-            String value = extractJsonField(body, "value");
-            String unit = extractJsonField(body, "unit");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String value = body.text("value");
+            String unit = body.text("unit");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO industry_metrics (name,value_num,unit,updated_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, name==null?"指标":name); ps.setInt(2, value==null?0:Integer.parseInt(value)); ps.setString(3, unit==null?"":unit); ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); INDUSTRY_METRICS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"name\":\""+escape(name==null?"指标":name)+"\",\"value\":"+(value==null?0:Integer.parseInt(value))+",\"unit\":\""+escape(unit==null?"":unit)+"\"}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleIndustryMetricById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath(); // /api/industry/metrics/{id}
-        String idStr = path.replaceFirst(".*/api/industry/metrics/","");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleIndustryMetricById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
+        if ("GET".equals(ex.getRequestMethod()) && notModified(ex, "industry_metrics")) return;
         Map<String,Object> found = null;
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,value_num,unit,updated_at FROM industry_metrics WHERE id=?")){
             ps.setInt(1,id); java.sql.ResultSet rs = ps.executeQuery();
@@ -1569,35 +1611,37 @@ public class Application {
         }
         if ("PUT".equals(method)){
             if (found==null){ writeText(ex,404,"not found"); return; }
-            String body = readBody(ex);
-            String name = extractJsonField(body, "name");
-            String value = extractJsonField(body, "value");
-            String unit = extractJsonField(body, "unit");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String value = body.text("value");
+            String unit = body.text("unit");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("UPDATE industry_metrics SET name=?,value_num=?,unit=?,updated_at=? WHERE id=?")){
                 ps.setString(1, name==null?found.get("name").toString():name);
                 ps.setInt(2, value==null?((Integer)found.get("value_num")):Integer.parseInt(value));
                 ps.setString(3, unit==null?found.get("unit").toString():unit);
                 ps.setString(4, java.time.Instant.now().toString());
                 ps.setInt(5, id);
-                ps.executeUpdate();
+                c.setAutoCommit(false); if (ps.executeUpdate() > 0) INDUSTRY_METRICS_LOG.commit(c, id, 'U');
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
         if ("DELETE".equals(method)){
             if (found==null){ writeText(ex,404,"not found"); return; }
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM industry_metrics WHERE id=?")){
-                ps.setInt(1,id); ps.executeUpdate(); writeText(ex,204,""); return;
+                ps.setInt(1,id); c.setAutoCommit(false); if (ps.executeUpdate() > 0) INDUSTRY_METRICS_LOG.commit(c, id, 'D'); writeText(ex,204,""); return;
             } catch(Exception exx){ writeText(ex,500,"db error: "+exx.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleMapData(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleMapData(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
+            syncSampleMapFile();
+            if (notModified(ex, "map_data")) return;
+            ResponseCache.Ticket cached = RESPONSES.ticket(ex, "map", "map_data");
+            if (RESPONSES.serve(ex, cached)) return;
             try (java.sql.Connection c = openConnection()){
-                ensureSampleMapData(c);
                 try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,content,map_type,created_at FROM map_data WHERE name=? ORDER BY id DESC LIMIT 1")){
                     ps.setString(1, "主目录地图");
                     java.sql.ResultSet rs = ps.executeQuery();
@@ -1606,7 +1650,7 @@ public class Application {
                         String type = rs.getString("map_type");
                         if (type == null || type.trim().isEmpty()) type = "svg";
                         String json = "{\"id\":"+rs.getInt("id")+",\"name\":\""+escape(rs.getString("name"))+"\",\"type\":\""+escape(type)+"\",\"content\":\""+escape(content)+"\",\"created_at\":\""+escape(rs.getString("created_at"))+"\"}";
-                        writeJson(ex,200,json); return;
+                        writeJsonTagged(ex,cached,json.getBytes(StandardCharsets.UTF_8)); return;
                     }
                 }
                 try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,content,map_type,created_at FROM map_data WHERE map_type='svg' ORDER BY id DESC LIMIT 1")){
@@ -1616,7 +1660,7 @@ public class Application {
                         String type = rs.getString("map_type");
                         if (type == null || type.trim().isEmpty()) type = "svg";
                         String json = "{\"id\":"+rs.getInt("id")+",\"name\":\""+escape(rs.getString("name"))+"\",\"type\":\""+escape(type)+"\",\"content\":\""+escape(content)+"\",\"created_at\":\""+escape(rs.getString("created_at"))+"\"}";
-                        writeJson(ex,200,json); return;
+                        writeJsonTagged(ex,cached,json.getBytes(StandardCharsets.UTF_8)); return;
                     }
                 }
                 try (java.sql.Statement s = c.createStatement()){
@@ -1626,7 +1670,7 @@ public class Application {
                         String type = rs.getString("map_type");
                         if (type == null || type.trim().isEmpty()) type = "svg";
                         String json = "{\"id\":"+rs.getInt("id")+",\"name\":\""+escape(rs.getString("name"))+"\",\"type\":\""+escape(type)+"\",\"content\":\""+escape(content)+"\",\"created_at\":\""+escape(rs.getString("created_at"))+"\"}";
-                        writeJson(ex,200,json); return;
+                        writeJsonTagged(ex,cached,json.getBytes(StandardCharsets.UTF_8)); return;
                     }
                 }
                 writeJson(ex,200,"{\"id\":0,\"name\":\"\",\"type\":\"svg\",\"content\":\"\"}");
@@ -1634,10 +1678,10 @@ public class Application {
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonString(body, "name");
-            String content = extractJsonString(body, "content");
-            String type = extractJsonString(body, "type");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String content = body.text("content");
+            String type = body.text("type");
             if (type == null || type.trim().isEmpty()) {
                 type = "svg";
             }
@@ -1646,42 +1690,32 @@ public class Application {
                 ps.setString(2, content==null?"{}":content);
                 ps.setString(3, type);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate();
+                ps.executeUpdate(); TableVersions.bump("map_data");
                 writeJson(ex,200,"{\"ok\":true}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleResidents(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleResidents(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,name,address,phone,x_num,y_num FROM residents ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"name\":\"").append(escape(rs.getString("name"))).append("\",")
-                      .append("\"address\":\"").append(escape(rs.getString("address"))).append("\",")
-                      .append("\"phone\":\"").append(escape(rs.getString("phone"))).append("\",")
-                      .append("\"x\":").append(rs.getInt("x_num")).append(',')
-                      .append("\"y\":").append(rs.getInt("y_num"))
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "residents")) return;
+            ListQuery q = ListQuery.parse(ex, RESIDENTS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonField(body, "name");
-            String address = extractJsonField(body, "address");
-            String phone = extractJsonField(body, "phone");
-            String xStr = extractJsonField(body, "x");
-            String yStr = extractJsonField(body, "y");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String address = body.text("address");
+            String phone = body.text("phone");
+            String xStr = body.text("x");
+            String yStr = body.text("y");
             int x = 0; int y = 0;
             try { if (xStr != null) x = Integer.parseInt(xStr); } catch(Exception ignored) {}
             try { if (yStr != null) y = Integer.parseInt(yStr); } catch(Exception ignored) {}
@@ -1691,8 +1725,8 @@ public class Application {
                 ps.setString(3, phone==null?"":phone);
                 ps.setInt(4, x);
                 ps.setInt(5, y);
-                ps.executeUpdate();
-                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate();
+                java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); RESIDENTS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"name\":\""+escape(name==null?"村民":name)+"\",\"address\":\""+escape(address==null?"":address)+"\",\"phone\":\""+escape(phone==null?"":phone)+"\",\"x\":"+x+",\"y\":"+y+"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1700,15 +1734,12 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleResidentById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
-        String path = ex.getRequestURI().getPath(); // /api/residents/{id}
-        String idStr = path.replaceFirst(".*/api/residents/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+    private static void handleResidentById(Exchange ex) throws IOException {
+        int id = Router.pathInt(ex, "id");
         String method = ex.getRequestMethod();
 
         if ("GET".equals(method)){
+            if (notModified(ex, "residents")) return;
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("SELECT id,name,address,phone,x_num,y_num FROM residents WHERE id=?")){
                 ps.setInt(1, id);
                 java.sql.ResultSet rs = ps.executeQuery();
@@ -1719,12 +1750,12 @@ public class Application {
         }
 
         if ("PUT".equals(method)){
-            String body = readBody(ex);
-            String name = extractJsonField(body, "name");
-            String address = extractJsonField(body, "address");
-            String phone = extractJsonField(body, "phone");
-            String xStr = extractJsonField(body, "x");
-            String yStr = extractJsonField(body, "y");
+            JsonFields body = readJson(ex);
+            String name = body.text("name");
+            String address = body.text("address");
+            String phone = body.text("phone");
+            String xStr = body.text("x");
+            String yStr = body.text("y");
             try (java.sql.Connection c = openConnection()){
                 java.sql.PreparedStatement psFind = c.prepareStatement("SELECT id,name,address,phone,x_num,y_num FROM residents WHERE id=?");
                 psFind.setInt(1, id);
@@ -1741,7 +1772,7 @@ public class Application {
                 ps.setInt(4, x);
                 ps.setInt(5, y);
                 ps.setInt(6, id);
-                ps.executeUpdate();
+                c.setAutoCommit(false); if (ps.executeUpdate() > 0) RESIDENTS_LOG.commit(c, id, 'U');
                 writeJson(ex,200,"{\"ok\":true}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1750,8 +1781,9 @@ public class Application {
         if ("DELETE".equals(method)){
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM residents WHERE id=?")){
                 ps.setInt(1, id);
-                int rows = ps.executeUpdate();
+                c.setAutoCommit(false); int rows = ps.executeUpdate();
                 if (rows==0){ writeText(ex,404,"not found"); return; }
+                RESIDENTS_LOG.commit(c, id, 'D');
                 writeText(ex,204,""); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
@@ -1759,93 +1791,68 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleAiRecords(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleAiRecords(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
-        String type = getQueryParam(ex, "type");
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection()){
-                java.sql.PreparedStatement ps;
-                if (type!=null && !type.isEmpty()){
-                    ps = c.prepareStatement("SELECT id,type,question,answer,created_at FROM ai_records WHERE type=? ORDER BY id DESC");
-                    ps.setString(1, type);
-                } else {
-                    ps = c.prepareStatement("SELECT id,type,question,answer,created_at FROM ai_records ORDER BY id DESC");
-                }
-                java.sql.ResultSet rs = ps.executeQuery();
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"type\":\"").append(escape(rs.getString("type"))).append("\",")
-                      .append("\"question\":\"").append(escape(rs.getString("question"))).append("\",")
-                      .append("\"answer\":\"").append(escape(rs.getString("answer"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ai_records")) return;
+            ListQuery q = ListQuery.parse(ex, AI_RECORDS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String question = extractJsonField(body, "question");
-            String answer = extractJsonField(body, "answer");
-            String t = extractJsonField(body, "type");
+            JsonFields body = readJson(ex);
+            String question = body.text("question");
+            String answer = body.text("answer");
+            String t = body.text("type");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ai_records (type,question,answer,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, t==null?"chat":t);
                 ps.setString(2, question==null?"问题":question);
                 ps.setString(3, answer==null?"":answer);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); AI_RECORDS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"type\":\""+escape(t==null?"chat":t)+"\",\"question\":\""+escape(question==null?"问题":question)+"\",\"answer\":\""+escape(answer==null?"":answer)+"\"}"); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleAiRecordById(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleAiRecordById(Exchange ex) throws IOException {
         if (!"DELETE".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        String path = ex.getRequestURI().getPath(); // /api/ai/records/{id}
-        String idStr = path.replaceFirst(".*/api/ai/records/", "");
-        int id = -1;
-        try { id = Integer.parseInt(idStr); } catch(Exception e){ writeText(ex,400,"invalid id"); return; }
+        int id = Router.pathInt(ex, "id");
         try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM ai_records WHERE id=?")){
             ps.setInt(1, id);
-            int rows = ps.executeUpdate();
+            c.setAutoCommit(false); int rows = ps.executeUpdate();
             if (rows==0){ writeText(ex,404,"not found"); return; }
+            AI_RECORDS_LOG.commit(c, id, 'D');
             writeText(ex,204,"");
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); }
     }
 
-    private static void handleOpsAudit(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsAudit(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-            java.sql.ResultSet rs = s.executeQuery("SELECT id,action_desc,actor,status,created_at FROM ops_audit ORDER BY id DESC");
-            StringBuilder sb = new StringBuilder(); sb.append('[');
-            boolean first=true;
-            while(rs.next()){
-                if(!first) sb.append(','); first=false;
-                sb.append('{')
-                  .append("\"id\":").append(rs.getInt("id")).append(',')
-                  .append("\"action\":\"").append(escape(rs.getString("action_desc"))).append("\",")
-                  .append("\"actor\":\"").append(escape(rs.getString("actor"))).append("\",")
-                  .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                  .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                  .append('}');
-            }
-            sb.append(']'); writeJson(ex,200,sb.toString()); return;
+        if (notModified(ex, "ops_audit")) return;
+        ListQuery q = ListQuery.parse(ex, OPS_AUDIT);
+        try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+            q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+            JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+            while(q.next(rs)) q.writeRow(out, rs);
+            q.tail(out); out.close(); return;
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handleOpsAuditReport(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsAuditReport(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-            java.sql.ResultSet rs = s.executeQuery("SELECT status, COUNT(*) as cnt FROM ops_audit GROUP BY status");
+        if (notModified(ex, "ops_audit")) return;
+        TimeRange range = TimeRange.of(OPS_AUDIT, getQueryParam(ex,"from"), getQueryParam(ex,"to"));
+        // only the whole-table report is cached
+        ResponseCache.Ticket cached = RESPONSES.ticket(ex, range.isEmpty() ? "ops_audit.report" : null, "ops_audit");
+        if (RESPONSES.serve(ex, cached)) return;
+        try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(range.apply("SELECT status, COUNT(*) as cnt FROM ops_audit GROUP BY status"))){
+            range.bind(ps, 1); java.sql.ResultSet rs = ps.executeQuery();
             StringBuilder sb = new StringBuilder(); sb.append('[');
             boolean first=true;
             while(rs.next()){
@@ -1855,42 +1862,33 @@ public class Application {
                   .append("\"count\":").append(rs.getInt("cnt"))
                   .append('}');
             }
-            sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            sb.append(']'); writeJsonTagged(ex,cached,sb.toString().getBytes(StandardCharsets.UTF_8)); return;
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handleOpsMonitor(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsMonitor(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,metric_name,metric_value,status,created_at FROM ops_monitor ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"metric\":\"").append(escape(rs.getString("metric_name"))).append("\",")
-                      .append("\"value\":\"").append(escape(rs.getString("metric_value"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ops_monitor")) return;
+            ListQuery q = ListQuery.parse(ex, OPS_MONITOR);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String metric = extractJsonField(body, "metric");
-            String value = extractJsonField(body, "value");
-            String status = extractJsonField(body, "status");
+            JsonFields body = readJson(ex);
+            String metric = body.text("metric");
+            String value = body.text("value");
+            String status = body.text("status");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ops_monitor (metric_name,metric_value,status,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, metric==null?"指标":metric);
                 ps.setString(2, value==null?"":value);
                 ps.setString(3, status==null?"正常":status);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); OPS_MONITOR_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"metric\":\""+escape(metric==null?"指标":metric)+"\",\"value\":\""+escape(value==null?"":value)+"\",\"status\":\""+escape(status==null?"正常":status)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1898,38 +1896,29 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleOpsHealth(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsHealth(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,service_name,status,detail,checked_at FROM ops_health ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"service\":\"").append(escape(rs.getString("service_name"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"detail\":\"").append(escape(rs.getString("detail"))).append("\",")
-                      .append("\"checked_at\":\"").append(escape(rs.getString("checked_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ops_health")) return;
+            ListQuery q = ListQuery.parse(ex, OPS_HEALTH);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String service = extractJsonField(body, "service");
-            String status = extractJsonField(body, "status");
-            String detail = extractJsonField(body, "detail");
+            JsonFields body = readJson(ex);
+            String service = body.text("service");
+            String status = body.text("status");
+            String detail = body.text("detail");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ops_health (service_name,status,detail,checked_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, service==null?"服务":service);
                 ps.setString(2, status==null?"正常":status);
                 ps.setString(3, detail==null?"":detail);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); OPS_HEALTH_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"service\":\""+escape(service==null?"服务":service)+"\",\"status\":\""+escape(status==null?"正常":status)+"\",\"detail\":\""+escape(detail==null?"":detail)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1937,38 +1926,29 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleOpsLogs(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsLogs(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,level,source,message,created_at FROM ops_logs ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"level\":\"").append(escape(rs.getString("level"))).append("\",")
-                      .append("\"source\":\"").append(escape(rs.getString("source"))).append("\",")
-                      .append("\"message\":\"").append(escape(rs.getString("message"))).append("\",")
-                      .append("\"created_at\":\"").append(escape(rs.getString("created_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ops_logs")) return;
+            ListQuery q = ListQuery.parse(ex, OPS_LOGS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String level = extractJsonField(body, "level");
-            String source = extractJsonField(body, "source");
-            String message = extractJsonField(body, "message");
+            JsonFields body = readJson(ex);
+            String level = body.text("level");
+            String source = body.text("source");
+            String message = body.text("message");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ops_logs (level,source,message,created_at) VALUES (?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, level==null?"INFO":level);
                 ps.setString(2, source==null?"system":source);
                 ps.setString(3, message==null?"":message);
                 ps.setString(4, java.time.Instant.now().toString());
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); OPS_LOGS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"level\":\""+escape(level==null?"INFO":level)+"\",\"source\":\""+escape(source==null?"system":source)+"\",\"message\":\""+escape(message==null?"":message)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -1976,11 +1956,12 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleOpsLogsReport(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsLogsReport(Exchange ex) throws IOException {
         if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
-        try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-            java.sql.ResultSet rs = s.executeQuery("SELECT level, COUNT(*) as cnt FROM ops_logs GROUP BY level");
+        if (notModified(ex, "ops_logs")) return;
+        TimeRange range = TimeRange.of(OPS_LOGS, getQueryParam(ex,"from"), getQueryParam(ex,"to"));
+        try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement(range.apply("SELECT level, COUNT(*) as cnt FROM ops_logs GROUP BY level"))){
+            range.bind(ps, 1); java.sql.ResultSet rs = ps.executeQuery();
             StringBuilder sb = new StringBuilder(); sb.append('[');
             boolean first=true;
             while(rs.next()){
@@ -1994,37 +1975,114 @@ public class Application {
         } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
     }
 
-    private static void handleOpsBackups(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsDbPool(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        javax.sql.DataSource ds = dataSource;
+        try {
+            writeJson(ex,200,ds != null && ds.isWrapperFor(ConnectionPool.class) ? ds.unwrap(ConnectionPool.class).statsJson() : "{\"pooled\":false}");
+        } catch(java.sql.SQLException e){ writeText(ex,500,"db error: "+e.getMessage()); }
+    }
+
+    // ?sort=total|avg|max|p99|count|rows|errors&limit=N; DELETE starts the statistics over
+    private static void handleOpsSql(Exchange ex) throws IOException {
+        if ("DELETE".equals(ex.getRequestMethod())) { SQL_PROFILER.reset(); writeJson(ex,200,"{\"reset\":true}"); return; }
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        String sort = getQueryParam(ex,"sort");
+        String limit = getQueryParam(ex,"limit");
+        int n = limit == null ? 20 : Math.max(1, Math.min(500, Integer.parseInt(limit)));
+        writeJson(ex,200,SQL_PROFILER.report(sort == null ? "total" : sort, n));
+    }
+
+    private static void handleOpsExecutors(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,WORKERS.toJson());
+    }
+
+    private static void handleOpsCoalescing(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,SINGLE_FLIGHT.statsJson());
+    }
+
+    private static void handleOpsResponseCache(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,RESPONSES.statsJson());
+    }
+
+    private static void handleOpsRateLimits(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,RATE_LIMITS.statsJson());
+    }
+
+    private static void handleOpsIdempotency(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,IDEMPOTENCY.statsJson());
+    }
+
+    private static void handleOpsStream(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,EVENTS.statsJson());
+    }
+
+    private static void handleSync(Exchange ex) throws IOException {
+        CHANGES.handle(ex);
+    }
+
+    private static void handleOpsMigrations(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,MIGRATIONS.statsJson());
+    }
+
+    private static void handleOpsTemporal(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,TEMPORAL.statsJson());
+    }
+
+    private static void handleOpsSync(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,CHANGES.statsJson());
+    }
+
+    private static void handleOpsRoutes(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        writeJson(ex,200,ROUTER.statsJson());
+    }
+
+    // home dashboard counts from the in-memory snapshot; MySQL is only touched until the first snapshot exists
+    private static void handleDashboardSummary(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        byte[] json;
+        try { json = DASHBOARD.json(); } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        writeJsonCached(ex,200,"dashboard.summary",json);
+    }
+
+    // several GETs in one round trip, answered from one consistent snapshot
+    private static void handleBatch(Exchange ex) throws IOException {
+        if (!"POST".equals(ex.getRequestMethod())) { writeText(ex,405,"Method Not Allowed"); return; }
+        JsonFields body = readJson(ex);
+        writeJson(ex,200,Batch.run(ex, body.strings("requests"), ROUTER, Application::openOwnConnection));
+    }
+
+    private static void handleOpsBackups(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,target,backup_type,status,operator,started_at,finished_at FROM ops_backups ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"target\":\"").append(escape(rs.getString("target"))).append("\",")
-                      .append("\"type\":\"").append(escape(rs.getString("backup_type"))).append("\",")
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"operator\":\"").append(escape(rs.getString("operator"))).append("\",")
-                      .append("\"started_at\":\"").append(escape(rs.getString("started_at"))).append("\",")
-                      .append("\"finished_at\":\"").append(escape(rs.getString("finished_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ops_backups")) return;
+            ListQuery q = ListQuery.parse(ex, OPS_BACKUPS);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String target = extractJsonField(body, "target");
-            String type = extractJsonField(body, "type");
-            String status = extractJsonField(body, "status");
-            String operator = extractJsonField(body, "operator");
+            JsonFields body = readJson(ex);
+            String target = body.text("target");
+            String type = body.text("type");
+            String status = body.text("status");
+            String operator = body.text("operator");
             String started = java.time.Instant.now().toString();
-            String finished = extractJsonField(body, "finished_at");
+            String finished = body.text("finished_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ops_backups (target,backup_type,status,operator,started_at,finished_at) VALUES (?,?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setString(1, target==null?"village_db":target);
                 ps.setString(2, type==null?"全量":type);
@@ -2032,7 +2090,7 @@ public class Application {
                 ps.setString(4, operator==null?"admin":operator);
                 ps.setString(5, started);
                 ps.setString(6, finished);
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); OPS_BACKUPS_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"target\":\""+escape(target==null?"village_db":target)+"\",\"type\":\""+escape(type==null?"全量":type)+"\",\"status\":\""+escape(status==null?"进行中":status)+"\",\"operator\":\""+escape(operator==null?"admin":operator)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -2040,44 +2098,34 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    private static void handleOpsRestores(HttpExchange ex) throws IOException {
-        ensureTablesSafe();
+    private static void handleOpsRestores(Exchange ex) throws IOException {
         String method = ex.getRequestMethod();
         if ("GET".equals(method)){
-            try (java.sql.Connection c = openConnection(); java.sql.Statement s = c.createStatement()){
-                java.sql.ResultSet rs = s.executeQuery("SELECT id,backup_id,status,operator,started_at,finished_at FROM ops_restores ORDER BY id DESC");
-                StringBuilder sb = new StringBuilder(); sb.append('[');
-                boolean first=true;
-                while(rs.next()){
-                    if(!first) sb.append(','); first=false;
-                    sb.append('{')
-                      .append("\"id\":").append(rs.getInt("id")).append(',')
-                      .append("\"backup_id\":").append(rs.getInt("backup_id")).append(',')
-                      .append("\"status\":\"").append(escape(rs.getString("status"))).append("\",")
-                      .append("\"operator\":\"").append(escape(rs.getString("operator"))).append("\",")
-                      .append("\"started_at\":\"").append(escape(rs.getString("started_at"))).append("\",")
-                      .append("\"finished_at\":\"").append(escape(rs.getString("finished_at"))).append("\"")
-                      .append('}');
-                }
-                sb.append(']'); writeJson(ex,200,sb.toString()); return;
+            if (notModified(ex, "ops_restores")) return;
+            ListQuery q = ListQuery.parse(ex, OPS_RESTORES);
+            try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = streamingStatement(c, q.sql())){
+                q.bind(ps); java.sql.ResultSet rs = ps.executeQuery();
+                JsonWriter out = JsonStream.open(ex, 200); q.head(out);
+                while(q.next(rs)) q.writeRow(out, rs);
+                q.tail(out); out.close(); return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
         }
         if ("POST".equals(method)){
-            String body = readBody(ex);
-            String backupIdStr = extractJsonField(body, "backup_id");
-            String status = extractJsonField(body, "status");
-            String operator = extractJsonField(body, "operator");
+            JsonFields body = readJson(ex);
+            String backupIdStr = body.text("backup_id");
+            String status = body.text("status");
+            String operator = body.text("operator");
             int backupId = 0;
             try { if (backupIdStr != null) backupId = Integer.parseInt(backupIdStr); } catch(Exception ignored) {}
             String started = java.time.Instant.now().toString();
-            String finished = extractJsonField(body, "finished_at");
+            String finished = body.text("finished_at");
             try (java.sql.Connection c = openConnection(); java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO ops_restores (backup_id,status,operator,started_at,finished_at) VALUES (?,?,?,?,?)", java.sql.Statement.RETURN_GENERATED_KEYS)){
                 ps.setInt(1, backupId);
                 ps.setString(2, status==null?"进行中":status);
                 ps.setString(3, operator==null?"admin":operator);
                 ps.setString(4, started);
                 ps.setString(5, finished);
-                ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1);
+                c.setAutoCommit(false); ps.executeUpdate(); java.sql.ResultSet g = ps.getGeneratedKeys(); int id = -1; if (g.next()) id = g.getInt(1); OPS_RESTORES_LOG.commit(c, id, 'I');
                 writeJson(ex,201,"{\"id\":"+id+",\"backup_id\":"+backupId+",\"status\":\""+escape(status==null?"进行中":status)+"\",\"operator\":\""+escape(operator==null?"admin":operator)+"\"}");
                 return;
             } catch(Exception e){ writeText(ex,500,"db error: "+e.getMessage()); return; }
@@ -2085,22 +2133,18 @@ public class Application {
         writeText(ex,405,"Method Not Allowed");
     }
 
-    // very small helpers - not robust JSON parsing but enough for mock
-    private static String extractJsonField(String json, String key){
-        if (json==null) return null;
-        String pattern = "\""+key+"\"\\s*:\\s*\"([^\"]*)\"";
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile(pattern).matcher(json);
-        if (m.find()) return m.group(1);
-        // also try number
-        pattern = "\""+key+"\"\\s*:\\s*([0-9]+)";
-        m = java.util.regex.Pattern.compile(pattern).matcher(json);
-        if (m.find()) return m.group(1);
-        return null;
+    // pushes a row change to /api/stream subscribers; fields are name/value pairs, null values are left out
+    private static void publishChange(String topic, String action, int id, String... fields){
+        StringBuilder sb = new StringBuilder(96).append("{\"action\":\"").append(action).append("\",\"id\":").append(id);
+        for (int i = 0; i + 1 < fields.length; i += 2){
+            if (fields[i+1] != null) sb.append(",\"").append(fields[i]).append("\":\"").append(escape(fields[i+1])).append('"');
+        }
+        EVENTS.publish(topic, sb.append('}').toString());
     }
 
+    // single pass over the escape table shared with JsonWriter; also covers \r, \t and other control characters
     private static String escape(String s){
-        if (s == null) return "";
-        return s.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n");
+        return JsonWriter.escape(s);
     }
 
     private static String hashPassword(String password){
@@ -2181,56 +2225,15 @@ public class Application {
         }
     }
 
-    private static String extractJsonString(String json, String key){
-        if (json == null || key == null) return null;
-        String needle = "\"" + key + "\"";
-        int idx = json.indexOf(needle);
-        if (idx < 0) return null;
-        idx = json.indexOf(':', idx + needle.length());
-        if (idx < 0) return null;
-        idx++;
-        while (idx < json.length() && Character.isWhitespace(json.charAt(idx))) idx++;
-        if (idx >= json.length() || json.charAt(idx) != '"') return null;
-        idx++;
-        StringBuilder sb = new StringBuilder();
-        boolean escaped = false;
-        for (; idx < json.length(); idx++){
-            char ch = json.charAt(idx);
-            if (escaped){
-                switch (ch){
-                    case '"': sb.append('"'); break;
-                    case '\\': sb.append('\\'); break;
-                    case '/': sb.append('/'); break;
-                    case 'b': sb.append('\b'); break;
-                    case 'f': sb.append('\f'); break;
-                    case 'n': sb.append('\n'); break;
-                    case 'r': sb.append('\r'); break;
-                    case 't': sb.append('\t'); break;
-                    case 'u':
-                        if (idx + 4 < json.length()){
-                            String hex = json.substring(idx + 1, idx + 5);
-                            try { sb.append((char) Integer.parseInt(hex, 16)); } catch (Exception ignored) {}
-                            idx += 4;
-                        }
-                        break;
-                    default: sb.append(ch); break;
-                }
-                escaped = false;
-                continue;
-            }
-            if (ch == '\\'){
-                escaped = true;
-                continue;
-            }
-            if (ch == '"'){
-                return sb.toString();
-            }
-            sb.append(ch);
+    // one COUNT(*), narrowed to the range when there is one
+    private static int count(java.sql.Connection c, String sql, TimeRange range) throws java.sql.SQLException {
+        try (java.sql.PreparedStatement ps = c.prepareStatement(range.apply(sql))){
+            range.bind(ps, 1);
+            try (java.sql.ResultSet rs = ps.executeQuery()){ rs.next(); return rs.getInt(1); }
         }
-        return null;
     }
 
-    private static String getQueryParam(HttpExchange ex, String key){
+    private static String getQueryParam(Exchange ex, String key){
         String q = ex.getRequestURI().getQuery();
         if (q==null || q.isEmpty()) return null;
         String[] parts = q.split("&");
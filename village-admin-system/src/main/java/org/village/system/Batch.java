@@ -0,0 +1,251 @@
+package org.village.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.village.common.json.JsonWriter;
+
+// POST /api/batch {"requests":["/api/warnings/stats","/api/gov/tasks?limit=20",...]}: many GETs, one round trip.
+// parts go through the router in parallel like ordinary requests (same middleware, bulkheads and route stats).
+// their database work shares one read-only transaction opened WITH CONSISTENT SNAPSHOT, so every part sees the
+// same state. a JDBC connection is not concurrent, so parts take turns on it: openConnection() inside a part
+// hands out a lease on the shared connection that ends when the handler closes it.
+final class Batch {
+    static final String ATTR = "batch";
+    private static final int MAX_REQUESTS = WorkerPools.envInt("HTTP_BATCH_MAX", 32);
+    private static final long MAX_BYTES = WorkerPools.envInt("HTTP_BATCH_MAX_KB", 8 * 1024) * 1024L;
+    private static final long TIMEOUT_MILLIS = WorkerPools.envInt("HTTP_BATCH_TIMEOUT_MS", 30_000);
+    private static final ThreadLocal<Batch> CURRENT = new ThreadLocal<>();
+
+    private static final JsonWriter.Name SNAPSHOT = JsonWriter.Name.of("snapshot");
+    private static final JsonWriter.Name RESULTS = JsonWriter.Name.of("results");
+    private static final JsonWriter.Name PATH = JsonWriter.Name.of("path");
+    private static final JsonWriter.Name STATUS = JsonWriter.Name.of("status");
+    private static final JsonWriter.Name BODY = JsonWriter.Name.of("body");
+
+    // null when the database could not be reached; parts then open their own connections and report their own errors
+    private final java.sql.Connection snapshot;
+    private final ReentrantLock turn = new ReentrantLock(true);
+    private final AtomicLong bytes = new AtomicLong();
+
+    private Batch(java.sql.Connection snapshot){
+        this.snapshot = snapshot;
+    }
+
+    // makes the batch of a part visible to openConnection() on the worker thread that runs it
+    static Router.Middleware scope(){
+        return (route, next) -> ex -> {
+            Batch b = (Batch) ex.getAttribute(ATTR);
+            if (b == null){ next.handle(ex); return; }
+            CURRENT.set(b);
+            try {
+                next.handle(ex);
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    // the shared snapshot when called from a batch part, otherwise null
+    static java.sql.Connection lease() throws InterruptedException {
+        Batch b = CURRENT.get();
+        if (b == null || b.snapshot == null) return null;
+        if (!b.turn.tryLock(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) throw new IllegalStateException("batch connection busy");
+        return b.borrowed();
+    }
+
+    // the combined response: {"snapshot":bool,"results":[{"path","status","body"},...]} in request order
+    static byte[] run(Exchange ex, List<String> paths, Handler router, Callable<java.sql.Connection> open) throws IOException {
+        if (paths == null || paths.isEmpty()) throw new IllegalArgumentException("requests: expected a non-empty array of paths");
+        if (paths.size() > MAX_REQUESTS) throw new IllegalArgumentException("requests: at most " + MAX_REQUESTS + " per batch");
+        URI[] uris = new URI[paths.size()];
+        for (int i = 0; i < uris.length; i++){
+            String p = paths.get(i);
+            try { uris[i] = new URI(p); } catch (URISyntaxException e) { throw new IllegalArgumentException("requests[" + i + "]: bad path " + p); }
+            String path = uris[i].getRawPath();
+            if (uris[i].isAbsolute() || path == null || !(path.equals("/api") || path.startsWith("/api/")) || path.startsWith("/api/batch")){
+                throw new IllegalArgumentException("requests[" + i + "]: only /api/ GET paths");
+            }
+        }
+
+        java.sql.Connection c = null;
+        try {
+            c = open.call();
+            c.setTransactionIsolation(java.sql.Connection.TRANSACTION_REPEATABLE_READ);
+            c.setAutoCommit(false);
+            try (java.sql.Statement s = c.createStatement()){ s.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY"); }
+        } catch (Exception e) {
+            closeQuietly(c);
+            c = null;
+        }
+        Batch batch = new Batch(c);
+        try {
+            Part[] parts = new Part[uris.length];
+            CountDownLatch done = new CountDownLatch(parts.length);
+            for (int i = 0; i < parts.length; i++){
+                parts[i] = batch.new Part(ex, uris[i], done);
+                router.handle(parts[i]);
+            }
+            try {
+                done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            JsonWriter out = JsonWriter.buffered();
+            out.beginObject().name(SNAPSHOT).value(c != null).name(RESULTS).beginArray();
+            for (int i = 0; i < parts.length; i++){
+                out.beginObject().field(PATH, paths.get(i));
+                parts[i].write(out);
+                out.endObject();
+            }
+            out.endArray().endObject();
+            return out.toByteArray();
+        } finally {
+            if (c != null){
+                // parts still running past the timeout hold the turn; waiting for it keeps them off a closed connection
+                try {
+                    if (batch.turn.tryLock(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)){
+                        try { c.commit(); } catch (java.sql.SQLException ignored) {}
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                closeQuietly(c);
+            }
+        }
+    }
+
+    private static void closeQuietly(java.sql.Connection c){
+        if (c == null) return;
+        try { c.close(); } catch (java.sql.SQLException ignored) {}
+    }
+
+    // the shared connection as a handler sees it: close() ends the turn, transaction control is the batch's
+    private java.sql.Connection borrowed(){
+        InvocationHandler h = new InvocationHandler() {
+            private boolean released;
+
+            @Override
+            public Object invoke(Object proxy, java.lang.reflect.Method m, Object[] args) throws Throwable {
+                switch (m.getName()){
+                    case "close":
+                        if (!released){ released = true; turn.unlock(); }
+                        return null;
+                    case "isClosed":
+                        return released || snapshot.isClosed();
+                    case "commit": case "rollback": case "setAutoCommit": case "setReadOnly": case "setTransactionIsolation":
+                        return null;
+                    default:
+                        if (released) throw new java.sql.SQLException("connection returned to batch");
+                        try { return m.invoke(snapshot, args); } catch (InvocationTargetException e) { throw e.getCause(); }
+                }
+            }
+        };
+        return (java.sql.Connection) Proxy.newProxyInstance(Batch.class.getClassLoader(), new Class<?>[] { java.sql.Connection.class }, h);
+    }
+
+    // one sub-request: a GET carrying the caller's headers, answered into memory
+    private final class Part implements Exchange {
+        private final Exchange parent;
+        private final URI uri;
+        private final CountDownLatch done;
+        private final HttpHeaders requestHeaders = new HttpHeaders();
+        private final HttpHeaders responseHeaders = new HttpHeaders();
+        private final Map<String, Object> attributes = new HashMap<>(4);
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        private volatile int status = -1;
+        private volatile boolean closed;
+        private volatile boolean overflow;
+
+        Part(Exchange parent, URI uri, CountDownLatch done){
+            this.parent = parent;
+            this.uri = uri;
+            this.done = done;
+            for (Map.Entry<String, List<String>> e : parent.getRequestHeaders().asMap().entrySet()){
+                String name = e.getKey();
+                // parts are embedded uncompressed and always in full
+                if (name.equalsIgnoreCase("Accept-Encoding") || name.equalsIgnoreCase("If-None-Match")
+                        || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Content-Type")) continue;
+                for (String v : e.getValue()) requestHeaders.add(name, v);
+            }
+            attributes.put(ATTR, Batch.this);
+        }
+
+        @Override public String getRequestMethod(){ return "GET"; }
+        @Override public URI getRequestURI(){ return uri; }
+        @Override public HttpHeaders getRequestHeaders(){ return requestHeaders; }
+        @Override public InputStream getRequestBody(){ return new ByteArrayInputStream(new byte[0]); }
+        @Override public InetSocketAddress getRemoteAddress(){ return parent.getRemoteAddress(); }
+        @Override public HttpHeaders getResponseHeaders(){ return responseHeaders; }
+        @Override public int getResponseCode(){ return status; }
+        @Override public synchronized Object getAttribute(String name){ return attributes.get(name); }
+        @Override public synchronized void setAttribute(String name, Object value){ attributes.put(name, value); }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (status != -1) throw new IOException("headers already sent");
+            status = code;
+        }
+
+        @Override
+        public OutputStream getResponseBody(){
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (bytes.addAndGet(len) > MAX_BYTES){
+                        overflow = true;
+                        throw new IOException("batch response too large");
+                    }
+                    synchronized (body){ body.write(b, off, len); }
+                }
+            };
+        }
+
+        @Override
+        public void close(){
+            if (closed) return;
+            closed = true;
+            done.countDown();
+        }
+
+        void write(JsonWriter out) throws IOException {
+            if (!closed){
+                out.field(STATUS, 504).name(BODY).value("timed out");
+                return;
+            }
+            if (overflow){
+                out.field(STATUS, 413).name(BODY).value("batch response too large");
+                return;
+            }
+            out.field(STATUS, status).name(BODY);
+            byte[] b;
+            synchronized (body){ b = body.toByteArray(); }
+            String type = responseHeaders.getFirst("Content-Type");
+            if (b.length == 0) out.nullValue();
+            else if (type != null && type.startsWith("application/json")) out.rawValue(b, 0, b.length);
+            else out.value(new String(b, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.village.system;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// fixed-size worker pool with a bounded queue; callers get false instead of blocking when it is full
+final class Bulkhead {
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    Bulkhead(String name, int threads, int queueCapacity){
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        final AtomicInteger seq = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "http-" + name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), tf, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    int threads(){
+        return threads;
+    }
+
+    boolean tryExecute(Runnable task){
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    String name(){ return name; }
+
+    String toJson(){
+        return "{\"name\":\"" + name + "\",\"threads\":" + threads
+                + ",\"active\":" + executor.getActiveCount()
+                + ",\"queued\":" + executor.getQueue().size()
+                + ",\"queue_capacity\":" + queueCapacity
+                + ",\"completed\":" + executor.getCompletedTaskCount()
+                + ",\"rejected\":" + rejected.get() + "}";
+    }
+
+    void shutdown(){
+        executor.shutdown();
+    }
+}
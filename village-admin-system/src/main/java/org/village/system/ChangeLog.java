@@ -0,0 +1,285 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.village.common.json.JsonWriter;
+
+// append-only (seq, table, row id, op) log written by the write handlers, and GET /api/sync?since=<seq> on top of it:
+// a client that kept the "next" of its last sync gets the current rows of everything created or updated since,
+// and tombstones for what was deleted, instead of reloading whole tables. several changes to one row collapse
+// into its latest state. the log entry commits in the same transaction as the row write, so neither is ever
+// visible without the other. appends and their commits are serialized so a seq never becomes visible before a
+// smaller one (a sync could otherwise step past a change that commits late). rows older than HTTP_SYNC_RETENTION_DAYS are pruned; a client
+// whose since falls before the oldest kept entry is told to reset and reload. HTTP_SYNC_MAX changes per call.
+final class ChangeLog implements Handler {
+    static final String DDL = "CREATE TABLE IF NOT EXISTS change_log (seq BIGINT AUTO_INCREMENT PRIMARY KEY, table_name VARCHAR(64) NOT NULL, row_id INT NOT NULL, op CHAR(1) NOT NULL, changed_at BIGINT NOT NULL, INDEX idx_change_log_time (changed_at)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    private static final JsonWriter.Name SINCE = JsonWriter.Name.of("since");
+    private static final JsonWriter.Name NEXT = JsonWriter.Name.of("next");
+    private static final JsonWriter.Name MORE = JsonWriter.Name.of("more");
+    private static final JsonWriter.Name RESET = JsonWriter.Name.of("reset");
+    private static final JsonWriter.Name CHANGES = JsonWriter.Name.of("changes");
+    private static final JsonWriter.Name UPSERTS = JsonWriter.Name.of("upserts");
+    private static final JsonWriter.Name DELETED = JsonWriter.Name.of("deleted");
+
+    private final Callable<java.sql.Connection> db;
+    private final Map<String, TableSchema> tables = new LinkedHashMap<>();
+    private final int maxChanges;
+    private final long retentionMillis;
+    // held across the log insert and the COMMIT: seq is assigned at insert time, so without it a later seq could
+    // commit first and a sync reading "since" past it would never see the earlier one. /api/sync relies on seqs
+    // becoming visible in order
+    private final Object appendLock = new Object();
+    private final AtomicInteger sincePrune = new AtomicInteger();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder tombstones = new LongAdder();
+
+    ChangeLog(Callable<java.sql.Connection> db, int maxChanges, long retentionMillis, TableSchema... schemas){
+        this.db = db;
+        this.maxChanges = maxChanges;
+        this.retentionMillis = retentionMillis;
+        for (TableSchema s : schemas) tables.put(s.table, s);
+    }
+
+    static ChangeLog fromEnv(Callable<java.sql.Connection> db, TableSchema... schemas){
+        return new ChangeLog(db, Math.max(10, WorkerPools.envInt("HTTP_SYNC_MAX", 1000)),
+            Math.max(1, WorkerPools.envInt("HTTP_SYNC_RETENTION_DAYS", 30)) * 86_400_000L, schemas);
+    }
+
+    // a logged table, resolved once when the handlers are set up, so a commit never finds out after the row write
+    // that its table isn't logged
+    final class Table {
+        final String name;
+
+        private Table(String name){
+            this.name = name;
+        }
+
+        // ends the writer's transaction (opened with setAutoCommit(false) before its statement): logs the change,
+        // commits both, restores autocommit and bumps the table version. when the log insert or the commit fails the
+        // row write is rolled back too and the exception goes to the handler, so the client sees the 500 and can retry
+        void commit(java.sql.Connection c, int id, char op) throws java.sql.SQLException {
+            ChangeLog.this.commit(c, name, id, op);
+        }
+    }
+
+    Table table(TableSchema schema){
+        if (tables.get(schema.table) != schema) throw new IllegalArgumentException("change log: unknown table " + schema.table);
+        return new Table(schema.table);
+    }
+
+    private void commit(java.sql.Connection c, String table, int id, char op) throws java.sql.SQLException {
+        try {
+            synchronized (appendLock){
+                if (id >= 0){
+                    try (java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO change_log (table_name,row_id,op,changed_at) VALUES (?,?,?,?)")){
+                        ps.setString(1, table);
+                        ps.setInt(2, id);
+                        ps.setString(3, String.valueOf(op));
+                        ps.setLong(4, System.currentTimeMillis());
+                        ps.executeUpdate();
+                    }
+                }
+                c.commit();
+            }
+        } catch (java.sql.SQLException e) {
+            failed.increment();
+            try { c.rollback(); } catch (java.sql.SQLException ignored) {}
+            System.err.println("change log append failed for " + table + "#" + id + ", write rolled back: " + e.getMessage());
+            throw e;
+        }
+        c.setAutoCommit(true);
+        TableVersions.bump(table);
+        if (id < 0) return;
+        appended.increment();
+        if (sincePrune.incrementAndGet() >= 1024){
+            sincePrune.set(0);
+            // housekeeping; the change itself is committed already
+            try { prune(c); } catch (java.sql.SQLException e) { System.err.println("change log prune failed: " + e.getMessage()); }
+        }
+    }
+
+    // the newest entry always stays, so "since" can be checked against the oldest one kept
+    private void prune(java.sql.Connection c) throws java.sql.SQLException {
+        long newest;
+        try (java.sql.Statement s = c.createStatement(); java.sql.ResultSet rs = s.executeQuery("SELECT MAX(seq) FROM change_log")){
+            if (!rs.next()) return;
+            newest = rs.getLong(1);
+        }
+        try (java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM change_log WHERE changed_at<? AND seq<?")){
+            ps.setLong(1, System.currentTimeMillis() - retentionMillis);
+            ps.setLong(2, newest);
+            ps.executeUpdate();
+        }
+    }
+
+    private static final class Change {
+        final int id;
+        final char op;
+
+        Change(int id, char op){
+            this.id = id;
+            this.op = op;
+        }
+    }
+
+    @Override
+    public void handle(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())){ text(ex, 405, "Method Not Allowed"); return; }
+        List<String> wanted = new ArrayList<>();
+        String param = param(ex, "tables");
+        if (param == null || param.trim().isEmpty()) wanted.addAll(tables.keySet());
+        else {
+            for (String t : param.split(",")){
+                t = t.trim();
+                if (t.isEmpty() || wanted.contains(t)) continue;
+                if (!tables.containsKey(t)){ text(ex, 400, "unknown table: " + t + " (known: " + String.join(",", tables.keySet()) + ")"); return; }
+                wanted.add(t);
+            }
+        }
+        String sinceParam = param(ex, "since");
+        long since = -1;
+        if (sinceParam != null){
+            try { since = Long.parseLong(sinceParam.trim()); } catch (NumberFormatException e) { text(ex, 400, "invalid since: " + sinceParam); return; }
+            if (since < 0){ text(ex, 400, "invalid since: " + sinceParam); return; }
+        }
+        syncs.increment();
+
+        try (java.sql.Connection c = db.call()){
+            long oldest = 0, newest = 0;
+            try (java.sql.Statement s = c.createStatement(); java.sql.ResultSet rs = s.executeQuery("SELECT MIN(seq),MAX(seq) FROM change_log")){
+                if (rs.next()){ oldest = rs.getLong(1); newest = rs.getLong(2); }
+            }
+            // no since: where to start syncing from once the client has loaded its lists
+            if (since < 0){ writeHead(ex, null, newest, false); return; }
+            if (oldest > 0 && since < oldest - 1){
+                resets.increment();
+                writeHead(ex, since, newest, true);
+                return;
+            }
+
+            StringBuilder sql = new StringBuilder("SELECT seq,table_name,row_id,op FROM change_log WHERE seq>?");
+            if (wanted.size() < tables.size()){
+                sql.append(" AND table_name IN (");
+                for (int i = 0; i < wanted.size(); i++) sql.append(i == 0 ? "?" : ",?");
+                sql.append(')');
+            }
+            sql.append(" ORDER BY seq LIMIT ?");
+            Map<String, LinkedHashMap<Integer, Change>> byTable = new LinkedHashMap<>();
+            long next = since;
+            boolean more = false;
+            try (java.sql.PreparedStatement ps = c.prepareStatement(sql.toString())){
+                int i = 1;
+                ps.setLong(i++, since);
+                if (wanted.size() < tables.size()) for (String t : wanted) ps.setString(i++, t);
+                ps.setInt(i, maxChanges + 1);
+                int n = 0;
+                try (java.sql.ResultSet rs = ps.executeQuery()){
+                    while (rs.next()){
+                        if (++n > maxChanges){ more = true; break; }
+                        next = rs.getLong(1);
+                        LinkedHashMap<Integer, Change> changes = byTable.get(rs.getString(2));
+                        if (changes == null){
+                            changes = new LinkedHashMap<>();
+                            byTable.put(rs.getString(2), changes);
+                        }
+                        int id = rs.getInt(3);
+                        // latest op wins; re-inserting keeps the row in order of its last change
+                        changes.remove(id);
+                        changes.put(id, new Change(id, rs.getString(4).charAt(0)));
+                    }
+                }
+            }
+            // everything up to newest was either returned or belongs to tables this client didn't ask for
+            if (!more && newest > next) next = newest;
+
+            JsonWriter out = JsonStream.open(ex, 200);
+            out.beginObject().field(SINCE, since).field(NEXT, next).name(MORE).value(more).name(RESET).value(false);
+            out.name(CHANGES).beginObject();
+            for (Map.Entry<String, LinkedHashMap<Integer, Change>> e : byTable.entrySet()){
+                out.name(JsonWriter.Name.of(e.getKey())).beginObject();
+                writeTable(c, out, tables.get(e.getKey()), e.getValue());
+                out.endObject();
+            }
+            out.endObject().endObject();
+            out.close();
+        } catch (Exception e) {
+            if (ex.getResponseCode() != -1) throw new IOException(e);
+            text(ex, 500, "db error: " + e.getMessage());
+        }
+    }
+
+    // current rows for the created/updated ids; ids that are gone by now are tombstones like the deleted ones
+    private void writeTable(java.sql.Connection c, JsonWriter out, TableSchema schema, LinkedHashMap<Integer, Change> changes) throws Exception {
+        List<Integer> live = new ArrayList<>();
+        List<Integer> gone = new ArrayList<>();
+        for (Change ch : changes.values()) (ch.op == 'D' ? gone : live).add(ch.id);
+        out.name(UPSERTS).beginArray();
+        for (int from = 0; from < live.size(); from += 500){
+            List<Integer> part = live.subList(from, Math.min(live.size(), from + 500));
+            StringBuilder sql = new StringBuilder(schema.select).append(" WHERE id IN (");
+            for (int i = 0; i < part.size(); i++) sql.append(i == 0 ? "?" : ",?");
+            try (java.sql.PreparedStatement ps = c.prepareStatement(sql.append(") ORDER BY id").toString())){
+                for (int i = 0; i < part.size(); i++) ps.setInt(i + 1, part.get(i));
+                Set<Integer> found = new HashSet<>();
+                try (java.sql.ResultSet rs = ps.executeQuery()){
+                    while (rs.next()){
+                        found.add(rs.getInt("id"));
+                        schema.writeRow(out, rs);
+                        rows.increment();
+                    }
+                }
+                for (Integer id : part) if (!found.contains(id)) gone.add(id);
+            }
+        }
+        out.endArray();
+        out.name(DELETED).beginArray();
+        for (Integer id : gone) out.value(id);
+        out.endArray();
+        tombstones.add(gone.size());
+    }
+
+    private static void writeHead(Exchange ex, Long since, long next, boolean reset) throws IOException {
+        String json = "{\"since\":" + since + ",\"next\":" + next + ",\"more\":false,\"reset\":" + reset + ",\"changes\":{}}";
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(200, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    private static String param(Exchange ex, String name){
+        String q = ex.getRequestURI().getQuery();
+        if (q == null) return null;
+        for (String p : q.split("&")){
+            int eq = p.indexOf('=');
+            if (eq > 0 && p.substring(0, eq).equals(name)) return p.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void text(Exchange ex, int status, String msg) throws IOException {
+        byte[] b = msg.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    String statsJson(){
+        return "{\"tables\":" + tables.size() + ",\"appended\":" + appended.sum() + ",\"append_failures\":" + failed.sum()
+            + ",\"syncs\":" + syncs.sum() + ",\"resets\":" + resets.sum() + ",\"rows\":" + rows.sum() + ",\"tombstones\":" + tombstones.sum() + "}";
+    }
+}
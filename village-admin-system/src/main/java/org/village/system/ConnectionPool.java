@@ -0,0 +1,433 @@
+package org.village.system;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+// keeps physical MySQL connections open between requests so a checkout is a deque pop instead of a TCP connect
+// plus auth handshake. handlers still write try (Connection c = openConnection()): close() on the handed-out proxy
+// rolls back what was left open, restores autocommit/isolation/read-only, closes forgotten statements and puts
+// the connection back. idle connections are reused newest first, so the spare ones at the tail age out.
+// checked on checkout when they sat idle longer than DB_POOL_VALIDATE_MS; retired after DB_POOL_MAX_LIFETIME_S
+// (before MySQL's wait_timeout can cut them). a checkout waits at most DB_POOL_TIMEOUT_MS for one of
+// DB_POOL_MAX connections; DB_POOL_MIN stay open. a connection held longer than DB_POOL_LEAK_MS is reported
+// once with the stack of the code that took it.
+final class ConnectionPool implements javax.sql.DataSource {
+    private final javax.sql.DataSource target;
+    private final int min;
+    private final int max;
+    private final long timeoutNanos;
+    private final long validateMillis;
+    private final long lifetimeMillis;
+    private final long idleMillis;
+    private final long leakMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // guarded by lock
+    private final ArrayDeque<Pooled> idle = new ArrayDeque<>();
+    private int total;
+    private int waiting;
+    private boolean closed;
+
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder retired = new LongAdder();
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder broken = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private volatile String lastError;
+
+    ConnectionPool(javax.sql.DataSource target, int min, int max, long timeoutMillis, long validateMillis, long lifetimeMillis, long idleMillis, long leakMillis){
+        this.target = target;
+        this.max = Math.max(1, max);
+        this.min = Math.max(0, Math.min(min, this.max));
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.validateMillis = validateMillis;
+        this.lifetimeMillis = lifetimeMillis;
+        this.idleMillis = idleMillis;
+        this.leakMillis = leakMillis;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, 5, TimeUnit.SECONDS);
+    }
+
+    static ConnectionPool fromEnv(javax.sql.DataSource target){
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ConnectionPool(target,
+            WorkerPools.envInt("DB_POOL_MIN", 2),
+            // enough for every CRUD worker plus batch snapshots and exports
+            WorkerPools.envInt("DB_POOL_MAX", Math.max(8, cores * 2 + 4)),
+            WorkerPools.envInt("DB_POOL_TIMEOUT_MS", 5000),
+            WorkerPools.envInt("DB_POOL_VALIDATE_MS", 5000),
+            WorkerPools.envInt("DB_POOL_MAX_LIFETIME_S", 1800) * 1000L,
+            WorkerPools.envInt("DB_POOL_IDLE_TIMEOUT_S", 600) * 1000L,
+            WorkerPools.envInt("DB_POOL_LEAK_MS", 60_000));
+    }
+
+    // one physical connection and what a borrower changed on it
+    private static final class Pooled {
+        final java.sql.Connection raw;
+        final long born = System.currentTimeMillis();
+        long lastUsed = born;
+        final List<java.sql.Statement> statements = new ArrayList<>();
+        boolean autoCommitTouched;
+        boolean isolationTouched;
+        boolean readOnlyTouched;
+        boolean catalogTouched;
+        int isolation = -1;
+        String catalog;
+
+        Pooled(java.sql.Connection raw){
+            this.raw = raw;
+        }
+    }
+
+    // one checkout; the proxy a handler holds
+    private final class Lease implements InvocationHandler {
+        final Pooled p;
+        final long since = System.currentTimeMillis();
+        final Throwable site;
+        final String thread = Thread.currentThread().getName();
+        // read by the housekeeper's leak check and by isClosed on other threads
+        volatile boolean released;
+        boolean failed;
+        volatile boolean reported;
+
+        Lease(Pooled p){
+            this.p = p;
+            this.site = leakMillis > 0 ? new Throwable("connection checked out here") : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()){
+                case "close":
+                    release(this);
+                    return null;
+                case "isClosed":
+                    return released || p.raw.isClosed();
+                case "abort":
+                    failed = true;
+                    release(this);
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "pooled " + p.raw;
+                default:
+                    break;
+            }
+            if (released) throw new java.sql.SQLException("connection returned to pool");
+            switch (m.getName()){
+                case "setAutoCommit": p.autoCommitTouched = true; break;
+                case "setTransactionIsolation":
+                    if (!p.isolationTouched){
+                        p.isolation = p.raw.getTransactionIsolation();
+                        p.isolationTouched = true;
+                    }
+                    break;
+                case "setReadOnly": p.readOnlyTouched = true; break;
+                case "setCatalog":
+                    if (!p.catalogTouched){
+                        p.catalog = p.raw.getCatalog();
+                        p.catalogTouched = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = m.invoke(p.raw, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                // SQLState class 08: the connection itself is gone
+                if (cause instanceof java.sql.SQLException){
+                    String state = ((java.sql.SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) failed = true;
+                }
+                throw cause;
+            }
+            if (result instanceof java.sql.Statement) p.statements.add((java.sql.Statement) result);
+            return result;
+        }
+    }
+
+    @Override
+    public java.sql.Connection getConnection() throws java.sql.SQLException {
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        for (;;){
+            Pooled p;
+            boolean create = false;
+            lock.lock();
+            try {
+                for (;;){
+                    if (closed) throw new java.sql.SQLException("connection pool closed");
+                    p = idle.pollFirst();
+                    if (p != null) break;
+                    if (total < max){
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0){
+                        timeouts.increment();
+                        throw new java.sql.SQLTransientConnectionException("no database connection free after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+                            + " ms (" + leased.size() + " in use, max " + max + ")");
+                    }
+                    waiting++;
+                    try {
+                        available.awaitNanos(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new java.sql.SQLException("interrupted waiting for a database connection");
+                    } finally {
+                        waiting--;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (create) p = open();
+            else if (!usable(p)){
+                discard(p);
+                continue;
+            }
+            long waited = System.nanoTime() - start;
+            checkouts.increment();
+            waitNanos.add(waited);
+            long prev;
+            while (waited > (prev = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(prev, waited)) { }
+            Lease lease = new Lease(p);
+            leased.add(lease);
+            return (java.sql.Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] { java.sql.Connection.class }, lease);
+        }
+    }
+
+    // a slot in total is already reserved for it
+    private Pooled open() throws java.sql.SQLException {
+        try {
+            Pooled p = new Pooled(target.getConnection());
+            created.increment();
+            return p;
+        } catch (java.sql.SQLException | RuntimeException e) {
+            lastError = e.getMessage();
+            lock.lock();
+            try {
+                total--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private boolean usable(Pooled p){
+        long now = System.currentTimeMillis();
+        if (now - p.born > lifetimeMillis) return false;
+        if (now - p.lastUsed <= validateMillis) return true;
+        try {
+            if (p.raw.isValid(2)) return true;
+        } catch (java.sql.SQLException ignored) {
+        }
+        invalid.increment();
+        return false;
+    }
+
+    private void release(Lease lease){
+        if (lease.released) return;
+        lease.released = true;
+        leased.remove(lease);
+        Pooled p = lease.p;
+        boolean ok = !lease.failed;
+        for (java.sql.Statement s : p.statements){
+            try { s.close(); } catch (java.sql.SQLException e) { ok = false; }
+        }
+        p.statements.clear();
+        if (ok){
+            try {
+                if (p.autoCommitTouched && !p.raw.getAutoCommit()){
+                    p.raw.rollback();
+                    p.raw.setAutoCommit(true);
+                }
+                if (p.isolationTouched) p.raw.setTransactionIsolation(p.isolation);
+                if (p.readOnlyTouched) p.raw.setReadOnly(false);
+                if (p.catalogTouched) p.raw.setCatalog(p.catalog);
+                p.autoCommitTouched = p.isolationTouched = p.readOnlyTouched = p.catalogTouched = false;
+            } catch (java.sql.SQLException e) {
+                ok = false;
+            }
+        }
+        if (!ok){
+            broken.increment();
+            discard(p);
+            return;
+        }
+        p.lastUsed = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (!closed){
+                idle.addFirst(p);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(p);
+    }
+
+    private void discard(Pooled p){
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        retired.increment();
+        try { p.raw.close(); } catch (java.sql.SQLException ignored) {}
+    }
+
+    // every few seconds: report leaks, retire old and surplus idle connections, top up to min
+    private void housekeep(){
+        long now = System.currentTimeMillis();
+        if (leakMillis > 0){
+            for (Lease l : leased){
+                if (!l.reported && now - l.since > leakMillis){
+                    l.reported = true;
+                    leaks.increment();
+                    System.err.println("possible connection leak: held " + (now - l.since) + " ms by " + l.thread);
+                    l.site.printStackTrace();
+                }
+            }
+        }
+        List<Pooled> stale = new ArrayList<>();
+        lock.lock();
+        try {
+            // oldest-used at the tail
+            Iterator<Pooled> it = idle.descendingIterator();
+            while (it.hasNext()){
+                Pooled p = it.next();
+                boolean surplus = total - stale.size() > min && now - p.lastUsed > idleMillis;
+                if (surplus || now - p.born > lifetimeMillis){
+                    it.remove();
+                    stale.add(p);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Pooled p : stale) discard(p);
+        for (;;){
+            lock.lock();
+            try {
+                if (closed || total >= min) return;
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            Pooled p;
+            try {
+                p = open();
+            } catch (java.sql.SQLException | RuntimeException e) {
+                // database down: requests will report it, retried on the next round
+                return;
+            }
+            lock.lock();
+            try {
+                idle.addLast(p);
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void close(){
+        List<Pooled> all;
+        lock.lock();
+        try {
+            closed = true;
+            all = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (Pooled p : all) discard(p);
+    }
+
+    String statsJson(){
+        int idleCount, totalCount, waitingCount;
+        lock.lock();
+        try {
+            idleCount = idle.size();
+            totalCount = total;
+            waitingCount = waiting;
+        } finally {
+            lock.unlock();
+        }
+        long n = checkouts.sum();
+        String err = lastError;
+        return "{\"active\":" + leased.size() + ",\"idle\":" + idleCount + ",\"total\":" + totalCount + ",\"waiting\":" + waitingCount
+            + ",\"min\":" + min + ",\"max\":" + max + ",\"checkouts\":" + n
+            + ",\"avg_wait_ms\":" + (n == 0 ? 0 : waitNanos.sum() / n / 1_000_000.0) + ",\"max_wait_ms\":" + maxWaitNanos.get() / 1_000_000.0
+            + ",\"timeouts\":" + timeouts.sum() + ",\"created\":" + created.sum() + ",\"retired\":" + retired.sum()
+            + ",\"invalid\":" + invalid.sum() + ",\"broken\":" + broken.sum() + ",\"leaks\":" + leaks.sum()
+            + ",\"last_error\":" + (err == null ? "null" : "\"" + org.village.common.json.JsonWriter.escape(err) + "\"") + "}";
+    }
+
+    @Override
+    public java.sql.Connection getConnection(String username, String password) throws java.sql.SQLException {
+        throw new java.sql.SQLFeatureNotSupportedException("pooled connections use the configured account");
+    }
+
+    @Override public PrintWriter getLogWriter() throws java.sql.SQLException { return target.getLogWriter(); }
+    @Override public void setLogWriter(PrintWriter out) throws java.sql.SQLException { target.setLogWriter(out); }
+    @Override public void setLoginTimeout(int seconds) throws java.sql.SQLException { target.setLoginTimeout(seconds); }
+    @Override public int getLoginTimeout() throws java.sql.SQLException { return target.getLoginTimeout(); }
+    @Override public Logger getParentLogger() throws java.sql.SQLFeatureNotSupportedException { return target.getParentLogger(); }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws java.sql.SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws java.sql.SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,279 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.village.common.json.JsonWriter;
+
+// the home dashboard numbers, kept as ready-to-send JSON. each section belongs to one table; a TableVersions bump
+// marks only that section dirty and a background refresh re-runs its one GROUP BY shortly after (bursts of writes
+// coalesce into one query). requests never touch MySQL once the first snapshot exists.
+// a full refresh every max_stale_ms / 2 picks up writes made outside this process (db editor, another instance);
+// computed_at is the oldest section's time, and stale turns true when that is older than max_stale_ms.
+final class DashboardSummary {
+    private static final long MAX_STALE_MILLIS = Math.max(1000, WorkerPools.envInt("HTTP_DASHBOARD_MAX_STALE_MS", 60_000));
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private static final JsonWriter.Name COMPUTED_AT = JsonWriter.Name.of("computed_at");
+    private static final JsonWriter.Name MAX_STALE = JsonWriter.Name.of("max_stale_ms");
+    private static final JsonWriter.Name STALE = JsonWriter.Name.of("stale");
+    private static final JsonWriter.Name TOTAL = JsonWriter.Name.of("total");
+    private static final JsonWriter.Name PENDING = JsonWriter.Name.of("pending");
+    private static final JsonWriter.Name HANDLED = JsonWriter.Name.of("handled");
+    private static final JsonWriter.Name PROCESSING = JsonWriter.Name.of("processing");
+    private static final JsonWriter.Name DONE = JsonWriter.Name.of("done");
+    private static final JsonWriter.Name SEVERITY = JsonWriter.Name.of("severity");
+    private static final JsonWriter.Name HIGH = JsonWriter.Name.of("high");
+    private static final JsonWriter.Name MID = JsonWriter.Name.of("mid");
+    private static final JsonWriter.Name LOW = JsonWriter.Name.of("low");
+    private static final JsonWriter.Name TYPES = JsonWriter.Name.of("types");
+    private static final JsonWriter.Name FEEDBACK = JsonWriter.Name.of("feedback");
+    private static final JsonWriter.Name PUBLIC = JsonWriter.Name.of("public");
+    private static final JsonWriter.Name COUNT = JsonWriter.Name.of("count");
+    private static final JsonWriter.Name AMOUNT = JsonWriter.Name.of("amount");
+    private static final JsonWriter.Name BY_CATEGORY = JsonWriter.Name.of("by_category");
+    private static final JsonWriter.Name BY_STATUS = JsonWriter.Name.of("by_status");
+    private static final JsonWriter.Name LATEST = JsonWriter.Name.of("latest");
+    private static final JsonWriter.Name NAME = JsonWriter.Name.of("name");
+    private static final JsonWriter.Name VALUE = JsonWriter.Name.of("value");
+    private static final JsonWriter.Name UNIT = JsonWriter.Name.of("unit");
+    private static final JsonWriter.Name UPDATED_AT = JsonWriter.Name.of("updated_at");
+
+    private interface Query {
+        void write(java.sql.Connection c, JsonWriter w) throws Exception;
+    }
+
+    private static final class Section {
+        final JsonWriter.Name name;
+        final String table;
+        final Query query;
+        volatile boolean dirty = true;
+        byte[] json;
+        long computedAt;
+
+        Section(String name, String table, Query query){
+            this.name = JsonWriter.Name.of(name);
+            this.table = table;
+            this.query = query;
+        }
+    }
+
+    private static final class Snapshot {
+        final long computedAt;
+        final byte[] fresh;
+        final byte[] stale;
+
+        Snapshot(long computedAt, byte[] fresh, byte[] stale){
+            this.computedAt = computedAt;
+            this.fresh = fresh;
+            this.stale = stale;
+        }
+    }
+
+    private final Callable<java.sql.Connection> open;
+    private final Section[] sections = {
+        new Section("warnings", "warnings", DashboardSummary::warnings),
+        new Section("feedback", "feedback_items", DashboardSummary::feedback),
+        new Section("finance", "transactions", DashboardSummary::finance),
+        new Section("tasks", "gov_tasks", DashboardSummary::tasks),
+        new Section("industry", "industry_metrics", DashboardSummary::industry),
+    };
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "dashboard-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+    private boolean failing;
+
+    DashboardSummary(Callable<java.sql.Connection> open){
+        this.open = open;
+        TableVersions.listen(this::changed);
+        refresher.scheduleWithFixedDelay(this::refreshAll, 0, MAX_STALE_MILLIS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    // the summary document; only the very first call (before any refresh succeeded) waits on the database
+    byte[] json() throws Exception {
+        Snapshot s = snapshot;
+        if (s == null){
+            refresh(true, true);
+            s = snapshot;
+        }
+        if (System.currentTimeMillis() - s.computedAt <= MAX_STALE_MILLIS) return s.fresh;
+        for (Section sec : sections) sec.dirty = true;
+        schedule();
+        return s.stale;
+    }
+
+    private void changed(String table){
+        for (Section s : sections){
+            if (s.table.equals(table)){
+                s.dirty = true;
+                schedule();
+            }
+        }
+    }
+
+    private void schedule(){
+        if (scheduled.compareAndSet(false, true)){
+            refresher.schedule(() -> {
+                scheduled.set(false);
+                try { refresh(false, false); } catch (Exception ignored) { /* already logged, sections stay dirty */ }
+            }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshAll(){
+        try { refresh(true, false); } catch (Exception ignored) { /* already logged, retried on the next tick */ }
+    }
+
+    private synchronized void refresh(boolean all, boolean rethrow) throws Exception {
+        if (rethrow && snapshot != null) return;
+        try (java.sql.Connection c = open.call()){
+            for (Section s : sections){
+                if (!all && !s.dirty) continue;
+                // cleared before the query, so a write that lands meanwhile triggers another pass
+                s.dirty = false;
+                JsonWriter w = JsonWriter.buffered();
+                try {
+                    s.query.write(c, w);
+                } catch (Exception e) {
+                    s.dirty = true;
+                    w.toByteArray(); // hands the buffer back to the pool
+                    throw e;
+                }
+                s.json = w.toByteArray();
+                s.computedAt = System.currentTimeMillis();
+            }
+            if (failing) System.err.println("dashboard summary refreshed again");
+            failing = false;
+        } catch (Exception e) {
+            if (!failing) System.err.println("dashboard summary refresh failed: " + e.getMessage());
+            failing = true;
+            if (rethrow) throw e;
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (Section s : sections){
+            if (s.json == null) return;
+            oldest = Math.min(oldest, s.computedAt);
+        }
+        snapshot = new Snapshot(oldest, assemble(oldest, false), assemble(oldest, true));
+    }
+
+    private byte[] assemble(long computedAt, boolean stale) throws IOException {
+        JsonWriter w = JsonWriter.buffered();
+        w.beginObject()
+            .field(COMPUTED_AT, Instant.ofEpochMilli(computedAt).toString())
+            .field(MAX_STALE, MAX_STALE_MILLIS)
+            .name(STALE).value(stale);
+        for (Section s : sections) w.name(s.name).rawValue(s.json, 0, s.json.length);
+        return w.endObject().toByteArray();
+    }
+
+    // same numbers as /api/warnings/stats, from one grouped scan instead of six counts
+    private static void warnings(java.sql.Connection c, JsonWriter w) throws Exception {
+        long total = 0, pending = 0, handled = 0, high = 0, mid = 0, low = 0;
+        try (java.sql.Statement s = c.createStatement();
+             java.sql.ResultSet rs = s.executeQuery("SELECT status, severity, COUNT(*) FROM warnings GROUP BY status, severity")){
+            while (rs.next()){
+                String status = rs.getString(1), severity = rs.getString(2);
+                long n = rs.getLong(3);
+                total += n;
+                if ("未处理".equals(status)) pending += n;
+                else if ("已处理".equals(status)) handled += n;
+                if ("高".equals(severity)) high += n;
+                else if ("中".equals(severity)) mid += n;
+                else if ("低".equals(severity)) low += n;
+            }
+        }
+        w.beginObject().field(TOTAL, total).field(PENDING, pending).field(HANDLED, handled)
+            .name(SEVERITY).beginObject().field(HIGH, high).field(MID, mid).field(LOW, low).endObject()
+            .endObject();
+    }
+
+    // same numbers as /api/feedback/stats
+    private static void feedback(java.sql.Connection c, JsonWriter w) throws Exception {
+        long total = 0, pending = 0, processing = 0, done = 0, feedback = 0, publicInfo = 0;
+        try (java.sql.Statement s = c.createStatement();
+             java.sql.ResultSet rs = s.executeQuery("SELECT status, type, COUNT(*) FROM feedback_items GROUP BY status, type")){
+            while (rs.next()){
+                String status = rs.getString(1), type = rs.getString(2);
+                long n = rs.getLong(3);
+                total += n;
+                if ("待处理".equals(status)) pending += n;
+                else if ("处理中".equals(status)) processing += n;
+                else if ("已完成".equals(status)) done += n;
+                if ("民情反馈".equals(type)) feedback += n;
+                else if ("政务公开".equals(type)) publicInfo += n;
+            }
+        }
+        w.beginObject().field(TOTAL, total).field(PENDING, pending).field(PROCESSING, processing).field(DONE, done)
+            .name(TYPES).beginObject().field(FEEDBACK, feedback).field(PUBLIC, publicInfo).endObject()
+            .endObject();
+    }
+
+    private static void finance(java.sql.Connection c, JsonWriter w) throws Exception {
+        long count = 0, amount = 0;
+        Map<String, long[]> byCategory = new LinkedHashMap<>();
+        try (java.sql.Statement s = c.createStatement();
+             java.sql.ResultSet rs = s.executeQuery("SELECT category, COUNT(*), COALESCE(SUM(amount),0) FROM transactions GROUP BY category ORDER BY category")){
+            while (rs.next()){
+                String category = rs.getString(1);
+                long n = rs.getLong(2), sum = rs.getLong(3);
+                count += n;
+                amount += sum;
+                byCategory.put(category == null ? "未分类" : category, new long[] { n, sum });
+            }
+        }
+        w.beginObject().field(COUNT, count).field(AMOUNT, amount).name(BY_CATEGORY).beginObject();
+        for (Map.Entry<String, long[]> e : byCategory.entrySet()){
+            w.name(JsonWriter.Name.of(e.getKey())).beginObject().field(COUNT, e.getValue()[0]).field(AMOUNT, e.getValue()[1]).endObject();
+        }
+        w.endObject().endObject();
+    }
+
+    private static void tasks(java.sql.Connection c, JsonWriter w) throws Exception {
+        long total = 0;
+        Map<String, Long> byStatus = new LinkedHashMap<>();
+        try (java.sql.Statement s = c.createStatement();
+             java.sql.ResultSet rs = s.executeQuery("SELECT status, COUNT(*) FROM gov_tasks GROUP BY status ORDER BY status")){
+            while (rs.next()){
+                String status = rs.getString(1);
+                long n = rs.getLong(2);
+                total += n;
+                byStatus.merge(status == null ? "" : status, n, Long::sum);
+            }
+        }
+        w.beginObject().field(TOTAL, total).name(BY_STATUS).beginObject();
+        for (Map.Entry<String, Long> e : byStatus.entrySet()) w.field(JsonWriter.Name.of(e.getKey()), e.getValue().longValue());
+        w.endObject().endObject();
+    }
+
+    // industry_metrics is a short list of named indicators; the newest twenty are what the board shows
+    private static void industry(java.sql.Connection c, JsonWriter w) throws Exception {
+        w.beginObject();
+        try (java.sql.Statement s = c.createStatement()){
+            try (java.sql.ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM industry_metrics")){
+                rs.next();
+                w.field(COUNT, rs.getLong(1));
+            }
+            w.name(LATEST).beginArray();
+            try (java.sql.ResultSet rs = s.executeQuery("SELECT name, value_num, unit, updated_at FROM industry_metrics ORDER BY id DESC LIMIT 20")){
+                while (rs.next()){
+                    w.beginObject().field(NAME, rs.getString(1)).field(VALUE, rs.getInt(2))
+                        .field(UNIT, rs.getString(3)).field(UPDATED_AT, rs.getString(4)).endObject();
+                }
+            }
+            w.endArray();
+        }
+        w.endObject();
+    }
+}
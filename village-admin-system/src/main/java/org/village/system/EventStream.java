@@ -0,0 +1,211 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+// server-sent events for GET /api/stream?topics=warnings,tasks: write handlers publish a change once, every
+// subscriber of that topic gets it pushed instead of re-fetching whole lists. each event is encoded to its wire
+// frame once and shared. a subscriber owns a STREAM worker and a bounded queue; one that falls HTTP_STREAM_BUFFER
+// events behind is disconnected, and its EventSource reconnects with Last-Event-ID and replays from the last
+// HTTP_STREAM_HISTORY events. when those no longer reach back far enough (or the id is from an earlier process)
+// the client gets a "reset" event and reloads. a comment line every HTTP_STREAM_HEARTBEAT_S keeps proxies from
+// timing the connection out and finds clients that went away.
+final class EventStream implements Handler {
+    private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+    private static final byte[] PING = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESET = "event: reset\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RETRY = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Set<String> topics;
+    private final int historySize;
+    private final int bufferSize;
+    private final long heartbeatMillis;
+    // guarded by this: publishing, history and subscriber registration share one order
+    private final ArrayDeque<Event> history = new ArrayDeque<>();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private long seq;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder lagging = new LongAdder();
+
+    EventStream(int historySize, int bufferSize, long heartbeatMillis, String... topics){
+        this.topics = new LinkedHashSet<>(Arrays.asList(topics));
+        this.historySize = historySize;
+        this.bufferSize = bufferSize;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    static EventStream fromEnv(String... topics){
+        return new EventStream(Math.max(16, WorkerPools.envInt("HTTP_STREAM_HISTORY", 1024)),
+            Math.max(8, WorkerPools.envInt("HTTP_STREAM_BUFFER", 256)),
+            Math.max(1, WorkerPools.envInt("HTTP_STREAM_HEARTBEAT_S", 15)) * 1000L, topics);
+    }
+
+    private static final class Event {
+        final long id;
+        final String topic;
+        final byte[] frame;
+
+        Event(long id, String topic, String data){
+            this.id = id;
+            this.topic = topic;
+            this.frame = ("id: " + BOOT + "-" + id + "\nevent: " + topic + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class Subscriber {
+        final Set<String> topics;
+        final int capacity;
+        final ArrayDeque<Event> queue = new ArrayDeque<>();
+        boolean lagging;
+
+        Subscriber(Set<String> topics, int capacity){
+            this.topics = topics;
+            this.capacity = capacity;
+        }
+
+        synchronized boolean offer(Event e){
+            if (lagging) return true;
+            if (queue.size() >= capacity){
+                lagging = true;
+                queue.clear();
+                notifyAll();
+                return false;
+            }
+            queue.add(e);
+            notifyAll();
+            return true;
+        }
+
+        // whatever is queued, waiting up to millis for something; empty means time for a heartbeat
+        synchronized List<Event> take(long millis) throws IOException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (queue.isEmpty() && !lagging){
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) break;
+                try { wait(wait); } catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new IOException("interrupted"); }
+            }
+            List<Event> out = new ArrayList<>(queue);
+            queue.clear();
+            return out;
+        }
+    }
+
+    // data must be a single line (JSON from JsonWriter.escape is)
+    void publish(String topic, String data){
+        if (!topics.contains(topic)) throw new IllegalArgumentException("unknown topic: " + topic);
+        synchronized (this){
+            Event e = new Event(++seq, topic, data);
+            history.add(e);
+            if (history.size() > historySize) history.poll();
+            for (Subscriber s : subscribers){
+                if (s.topics.contains(topic) && !s.offer(e)) lagging.increment();
+            }
+        }
+        published.increment();
+    }
+
+    @Override
+    public void handle(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())){ text(ex, 405, "Method Not Allowed"); return; }
+        if (ex.getAttribute(Batch.ATTR) != null){ text(ex, 400, "streams can't be batched"); return; }
+        Set<String> wanted = new LinkedHashSet<>();
+        String param = param(ex, "topics");
+        if (param == null || param.trim().isEmpty()) wanted.addAll(topics);
+        else {
+            for (String t : param.split(",")){
+                t = t.trim();
+                if (t.isEmpty()) continue;
+                if (!topics.contains(t)){ text(ex, 400, "unknown topic: " + t + " (known: " + String.join(",", topics) + ")"); return; }
+                wanted.add(t);
+            }
+        }
+        // EventSource sends the header on reconnects; the parameter covers the first connect of a reloaded page
+        String last = ex.getRequestHeaders().getFirst("Last-Event-ID");
+        if (last == null) last = param(ex, "lastEventId");
+
+        Subscriber s = new Subscriber(wanted, bufferSize);
+        List<Event> replay = new ArrayList<>();
+        boolean reset = false;
+        synchronized (this){
+            if (last != null && !last.isEmpty()){
+                long from = parseId(last);
+                long oldest = history.isEmpty() ? seq + 1 : history.peek().id;
+                if (from < 0 || from > seq || from < oldest - 1) reset = true;
+                else for (Event e : history) if (e.id > from && wanted.contains(e.topic)) replay.add(e);
+            }
+            subscribers.add(s);
+        }
+        try {
+            HttpHeaders h = ex.getResponseHeaders();
+            h.set("Content-Type", "text/event-stream; charset=utf-8");
+            h.set("Cache-Control", "no-cache");
+            // nginx would otherwise hold events back in its proxy buffer
+            h.set("X-Accel-Buffering", "no");
+            ex.sendResponseHeaders(200, 0);
+            OutputStream os = ex.getResponseBody();
+            os.write(RETRY);
+            if (reset){
+                resets.increment();
+                os.write(RESET);
+            }
+            for (Event e : replay) os.write(e.frame);
+            replayed.add(replay.size());
+            os.flush();
+            for (;;){
+                List<Event> batch = s.take(heartbeatMillis);
+                // dropped for falling behind: ending the response makes the client reconnect and replay
+                if (s.lagging) break;
+                if (batch.isEmpty()) os.write(PING);
+                else for (Event e : batch) os.write(e.frame);
+                os.flush();
+            }
+            os.close();
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            synchronized (this){ subscribers.remove(s); }
+        }
+    }
+
+    // "<boot>-<seq>" from this process, else -1
+    private static long parseId(String id){
+        int dash = id.lastIndexOf('-');
+        if (dash < 0 || !id.substring(0, dash).equals(BOOT)) return -1;
+        try { return Long.parseLong(id.substring(dash + 1)); } catch (NumberFormatException e) { return -1; }
+    }
+
+    private static String param(Exchange ex, String name){
+        String q = ex.getRequestURI().getQuery();
+        if (q == null) return null;
+        for (String p : q.split("&")){
+            int eq = p.indexOf('=');
+            if (eq > 0 && p.substring(0, eq).equals(name)) return p.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void text(Exchange ex, int status, String msg) throws IOException {
+        byte[] b = msg.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    String statsJson(){
+        synchronized (this){
+            return "{\"subscribers\":" + subscribers.size() + ",\"last_id\":\"" + BOOT + "-" + seq + "\",\"history\":" + history.size()
+                + ",\"published\":" + published.sum() + ",\"replayed\":" + replayed.sum() + ",\"resets\":" + resets.sum()
+                + ",\"lagging\":" + lagging.sum() + "}";
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+// one request/response, independent of the server engine underneath. the method set deliberately
+// mirrors com.sun.net.httpserver.HttpExchange so handlers read the same on either engine:
+// sendResponseHeaders(status, 0) streams chunked, -1 means no body, anything else is the exact Content-Length.
+interface Exchange {
+    String getRequestMethod();
+
+    URI getRequestURI();
+
+    HttpHeaders getRequestHeaders();
+
+    InputStream getRequestBody();
+
+    InetSocketAddress getRemoteAddress();
+
+    HttpHeaders getResponseHeaders();
+
+    void sendResponseHeaders(int status, long length) throws IOException;
+
+    OutputStream getResponseBody();
+
+    // a complete, already encoded body after sendResponseHeaders(status, body.remaining()); closes the body stream.
+    // engines that can hand the buffer to the socket as it is override this
+    default void sendBody(ByteBuffer body) throws IOException {
+        try (OutputStream os = getResponseBody()) { ResponseCache.copy(body, os); }
+    }
+
+    // count bytes of the file from position after sendResponseHeaders(status, count); closes the body stream and the
+    // file. engines that own the socket override this to let the kernel move the bytes
+    default void sendFile(FileChannel file, long position, long count) throws IOException {
+        try (FileChannel f = file; OutputStream os = getResponseBody()) { copy(f, position, count, os); }
+    }
+
+    static void copy(FileChannel file, long position, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long end = position + count;
+        while (position < end){
+            long n = file.transferTo(position, end - position, target);
+            if (n <= 0) throw new IOException("file shorter than expected");
+            position += n;
+        }
+    }
+
+    // -1 until the headers are sent
+    int getResponseCode();
+
+    Object getAttribute(String name);
+
+    void setAttribute(String name, Object value);
+
+    // ends the exchange; on a keep-alive engine the connection moves on to the next request
+    void close();
+}
@@ -0,0 +1,9 @@
+package org.village.system;
+
+import java.io.IOException;
+
+// what a route, a middleware chain or the router itself looks like to a server engine
+@FunctionalInterface
+interface Handler {
+    void handle(Exchange ex) throws IOException;
+}
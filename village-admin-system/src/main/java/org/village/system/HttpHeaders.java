@@ -0,0 +1,82 @@
+package org.village.system;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// case-insensitive header map. names are normalized the way com.sun.net.httpserver.Headers does it
+// (first letter upper, rest lower), so it can sit directly on top of a JDK Headers instance.
+final class HttpHeaders {
+    private final Map<String, List<String>> map;
+
+    HttpHeaders(){
+        this(new LinkedHashMap<>());
+    }
+
+    HttpHeaders(Map<String, List<String>> backing){
+        this.map = backing;
+    }
+
+    String getFirst(String name){
+        List<String> v = map.get(normalize(name));
+        return v == null || v.isEmpty() ? null : v.get(0);
+    }
+
+    List<String> get(String name){
+        return map.get(normalize(name));
+    }
+
+    boolean containsKey(String name){
+        return map.containsKey(normalize(name));
+    }
+
+    void set(String name, String value){
+        List<String> v = new ArrayList<>(1);
+        v.add(value);
+        map.put(normalize(name), v);
+    }
+
+    void add(String name, String value){
+        String key = normalize(name);
+        List<String> v = map.get(key);
+        if (v == null){
+            v = new ArrayList<>(1);
+            map.put(key, v);
+        } else if (!(v instanceof ArrayList)){
+            v = new ArrayList<>(v);
+            map.put(key, v);
+        }
+        v.add(value);
+    }
+
+    // shares the list; callers pass immutable singletons that are reused across responses
+    void put(String name, List<String> values){
+        map.put(normalize(name), values);
+    }
+
+    void remove(String name){
+        map.remove(normalize(name));
+    }
+
+    Map<String, List<String>> asMap(){
+        return Collections.unmodifiableMap(map);
+    }
+
+    static String normalize(String name){
+        int len = name.length();
+        if (len == 0) return name;
+        char first = name.charAt(0);
+        boolean ok = first < 'a' || first > 'z';
+        for (int i = 1; ok && i < len; i++){
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') ok = false;
+        }
+        if (ok) return name;
+        char[] b = name.toCharArray();
+        if (b[0] >= 'a' && b[0] <= 'z') b[0] = (char) (b[0] - 32);
+        for (int i = 1; i < len; i++) if (b[i] >= 'A' && b[i] <= 'Z') b[i] = (char) (b[i] + 32);
+        return new String(b);
+    }
+}
@@ -0,0 +1,292 @@
+package org.village.system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.village.system.WorkerPools.RouteClass;
+
+// Idempotency-Key on CRUD POSTs: the first request with a key runs as usual and its answer is kept; a retry with the
+// same key gets that answer back (Idempotent-Replayed: true) without the handler running again, so a flaky
+// connection can't insert the same row twice. keys are scoped to the Authorization value, and the request they were
+// first used with is remembered as a hash of method, target and body: reusing a key for a different request is 422,
+// retrying while the first attempt still runs is 409. 5xx answers and crashes are forgotten so the retry runs for real.
+// held in a creation-ordered map bounded by HTTP_IDEMPOTENCY_MAX and HTTP_IDEMPOTENCY_TTL_S; with
+// HTTP_IDEMPOTENCY_DB=1 answers are also written to idempotency_keys so they survive a restart.
+final class Idempotency {
+    private static final int MAX_KEY_LENGTH = 200;
+    private static final int MAX_BODY = WorkerPools.envInt("HTTP_MAX_BODY_KB", 8 * 1024) * 1024;
+    // answers bigger than this are not kept (a POST reply is an id and a flag)
+    private static final int MAX_ANSWER = 64 * 1024;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    // null: memory only
+    private final Callable<java.sql.Connection> db;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256);
+    private final AtomicInteger stores = new AtomicInteger();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder inProgress = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+
+    Idempotency(int maxEntries, long ttlMillis, Callable<java.sql.Connection> db){
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.db = db;
+    }
+
+    static Idempotency fromEnv(Callable<java.sql.Connection> db){
+        return new Idempotency(Math.max(16, WorkerPools.envInt("HTTP_IDEMPOTENCY_MAX", 10_000)),
+            WorkerPools.envInt("HTTP_IDEMPOTENCY_TTL_S", 86_400) * 1000L,
+            WorkerPools.envInt("HTTP_IDEMPOTENCY_DB", 0) == 1 ? db : null);
+    }
+
+    private static final class Entry {
+        final String fingerprint;
+        final long created;
+        // set once, before the entry is published as done
+        volatile boolean done;
+        int status;
+        Map<String, List<String>> headers;
+        byte[] body;
+
+        Entry(String fingerprint, long created){
+            this.fingerprint = fingerprint;
+            this.created = created;
+        }
+    }
+
+    Router.Middleware middleware(){
+        return (route, next) -> {
+            if (route.routeClass != RouteClass.CRUD) return next;
+            return ex -> {
+                String key = ex.getRequestHeaders().getFirst("Idempotency-Key");
+                if (key == null || !"POST".equals(ex.getRequestMethod())){ next.handle(ex); return; }
+                key = key.trim();
+                if (key.isEmpty() || key.length() > MAX_KEY_LENGTH){ reply(ex, 400, "invalid Idempotency-Key"); return; }
+                byte[] body = readBody(ex);
+                if (body == null){ reply(ex, 413, "request body too large"); return; }
+
+                String auth = ex.getRequestHeaders().getFirst("Authorization");
+                String scope = sha256((auth == null ? "" : auth) + "\n" + key);
+                String fingerprint = fingerprint(ex, body);
+                Entry mine = new Entry(fingerprint, System.currentTimeMillis());
+                Entry seen = claim(scope, mine);
+                if (seen != null){
+                    if (!seen.fingerprint.equals(fingerprint)){
+                        mismatched.increment();
+                        reply(ex, 422, "Idempotency-Key was used for a different request");
+                    } else if (!seen.done){
+                        inProgress.increment();
+                        ex.getResponseHeaders().set("Retry-After", "1");
+                        reply(ex, 409, "a request with this Idempotency-Key is still in progress");
+                    } else {
+                        replayed.increment();
+                        replay(ex, seen);
+                    }
+                    return;
+                }
+
+                executed.increment();
+                TeeExchange tee = new TeeExchange(ex, MAX_ANSWER, null).withRequestBody(body);
+                boolean kept = false;
+                try {
+                    next.handle(tee);
+                    if (tee.captured() && tee.status() < 500){
+                        mine.status = tee.status();
+                        mine.headers = tee.headers();
+                        mine.body = tee.body();
+                        mine.done = true;
+                        kept = true;
+                        persist(scope, mine);
+                    }
+                } finally {
+                    if (!kept) forget(scope, mine);
+                }
+            };
+        };
+    }
+
+    // null when the key is ours now, else the entry that already holds it
+    private Entry claim(String scope, Entry mine){
+        long now = mine.created;
+        synchronized (this){
+            expire(now);
+            Entry e = entries.get(scope);
+            if (e != null) return e;
+        }
+        // not known in memory: a previous run may have answered it (outside the lock, this is a query)
+        Entry stored = load(scope, now);
+        synchronized (this){
+            Entry e = entries.get(scope);
+            if (e != null) return e;
+            if (stored != null){
+                entries.put(scope, stored);
+                return stored;
+            }
+            entries.put(scope, mine);
+            while (entries.size() > maxEntries){
+                Iterator<Entry> it = entries.values().iterator();
+                it.next();
+                it.remove();
+            }
+            return null;
+        }
+    }
+
+    private synchronized void forget(String scope, Entry mine){
+        entries.remove(scope, mine);
+    }
+
+    // creation order is expiry order, so expired entries are always at the head
+    private void expire(long now){
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext() && now - it.next().created > ttlMillis) it.remove();
+    }
+
+    private void replay(Exchange ex, Entry e) throws IOException {
+        HttpHeaders h = ex.getResponseHeaders();
+        for (Map.Entry<String, List<String>> hv : e.headers.entrySet()) h.put(hv.getKey(), new ArrayList<>(hv.getValue()));
+        h.set("Idempotent-Replayed", "true");
+        if (e.body.length == 0){
+            ex.sendResponseHeaders(e.status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(e.status, e.body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(e.body); }
+    }
+
+    private Entry load(String scope, long now){
+        if (db == null) return null;
+        try (java.sql.Connection c = db.call();
+             java.sql.PreparedStatement ps = c.prepareStatement("SELECT fingerprint,status,headers,body,created_at FROM idempotency_keys WHERE scope_hash=? AND created_at>?")){
+            ps.setString(1, scope);
+            ps.setLong(2, now - ttlMillis);
+            java.sql.ResultSet rs = ps.executeQuery();
+            if (!rs.next()) return null;
+            Entry e = new Entry(rs.getString("fingerprint"), rs.getLong("created_at"));
+            e.status = rs.getInt("status");
+            e.headers = parseHeaders(rs.getString("headers"));
+            e.body = rs.getBytes("body");
+            if (e.body == null) e.body = new byte[0];
+            e.done = true;
+            return e;
+        } catch (Exception ex) {
+            System.err.println("idempotency lookup failed: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void persist(String scope, Entry e){
+        if (db == null) return;
+        try (java.sql.Connection c = db.call()){
+            try (java.sql.PreparedStatement ps = c.prepareStatement("INSERT IGNORE INTO idempotency_keys (scope_hash,fingerprint,status,headers,body,created_at) VALUES (?,?,?,?,?,?)")){
+                ps.setString(1, scope);
+                ps.setString(2, e.fingerprint);
+                ps.setInt(3, e.status);
+                ps.setString(4, formatHeaders(e.headers));
+                ps.setBytes(5, e.body);
+                ps.setLong(6, e.created);
+                ps.executeUpdate();
+            }
+            // expired rows go in batches now and then rather than on every write
+            if (stores.incrementAndGet() % 256 == 0){
+                try (java.sql.PreparedStatement ps = c.prepareStatement("DELETE FROM idempotency_keys WHERE created_at<?")){
+                    ps.setLong(1, System.currentTimeMillis() - ttlMillis);
+                    ps.executeUpdate();
+                }
+            }
+        } catch (Exception ex) {
+            System.err.println("idempotency store failed: " + ex.getMessage());
+        }
+    }
+
+    private static String formatHeaders(Map<String, List<String>> headers){
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<String>> e : headers.entrySet()){
+            for (String v : e.getValue()) sb.append(e.getKey()).append(": ").append(v).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, List<String>> parseHeaders(String s){
+        Map<String, List<String>> h = new LinkedHashMap<>();
+        if (s == null) return h;
+        for (String line : s.split("\n")){
+            int colon = line.indexOf(": ");
+            if (colon <= 0) continue;
+            List<String> values = h.get(line.substring(0, colon));
+            if (values == null){
+                values = new ArrayList<>(1);
+                h.put(line.substring(0, colon), values);
+            }
+            values.add(line.substring(colon + 2));
+        }
+        return h;
+    }
+
+    // null when over the body limit
+    private static byte[] readBody(Exchange ex) throws IOException {
+        InputStream in = ex.getRequestBody();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
+        if (in == null) return bout.toByteArray();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) != -1; ){
+            if (bout.size() + n > MAX_BODY) return null;
+            bout.write(buf, 0, n);
+        }
+        return bout.toByteArray();
+    }
+
+    private static String fingerprint(Exchange ex, byte[] body){
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((ex.getRequestMethod() + " " + ex.getRequestURI().toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            md.update(body);
+            return hex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(String s){
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] d){
+        StringBuilder sb = new StringBuilder(d.length * 2);
+        for (byte b : d) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static void reply(Exchange ex, int status, String error) throws IOException {
+        byte[] b = ("{\"error\":\"" + error + "\"}").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    String statsJson(){
+        int size;
+        synchronized (this){ size = entries.size(); }
+        return "{\"entries\":" + size + ",\"max_entries\":" + maxEntries + ",\"ttl_s\":" + ttlMillis / 1000 + ",\"persistent\":" + (db != null)
+            + ",\"executed\":" + executed.sum() + ",\"replayed\":" + replayed.sum() + ",\"in_progress\":" + inProgress.sum()
+            + ",\"mismatched\":" + mismatched.sum() + "}";
+    }
+}
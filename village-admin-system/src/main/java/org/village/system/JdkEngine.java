@@ -0,0 +1,68 @@
+package org.village.system;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+// com.sun.net.httpserver behind the Exchange interface
+final class JdkEngine implements ServerEngine {
+    private final int requestedPort;
+    private HttpServer server;
+
+    JdkEngine(int port){
+        this.requestedPort = port;
+    }
+
+    @Override
+    public void start(Handler root) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(requestedPort), 0);
+        server.createContext("/", ex -> root.handle(new JdkExchange(ex)));
+        // the dispatcher thread only matches the route and hands off; all handler work runs on the route-class bulkheads
+        server.setExecutor(null);
+        server.start();
+    }
+
+    @Override
+    public int port(){
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void stop(){
+        if (server != null) server.stop(0);
+    }
+
+    @Override
+    public String name(){
+        return "jdk";
+    }
+
+    private static final class JdkExchange implements Exchange {
+        private final HttpExchange ex;
+        private final HttpHeaders requestHeaders;
+        private final HttpHeaders responseHeaders;
+
+        JdkExchange(HttpExchange ex){
+            this.ex = ex;
+            this.requestHeaders = new HttpHeaders(ex.getRequestHeaders());
+            this.responseHeaders = new HttpHeaders(ex.getResponseHeaders());
+        }
+
+        @Override public String getRequestMethod(){ return ex.getRequestMethod(); }
+        @Override public URI getRequestURI(){ return ex.getRequestURI(); }
+        @Override public HttpHeaders getRequestHeaders(){ return requestHeaders; }
+        @Override public InputStream getRequestBody(){ return ex.getRequestBody(); }
+        @Override public InetSocketAddress getRemoteAddress(){ return ex.getRemoteAddress(); }
+        @Override public HttpHeaders getResponseHeaders(){ return responseHeaders; }
+        @Override public void sendResponseHeaders(int status, long length) throws IOException { ex.sendResponseHeaders(status, length); }
+        @Override public OutputStream getResponseBody(){ return ex.getResponseBody(); }
+        @Override public int getResponseCode(){ return ex.getResponseCode(); }
+        @Override public Object getAttribute(String name){ return ex.getAttribute(name); }
+        @Override public void setAttribute(String name, Object value){ ex.setAttribute(name, value); }
+        @Override public void close(){ ex.close(); }
+    }
+}
@@ -0,0 +1,27 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.village.common.json.JsonWriter;
+
+// chunked response body that rows are written to as they come off the result set,
+// so memory stays at one buffer no matter how large the table is
+final class JsonStream {
+    private JsonStream() {}
+
+    private static final int BUFFER = 8192;
+
+    // sends the headers with chunked transfer; call only once the query has succeeded
+    static JsonWriter open(Exchange ex, int status) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.getResponseHeaders().add("Vary", "Accept-Encoding");
+        boolean gzip = ResponseCompression.acceptsGzip(ex);
+        if (gzip) ex.getResponseHeaders().set("Content-Encoding", "gzip");
+        ex.sendResponseHeaders(status, 0);
+        OutputStream body = ex.getResponseBody();
+        if (gzip) body = new GZIPOutputStream(body, BUFFER) { { def.setLevel(Deflater.BEST_SPEED); } };
+        return JsonWriter.to(body);
+    }
+}
@@ -0,0 +1,369 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.village.common.json.JsonWriter;
+import org.village.system.TableSchema.Column;
+
+// query-string grammar for list endpoints, checked against a TableSchema and compiled to parameterized SQL:
+//   field=v  field!=v  field>=v  field<=v  field>v  field<v   (ANDed)
+//   sort=field | sort=-field   (default -id; ties broken by id in the same direction)
+//   limit=N  cursor=...        (keyset pagination, see next())
+//   from=t  to=t               (event-time range on timed schemas, see TimeRange)
+//   fields=a,b,c               (projection: only these go into the SELECT and the response)
+//   format=columns             (or Accept: application/x-village-columnar) {"columns":[...],"rows":[[...],...]}
+// as the handlers always did, empty values and parameters that name no field (e.g. a "_=" cache-buster) are ignored.
+// the SQL text only depends on the query's shape, so it is compiled once per shape and kept in PLANS.
+final class ListQuery {
+    static final int MAX_LIMIT = WorkerPools.envInt("HTTP_PAGE_MAX_LIMIT", 500);
+    static final int MAX_PLANS = 1024;
+    private static final ConcurrentHashMap<String, String> PLANS = new ConcurrentHashMap<>();
+    private static final JsonWriter.Name ITEMS = JsonWriter.Name.of("items");
+    private static final JsonWriter.Name NEXT_CURSOR = JsonWriter.Name.of("next_cursor");
+    private static final JsonWriter.Name COLUMNS = JsonWriter.Name.of("columns");
+    private static final JsonWriter.Name ROWS = JsonWriter.Name.of("rows");
+    static final String COLUMNAR_TYPE = "application/x-village-columnar";
+
+    private enum Op {
+        NE("!=", "<>"), GE(">=", ">="), LE("<=", "<="), EQ("=", "="), GT(">", ">"), LT("<", "<");
+
+        final String token;
+        final String sql;
+
+        Op(String token, String sql){
+            this.token = token;
+            this.sql = sql;
+        }
+    }
+
+    private static final class Filter {
+        final Column column;
+        final Op op;
+        final Object value;
+
+        Filter(Column column, Op op, Object value){
+            this.column = column;
+            this.op = op;
+            this.value = value;
+        }
+    }
+
+    private final TableSchema schema;
+    // the response columns; selected holds them plus whatever paging needs to read (id, sort column)
+    private final List<Column> fields;
+    private final List<Column> selected;
+    private final boolean projected;
+    private final boolean columnar;
+    private final List<Filter> filters;
+    private final TimeRange range;
+    private final Column sort;
+    private final boolean desc;
+    private final int limit;
+    private final boolean hasCursor;
+    private final int cursorId;
+    private final Object cursorValue;
+
+    private int emitted;
+    private int lastId;
+    private Object lastValue;
+    private boolean more;
+
+    private ListQuery(TableSchema schema, List<Column> fields, boolean columnar, List<Filter> filters, TimeRange range, Column sort, boolean desc, int limit, boolean hasCursor, int cursorId, Object cursorValue){
+        this.schema = schema;
+        this.projected = fields != null;
+        this.fields = fields != null ? fields : schema.columns;
+        this.columnar = columnar;
+        List<Column> sel = this.fields;
+        Column id = schema.field("id");
+        if (!sel.contains(id) || !sel.contains(sort)){
+            sel = new ArrayList<>(sel);
+            if (!sel.contains(id)) sel.add(id);
+            if (!sel.contains(sort)) sel.add(sort);
+        }
+        this.selected = sel;
+        this.filters = filters;
+        this.range = range;
+        this.sort = sort;
+        this.desc = desc;
+        this.limit = limit;
+        this.hasCursor = hasCursor;
+        this.cursorId = cursorId;
+        this.cursorValue = cursorValue;
+    }
+
+    // invalid input throws IllegalArgumentException, which the error middleware turns into a 400
+    static ListQuery parse(Exchange ex, TableSchema schema){
+        // the representation depends on Accept from here on
+        ex.getResponseHeaders().add("Vary", "Accept");
+        return parse(ex.getRequestURI().getRawQuery(), schema, acceptsColumnar(ex));
+    }
+
+    static ListQuery parse(String raw, TableSchema schema){
+        return parse(raw, schema, false);
+    }
+
+    static boolean acceptsColumnar(Exchange ex){
+        List<String> accept = ex.getRequestHeaders().get("Accept");
+        if (accept == null) return false;
+        for (String a : accept) if (a.contains(COLUMNAR_TYPE)) return true;
+        return false;
+    }
+
+    private static ListQuery parse(String raw, TableSchema schema, boolean columnar){
+        List<Filter> filters = new ArrayList<>();
+        String limitParam = null, cursorParam = null, sortParam = null, fieldsParam = null, formatParam = null, fromParam = null, toParam = null;
+        if (raw != null && !raw.isEmpty()){
+            for (String part : raw.split("&")){
+                if (part.isEmpty()) continue;
+                String p = decode(part);
+                int i = 0;
+                while (i < p.length() && isNameChar(p.charAt(i))) i++;
+                String name = p.substring(0, i);
+                Op op = null;
+                for (Op o : Op.values()) if (p.startsWith(o.token, i)){ op = o; break; }
+                if (name.isEmpty() || op == null) continue;
+                String value = p.substring(i + op.token.length());
+                if ("limit".equals(name) || "cursor".equals(name) || "sort".equals(name) || "fields".equals(name) || "format".equals(name)
+                        || "from".equals(name) || "to".equals(name)){
+                    if (op != Op.EQ) throw new IllegalArgumentException("invalid query parameter: " + p);
+                    if ("limit".equals(name)) limitParam = value;
+                    else if ("cursor".equals(name)) cursorParam = value;
+                    else if ("sort".equals(name)) sortParam = value;
+                    else if ("fields".equals(name)) fieldsParam = value;
+                    else if ("from".equals(name)) fromParam = value;
+                    else if ("to".equals(name)) toParam = value;
+                    else formatParam = value;
+                    continue;
+                }
+                Column col = schema.field(name);
+                if (col == null || value.isEmpty()) continue;
+                filters.add(new Filter(col, op, typed(col, value)));
+            }
+        }
+        // canonical order so a=1&b=2 and b=2&a=1 share one plan
+        filters.sort((a, b) -> {
+            int c = a.column.field.compareTo(b.column.field);
+            return c != 0 ? c : a.op.compareTo(b.op);
+        });
+
+        TimeRange range = TimeRange.of(schema, fromParam, toParam);
+
+        Column sort = schema.field("id");
+        boolean desc = true;
+        if (sortParam != null && !sortParam.isEmpty()){
+            desc = sortParam.charAt(0) == '-';
+            String f = desc ? sortParam.substring(1) : sortParam;
+            sort = schema.field(f);
+            if (sort == null) throw new IllegalArgumentException("unknown sort field: " + f);
+        }
+
+        boolean hasLimit = limitParam != null && !limitParam.isEmpty();
+        boolean hasCursor = cursorParam != null && !cursorParam.isEmpty();
+        int limit = 0;
+        if (hasLimit || hasCursor){
+            limit = MAX_LIMIT;
+            if (hasLimit){
+                try { limit = Integer.parseInt(limitParam); } catch (NumberFormatException e) { throw new IllegalArgumentException("invalid limit"); }
+                if (limit <= 0) throw new IllegalArgumentException("invalid limit");
+                limit = Math.min(limit, MAX_LIMIT);
+            }
+        }
+        int cursorId = 0;
+        Object cursorValue = null;
+        if (hasCursor){
+            // cursor = base64url("field:id[:value]"); no value part means the row's sort value was NULL
+            String c;
+            try { c = new String(Base64.getUrlDecoder().decode(cursorParam), StandardCharsets.UTF_8); } catch (IllegalArgumentException e) { throw new IllegalArgumentException("invalid cursor"); }
+            int a = c.indexOf(':');
+            int b = a < 0 ? -1 : c.indexOf(':', a + 1);
+            if (a < 0 || !c.substring(0, a).equals(sort.field)) throw new IllegalArgumentException("invalid cursor");
+            try { cursorId = Integer.parseInt(b < 0 ? c.substring(a + 1) : c.substring(a + 1, b)); } catch (NumberFormatException e) { throw new IllegalArgumentException("invalid cursor"); }
+            if (cursorId <= 0) throw new IllegalArgumentException("invalid cursor");
+            if (b >= 0) cursorValue = typed(sort, c.substring(b + 1));
+        }
+        if (formatParam != null && !formatParam.isEmpty()){
+            if ("columns".equals(formatParam)) columnar = true;
+            else if ("rows".equals(formatParam)) columnar = false;
+            else throw new IllegalArgumentException("unknown format: " + formatParam);
+        }
+        List<Column> fields = null;
+        if (fieldsParam != null && !fieldsParam.isEmpty()){
+            fields = new ArrayList<>();
+            for (String f : fieldsParam.split(",")){
+                String name = f.trim();
+                if (name.isEmpty()) continue;
+                Column col = schema.field(name);
+                if (col == null) throw new IllegalArgumentException("unknown field: " + name);
+                if (!fields.contains(col)) fields.add(col);
+            }
+            if (fields.isEmpty()) throw new IllegalArgumentException("fields: no field named");
+            fields = Collections.unmodifiableList(fields);
+        }
+        return new ListQuery(schema, fields, columnar, filters, range, sort, desc, limit, hasCursor, cursorId, cursorValue);
+    }
+
+    boolean paged(){
+        return limit > 0;
+    }
+
+    String sql(){
+        String key = shape();
+        String sql = PLANS.get(key);
+        if (sql == null){
+            sql = compile();
+            if (PLANS.size() < MAX_PLANS) PLANS.putIfAbsent(key, sql);
+        }
+        return sql;
+    }
+
+    private String shape(){
+        StringBuilder sb = new StringBuilder(64).append(schema.table).append('|');
+        if (projected) for (Column c : selected) sb.append(c.field).append(',');
+        sb.append('|');
+        for (Filter f : filters) sb.append(f.column.field).append(f.op.token).append(',');
+        sb.append('|').append(range.shape()).append('|').append(desc ? '-' : '+').append(sort.field).append('|').append(limit > 0 ? 'p' : 'a');
+        if (hasCursor) sb.append(isIdSort() ? 'i' : cursorValue == null ? 'n' : 'v');
+        return sb.toString();
+    }
+
+    private String compile(){
+        String select = projected ? schema.select(selected) : schema.select;
+        StringBuilder sb = new StringBuilder(select.length() + 96).append(select);
+        boolean where = false;
+        for (Filter f : filters){
+            sb.append(where ? " AND " : " WHERE ").append(f.column.column).append(' ').append(f.op.sql).append(" ?");
+            where = true;
+        }
+        if (!range.isEmpty()){
+            sb.append(where ? " AND " : " WHERE ").append(range.predicate());
+            where = true;
+        }
+        String dir = desc ? " DESC" : " ASC";
+        String past = desc ? "<" : ">";
+        if (hasCursor){
+            sb.append(where ? " AND " : " WHERE ");
+            String c = sort.column;
+            if (isIdSort()) sb.append("id ").append(past).append(" ?");
+            // MySQL puts NULLs first ascending and last descending; the predicates below keep them reachable
+            else if (cursorValue == null && desc) sb.append('(').append(c).append(" IS NULL AND id < ?)");
+            else if (cursorValue == null) sb.append("((").append(c).append(" IS NULL AND id > ?) OR ").append(c).append(" IS NOT NULL)");
+            else {
+                sb.append('(').append(c).append(' ').append(past).append(" ? OR (").append(c).append(" = ? AND id ").append(past).append(" ?)");
+                if (desc) sb.append(" OR ").append(c).append(" IS NULL");
+                sb.append(')');
+            }
+        }
+        sb.append(" ORDER BY ");
+        if (!isIdSort()) sb.append(sort.column).append(dir).append(", ");
+        sb.append("id").append(dir);
+        if (paged()) sb.append(" LIMIT ?");
+        return sb.toString();
+    }
+
+    void bind(java.sql.PreparedStatement ps) throws java.sql.SQLException {
+        int i = 1;
+        for (Filter f : filters) set(ps, i++, f.value);
+        i = range.bind(ps, i);
+        if (hasCursor){
+            if (!isIdSort() && cursorValue != null){
+                set(ps, i++, cursorValue);
+                set(ps, i++, cursorValue);
+            }
+            ps.setInt(i++, cursorId);
+        }
+        // one row past the page tells whether there is a next page
+        if (paged()) ps.setInt(i, limit + 1);
+    }
+
+    // like rs.next(), but stops at the page size and remembers where the page ended
+    boolean next(java.sql.ResultSet rs) throws java.sql.SQLException {
+        if (paged() && emitted == limit){
+            more = rs.next();
+            return false;
+        }
+        if (!rs.next()) return false;
+        emitted++;
+        lastId = rs.getInt("id");
+        if (!isIdSort()){
+            if (sort.type == TableSchema.Type.INT){
+                int v = rs.getInt(sort.column);
+                lastValue = rs.wasNull() ? null : (Object) v;
+            } else {
+                lastValue = rs.getString(sort.column);
+            }
+        }
+        return true;
+    }
+
+    // without limit/cursor the legacy bare array, otherwise {"items":[...],"next_cursor":...};
+    // columnar: {"columns":[names],"rows":[[values],...]} plus next_cursor when paged
+    void head(JsonWriter w) throws IOException {
+        if (columnar){
+            w.beginObject().name(COLUMNS).beginArray();
+            for (Column c : fields) w.value(c.field);
+            w.endArray().name(ROWS);
+        } else if (paged()){
+            w.beginObject().name(ITEMS);
+        }
+        w.beginArray();
+    }
+
+    // the current row in the requested format and projection
+    void writeRow(JsonWriter w, java.sql.ResultSet rs) throws IOException, java.sql.SQLException {
+        if (columnar) schema.writeValues(w, rs, fields);
+        else schema.writeRow(w, rs, fields);
+    }
+
+    void tail(JsonWriter w) throws IOException {
+        w.endArray();
+        if (paged()){
+            w.name(NEXT_CURSOR);
+            if (!more){
+                w.nullValue();
+            } else {
+                String c = sort.field + ":" + lastId + (isIdSort() || lastValue == null ? "" : ":" + lastValue);
+                w.value(Base64.getUrlEncoder().withoutPadding().encodeToString(c.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        if (paged() || columnar) w.endObject();
+    }
+
+    // only the plain full list is worth a slot in the gzip cache
+    String cacheKey(String key){
+        return filters.isEmpty() && range.isEmpty() && !paged() && !projected && !columnar && isIdSort() && desc ? key : null;
+    }
+
+    private boolean isIdSort(){
+        return "id".equals(sort.column);
+    }
+
+    private static void set(java.sql.PreparedStatement ps, int i, Object v) throws java.sql.SQLException {
+        if (v instanceof Integer) ps.setInt(i, (Integer) v);
+        else ps.setString(i, (String) v);
+    }
+
+    private static Object typed(Column col, String value){
+        if (col.type != TableSchema.Type.INT) return value;
+        try { return Integer.valueOf(value); } catch (NumberFormatException e) { throw new IllegalArgumentException("invalid value for " + col.field + ": " + value); }
+    }
+
+    private static boolean isNameChar(char c){
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // percent-decoding only; a literal '+' stays '+' (timestamps with offsets), matching URI.getQuery()
+    private static String decode(String s){
+        try {
+            return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid query encoding");
+        }
+    }
+}
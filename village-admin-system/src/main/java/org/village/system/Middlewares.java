@@ -0,0 +1,83 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.village.system.Router.Middleware;
+import org.village.system.WorkerPools.RouteClass;
+
+// standard middleware for the API router
+final class Middlewares {
+    private Middlewares() {}
+
+    private static final List<String> ALLOW_ORIGIN = Collections.singletonList("*");
+    private static final List<String> ALLOW_METHODS = Collections.singletonList("GET, POST, PUT, DELETE, OPTIONS");
+    private static final List<String> ALLOW_HEADERS = Collections.singletonList("Content-Type, Authorization, Idempotency-Key");
+
+    // CORS headers on every response; preflight is answered here with a cacheable Access-Control-Max-Age
+    static Middleware cors(int maxAgeSeconds){
+        final List<String> maxAge = Collections.singletonList(String.valueOf(maxAgeSeconds));
+        return (route, next) -> ex -> {
+            HttpHeaders h = ex.getResponseHeaders();
+            h.put("Access-Control-Allow-Origin", ALLOW_ORIGIN);
+            h.put("Access-Control-Allow-Methods", ALLOW_METHODS);
+            h.put("Access-Control-Allow-Headers", ALLOW_HEADERS);
+            if ("OPTIONS".equals(ex.getRequestMethod())){
+                h.put("Access-Control-Max-Age", maxAge);
+                ex.sendResponseHeaders(204, -1);
+                return;
+            }
+            next.handle(ex);
+        };
+    }
+
+    // per-route count/latency, plus a stderr line for anything slower than slowMillis
+    static Middleware timing(long slowMillis){
+        final long slowNanos = slowMillis * 1_000_000L;
+        return (route, next) -> ex -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                next.handle(ex);
+                failed = ex.getResponseCode() >= 500;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                route.record(elapsed, failed);
+                // event streams are long by design
+                if (elapsed > slowNanos && route.routeClass != RouteClass.STREAM){
+                    System.err.println("[SLOW] " + ex.getRequestMethod() + " " + ex.getRequestURI() + " " + (elapsed / 1_000_000) + "ms status=" + ex.getResponseCode());
+                }
+            }
+        };
+    }
+
+    // maps escaped exceptions to a response when the handler has not started one yet
+    static Middleware errors(){
+        return (route, next) -> ex -> {
+            try {
+                next.handle(ex);
+            } catch (NumberFormatException e) {
+                fail(ex, 400, "invalid number: " + e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                fail(ex, 400, e.getMessage(), e);
+            } catch (Exception e) {
+                fail(ex, 500, "server error: " + e.getMessage(), e);
+            }
+        };
+    }
+
+    private static void fail(Exchange ex, int status, String msg, Exception cause) throws IOException {
+        if (ex.getResponseCode() != -1){
+            // response already started, the connection is all we can give up
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        byte[] b = String.valueOf(msg).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.getResponseHeaders().remove("ETag");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+}
@@ -0,0 +1,247 @@
+package org.village.system;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// numbered schema migrations recorded in schema_version (version, checksum of its statements, when, how long).
+// startup reads that table once; when every migration is there with the checksum it was applied with, that single
+// SELECT is all the schema work a boot does. otherwise the missing ones run in order under a MySQL named lock (so
+// two instances starting together don't both run them) and are recorded one by one. an applied migration whose
+// text changed since is an error: schema changes go into a new migration, never into an old one.
+// steps are written to be safe on databases that predate schema_version (CREATE ... IF NOT EXISTS, ADD COLUMN that
+// skips existing columns), so the first run there simply catches up.
+final class Migrations {
+    private static final String DDL = "CREATE TABLE IF NOT EXISTS schema_version (version INT PRIMARY KEY, description VARCHAR(255) NOT NULL, checksum CHAR(64) NOT NULL, applied_at BIGINT NOT NULL, duration_ms INT NOT NULL) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+    private static final String LOCK = "village_schema_migration";
+    // MySQL error codes
+    private static final int NO_SUCH_TABLE = 1146;
+    private static final int DUPLICATE_COLUMN = 1060;
+    private static final int DUPLICATE_KEY_NAME = 1061;
+    private static final long RETRY_MILLIS = 5000;
+
+    interface Body {
+        void run(java.sql.Connection c) throws Exception;
+    }
+
+    // one statement or piece of code; text is what the checksum covers
+    static final class Step {
+        final String text;
+        final Body body;
+
+        Step(String text, Body body){
+            this.text = text;
+            this.body = body;
+        }
+    }
+
+    static final class Migration {
+        final int version;
+        final String description;
+        final List<Step> steps;
+        final String checksum;
+
+        Migration(int version, String description, List<Step> steps){
+            this.version = version;
+            this.description = description;
+            this.steps = steps;
+            StringBuilder sb = new StringBuilder().append(version).append('\n').append(description);
+            for (Step s : steps) sb.append('\n').append(s.text);
+            this.checksum = sha256(sb.toString());
+        }
+    }
+
+    private final List<Migration> migrations = new ArrayList<>();
+    private volatile boolean current;
+    private volatile long lastAttempt;
+    private volatile String lastError;
+    private volatile int applied;
+    private volatile int ranLast;
+    private volatile long lastMillis;
+
+    Migrations add(int version, String description, Step... steps){
+        if (!migrations.isEmpty() && version <= migrations.get(migrations.size() - 1).version){
+            throw new IllegalArgumentException("migration " + version + " is out of order");
+        }
+        List<Step> list = new ArrayList<>();
+        for (Step s : steps) list.add(s);
+        migrations.add(new Migration(version, description, list));
+        return this;
+    }
+
+    static Step sql(final String statement){
+        return new Step(statement, c -> {
+            try (java.sql.Statement s = c.createStatement()){ s.execute(statement); }
+        });
+    }
+
+    // no-op when the column is already there (tables created by a later CREATE TABLE have it)
+    static Step addColumn(String table, String column){
+        final String statement = "ALTER TABLE " + table + " ADD COLUMN " + column;
+        return new Step(statement, c -> {
+            try (java.sql.Statement s = c.createStatement()){ s.execute(statement); }
+            catch (java.sql.SQLException e) { if (e.getErrorCode() != DUPLICATE_COLUMN) throw e; }
+        });
+    }
+
+    // no-op when an index of that name exists (MySQL has no CREATE INDEX IF NOT EXISTS)
+    static Step addIndex(String table, String name, String columns){
+        final String statement = "CREATE INDEX " + name + " ON " + table + " (" + columns + ")";
+        return new Step(statement, c -> {
+            try (java.sql.Statement s = c.createStatement()){ s.execute(statement); }
+            catch (java.sql.SQLException e) { if (e.getErrorCode() != DUPLICATE_KEY_NAME) throw e; }
+        });
+    }
+
+    // the checksum covers the name only, so bump the name when the code's effect changes
+    static Step code(String name, Body body){
+        return new Step("code:" + name, body);
+    }
+
+    boolean isCurrent(){
+        return current;
+    }
+
+    int latest(){
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version;
+    }
+
+    // brings the schema up to date; cheap once it is
+    void migrate(javax.sql.DataSource ds) throws Exception {
+        if (current) return;
+        synchronized (this){
+            if (current) return;
+            lastAttempt = System.currentTimeMillis();
+            long start = System.nanoTime();
+            try (java.sql.Connection c = ds.getConnection()){
+                Map<Integer, String> done = readApplied(c);
+                List<Migration> pending = pending(done);
+                int ran = 0;
+                if (!pending.isEmpty()){
+                    lock(c);
+                    try {
+                        // another instance may have run them while we waited for the lock
+                        pending = pending(readApplied(c));
+                        try (java.sql.Statement s = c.createStatement()){ s.execute(DDL); }
+                        for (Migration m : pending){
+                            apply(c, m);
+                            ran++;
+                        }
+                    } finally {
+                        unlock(c);
+                    }
+                }
+                applied = latest();
+                ranLast = ran;
+                lastMillis = (System.nanoTime() - start) / 1_000_000;
+                lastError = null;
+                current = true;
+                if (ran > 0) System.out.println("schema migrated to version " + applied + " (" + ran + " migrations, " + lastMillis + " ms)");
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                throw e;
+            }
+        }
+    }
+
+    // for the connection path: a failed startup migration is retried at most every few seconds, never thrown
+    void migrateQuietly(javax.sql.DataSource ds){
+        if (current || System.currentTimeMillis() - lastAttempt < RETRY_MILLIS) return;
+        try {
+            migrate(ds);
+        } catch (Exception e) {
+            System.err.println("schema migration failed: " + e.getMessage());
+        }
+    }
+
+    private List<Migration> pending(Map<Integer, String> done) throws java.sql.SQLException {
+        List<Migration> pending = new ArrayList<>();
+        for (Migration m : migrations){
+            String checksum = done.get(m.version);
+            if (checksum == null) pending.add(m);
+            else if (!checksum.equals(m.checksum)){
+                throw new java.sql.SQLException("schema_version: migration " + m.version + " (" + m.description
+                    + ") was applied with a different checksum; add a new migration instead of editing an applied one");
+            }
+        }
+        int newest = 0;
+        for (Integer v : done.keySet()) newest = Math.max(newest, v);
+        if (newest > latest()) System.err.println("schema_version: database is at version " + newest + ", newer than this build (" + latest() + ")");
+        return pending;
+    }
+
+    private static Map<Integer, String> readApplied(java.sql.Connection c) throws java.sql.SQLException {
+        Map<Integer, String> done = new LinkedHashMap<>();
+        try (java.sql.Statement s = c.createStatement(); java.sql.ResultSet rs = s.executeQuery("SELECT version,checksum FROM schema_version ORDER BY version")){
+            while (rs.next()) done.put(rs.getInt(1), rs.getString(2));
+        } catch (java.sql.SQLException e) {
+            // a database from before migrations: everything is pending
+            if (e.getErrorCode() != NO_SUCH_TABLE) throw e;
+        }
+        return done;
+    }
+
+    private static void apply(java.sql.Connection c, Migration m) throws Exception {
+        long start = System.nanoTime();
+        for (Step s : m.steps){
+            try {
+                s.body.run(c);
+            } catch (Exception e) {
+                throw new java.sql.SQLException("migration " + m.version + " (" + m.description + ") failed at: " + s.text + ": " + e.getMessage(), e);
+            }
+        }
+        try (java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO schema_version (version,description,checksum,applied_at,duration_ms) VALUES (?,?,?,?,?)")){
+            ps.setInt(1, m.version);
+            ps.setString(2, m.description);
+            ps.setString(3, m.checksum);
+            ps.setLong(4, System.currentTimeMillis());
+            ps.setInt(5, (int) ((System.nanoTime() - start) / 1_000_000));
+            ps.executeUpdate();
+        }
+    }
+
+    private static void lock(java.sql.Connection c) throws java.sql.SQLException {
+        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT GET_LOCK(?,60)")){
+            ps.setString(1, LOCK);
+            try (java.sql.ResultSet rs = ps.executeQuery()){
+                if (!rs.next() || rs.getInt(1) != 1) throw new java.sql.SQLException("timed out waiting for another instance to finish migrating");
+            }
+        }
+    }
+
+    private static void unlock(java.sql.Connection c){
+        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT RELEASE_LOCK(?)")){
+            ps.setString(1, LOCK);
+            ps.executeQuery().close();
+        } catch (java.sql.SQLException ignored) {
+        }
+    }
+
+    private static String sha256(String s){
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String statsJson(){
+        String err = lastError;
+        StringBuilder sb = new StringBuilder("{\"current\":").append(current).append(",\"version\":").append(applied)
+            .append(",\"latest\":").append(latest()).append(",\"ran_last\":").append(ranLast).append(",\"last_ms\":").append(lastMillis)
+            .append(",\"last_error\":").append(err == null ? "null" : "\"" + org.village.common.json.JsonWriter.escape(err) + "\"").append(",\"migrations\":[");
+        for (int i = 0; i < migrations.size(); i++){
+            Migration m = migrations.get(i);
+            sb.append(i == 0 ? "" : ",").append("{\"version\":").append(m.version).append(",\"description\":\"")
+              .append(org.village.common.json.JsonWriter.escape(m.description)).append("\",\"checksum\":\"").append(m.checksum).append("\"}");
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,735 @@
+package org.village.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP/1.1 on one selector thread. connections stay open between requests (keep-alive) and requests that
+// arrive back to back are parsed straight out of the read buffer (pipelining); responses go out in request order.
+// the selector thread only parses and routes; handlers run on the route-class bulkheads and hand their output
+// back as pooled buffers that the selector writes with gathering writes. a handler that outruns a slow client
+// blocks once HIGH_WATER bytes are queued, so a streamed table never piles up in memory.
+final class NioEngine implements ServerEngine {
+    private static final int BUFFER = 16 * 1024;
+    private static final int MAX_BODY = WorkerPools.envInt("HTTP_MAX_BODY_KB", 8 * 1024) * 1024;
+    private static final long IDLE_MILLIS = WorkerPools.envInt("HTTP_NIO_IDLE_MS", 30_000);
+    private static final long HIGH_WATER = 256 * 1024;
+    private static final long LOW_WATER = 64 * 1024;
+    private static final int POOL_MAX = 1024;
+    // room kept in front of and behind every response buffer for the chunk-size line and trailing CRLF
+    private static final int CHUNK_HEAD = 8;
+    private static final int CHUNK_TAIL = 2;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+    static {
+        REASONS.put(200, "OK"); REASONS.put(201, "Created"); REASONS.put(204, "No Content");
+        REASONS.put(206, "Partial Content"); REASONS.put(304, "Not Modified"); REASONS.put(400, "Bad Request");
+        REASONS.put(401, "Unauthorized"); REASONS.put(403, "Forbidden"); REASONS.put(404, "Not Found");
+        REASONS.put(405, "Method Not Allowed"); REASONS.put(409, "Conflict"); REASONS.put(413, "Payload Too Large");
+        REASONS.put(416, "Range Not Satisfiable"); REASONS.put(429, "Too Many Requests"); REASONS.put(431, "Request Header Fields Too Large");
+        REASONS.put(500, "Internal Server Error"); REASONS.put(501, "Not Implemented"); REASONS.put(503, "Service Unavailable");
+    }
+
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final int requestedPort;
+    private final ConcurrentLinkedQueue<Conn> wakeups = new ConcurrentLinkedQueue<>();
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread loop;
+    private volatile boolean running;
+    private Handler root;
+    private volatile String date = "";
+    private long dateSecond;
+
+    NioEngine(int port){
+        this.requestedPort = port;
+    }
+
+    @Override
+    public void start(Handler root) throws IOException {
+        this.root = root;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(new InetSocketAddress(requestedPort), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        updateDate(System.currentTimeMillis());
+        loop = new Thread(this::run, "http-nio-selector");
+        loop.setDaemon(false);
+        loop.start();
+    }
+
+    @Override
+    public int port(){
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void stop(){
+        running = false;
+        if (selector != null) selector.wakeup();
+        try { if (loop != null) loop.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    @Override
+    public String name(){
+        return "nio";
+    }
+
+    private void run(){
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running){
+                selector.select(1000);
+                long now = System.currentTimeMillis();
+                if (now / 1000 != dateSecond) updateDate(now);
+                Conn woken;
+                while ((woken = wakeups.poll()) != null) woken.onWakeup();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()){
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()){ accept(); continue; }
+                    Conn c = (Conn) key.attachment();
+                    try {
+                        if (key.isWritable()) c.flush();
+                        if (key.isValid() && key.isReadable()) c.onReadable(now);
+                        c.updateInterest();
+                    } catch (IOException | RuntimeException e) {
+                        c.close();
+                    }
+                }
+                if (now - lastSweep >= 1000){
+                    lastSweep = now;
+                    for (SelectionKey key : selector.keys()){
+                        Object a = key.attachment();
+                        if (a instanceof Conn && ((Conn) a).idle(now)) ((Conn) a).close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("nio engine stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()){
+                Object a = key.attachment();
+                if (a instanceof Conn) ((Conn) a).close();
+            }
+            try { server.close(); } catch (IOException ignored) {}
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null){
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            Conn c = new Conn(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        }
+    }
+
+    private void updateDate(long now){
+        SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        date = f.format(now);
+        dateSecond = now / 1000;
+    }
+
+    private static byte[] acquire(){
+        byte[] b = POOL.poll();
+        if (b == null) return new byte[BUFFER];
+        POOLED.decrementAndGet();
+        return b;
+    }
+
+    private static void release(byte[] b){
+        if (b.length == BUFFER && POOLED.incrementAndGet() <= POOL_MAX) POOL.offer(b);
+        else if (b.length == BUFFER) POOLED.decrementAndGet();
+    }
+
+    // a buffer queued for the socket; pooled ones go back to the pool once written.
+    // or a file region moved by transferTo, so the bytes never enter the JVM; the chunk owns the channel
+    private static final class Chunk {
+        final ByteBuffer buf;
+        final byte[] pooled;
+        final FileChannel file;
+        long position;
+        final long end;
+
+        Chunk(ByteBuffer buf, byte[] pooled){
+            this.buf = buf;
+            this.pooled = pooled;
+            this.file = null;
+            this.end = 0;
+        }
+
+        Chunk(FileChannel file, long position, long count){
+            this.buf = null;
+            this.pooled = null;
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        long remaining(){
+            return file != null ? end - position : buf.remaining();
+        }
+
+        void discard(){
+            if (pooled != null) release(pooled);
+            if (file != null) try { file.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private final class Conn {
+        final SocketChannel ch;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.wrap(acquire());
+        // written by handler threads, drained by the selector thread
+        final ConcurrentLinkedQueue<Chunk> out = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<Chunk> writing = new ArrayDeque<>();
+        volatile long queued;
+        volatile boolean exchangeDone;
+        volatile boolean closed;
+        boolean closeWhenFlushed;
+        NioExchange current;
+        long lastActive = System.currentTimeMillis();
+
+        // request being assembled; body grows as bytes arrive, so a Content-Length alone reserves nothing
+        NioExchange pending;
+        byte[] body;
+        int bodyPos;
+        int bodyLength;
+
+        Conn(SocketChannel ch){
+            this.ch = ch;
+        }
+
+        boolean idle(long now){
+            // a client that stalls halfway through a body counts as idle too
+            return current == null && out.isEmpty() && writing.isEmpty() && now - lastActive > IDLE_MILLIS;
+        }
+
+        void onReadable(long now) throws IOException {
+            int n = ch.read(in);
+            if (n < 0){ close(); return; }
+            lastActive = now;
+            parse();
+        }
+
+        // parses as many complete requests as the buffer holds, one at a time: the next one waits for the previous response
+        void parse() throws IOException {
+            while (current == null && !closed && !closeWhenFlushed){
+                if (pending != null){
+                    // body still arriving
+                    int take = Math.min(in.position(), bodyLength - bodyPos);
+                    if (bodyPos + take > body.length) body = Arrays.copyOf(body, Math.min(bodyLength, Math.max(bodyPos + take, body.length * 2)));
+                    in.flip();
+                    in.get(body, bodyPos, take);
+                    in.compact();
+                    bodyPos += take;
+                    if (bodyPos < bodyLength) return;
+                    dispatch(pending.withBody(body));
+                    continue;
+                }
+                int end = headerEnd();
+                if (end < 0){
+                    if (!in.hasRemaining()) reject(431, "request headers too large");
+                    return;
+                }
+                NioExchange ex = parseHead(end);
+                if (ex == null) return;
+                int consumed = end + 4;
+                int available = in.position() - consumed;
+                long length = ex.contentLength;
+                if (length > MAX_BODY){ reject(413, "request body too large"); return; }
+                byte[] arr = in.array();
+                if (available >= length){
+                    byte[] b = new byte[(int) length];
+                    System.arraycopy(arr, consumed, b, 0, b.length);
+                    shift(consumed + b.length);
+                    dispatch(ex.withBody(b));
+                    continue;
+                }
+                bodyLength = (int) length;
+                body = new byte[Math.min(bodyLength, Math.max(available, BUFFER))];
+                System.arraycopy(arr, consumed, body, 0, available);
+                bodyPos = available;
+                shift(consumed + available);
+                pending = ex;
+                if ("100-continue".equalsIgnoreCase(ex.requestHeaders.getFirst("Expect"))){
+                    enqueue(new Chunk(ByteBuffer.wrap(CONTINUE), null));
+                }
+                return;
+            }
+        }
+
+        private int headerEnd(){
+            byte[] a = in.array();
+            int limit = in.position() - 3;
+            for (int i = 0; i < limit; i++){
+                if (a[i] == '\r' && a[i + 1] == '\n' && a[i + 2] == '\r' && a[i + 3] == '\n') return i;
+            }
+            return -1;
+        }
+
+        private void shift(int consumed){
+            in.flip();
+            in.position(consumed);
+            in.compact();
+        }
+
+        private NioExchange parseHead(int end) throws IOException {
+            String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+            int lineEnd = head.indexOf("\r\n");
+            String requestLine = lineEnd < 0 ? head : head.substring(0, lineEnd);
+            int sp1 = requestLine.indexOf(' ');
+            int sp2 = sp1 < 0 ? -1 : requestLine.indexOf(' ', sp1 + 1);
+            if (sp1 <= 0 || sp2 < 0){ reject(400, "bad request line"); return null; }
+            String method = requestLine.substring(0, sp1);
+            String target = requestLine.substring(sp1 + 1, sp2);
+            String version = requestLine.substring(sp2 + 1);
+            if (!version.startsWith("HTTP/1.")){ reject(400, "unsupported protocol"); return null; }
+            URI uri;
+            try { uri = new URI(target); } catch (URISyntaxException e) { reject(400, "bad request target"); return null; }
+            HttpHeaders headers = new HttpHeaders();
+            int pos = lineEnd < 0 ? head.length() : lineEnd + 2;
+            while (pos < head.length()){
+                int eol = head.indexOf("\r\n", pos);
+                if (eol < 0) eol = head.length();
+                int colon = head.indexOf(':', pos);
+                if (colon < 0 || colon > eol){ reject(400, "bad header"); return null; }
+                // header bytes are ISO-8859-1 on the wire; re-read values as UTF-8 the way browsers send them
+                String value = new String(head.substring(colon + 1, eol).trim().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+                headers.add(head.substring(pos, colon).trim(), value);
+                pos = eol + 2;
+            }
+            if (headers.containsKey("Transfer-Encoding")){ reject(501, "chunked request bodies are not supported"); return null; }
+            long length = 0;
+            String cl = headers.getFirst("Content-Length");
+            if (cl != null){
+                try { length = Long.parseLong(cl.trim()); } catch (NumberFormatException e) { reject(400, "bad content length"); return null; }
+                if (length < 0){ reject(400, "bad content length"); return null; }
+            }
+            boolean http10 = version.equals("HTTP/1.0");
+            String connection = headers.getFirst("Connection");
+            boolean keepAlive = http10 ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+            return new NioExchange(this, method, uri, headers, length, http10, keepAlive);
+        }
+
+        private void dispatch(NioExchange ex) throws IOException {
+            pending = null;
+            body = null;
+            current = ex;
+            lastActive = System.currentTimeMillis();
+            try {
+                root.handle(ex);
+            } catch (IOException | RuntimeException e) {
+                ex.abort();
+                throw e;
+            }
+        }
+
+        // a protocol error on the selector thread: answer and hang up
+        private void reject(int status, String msg) throws IOException {
+            byte[] b = msg.getBytes(StandardCharsets.UTF_8);
+            String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\nDate: " + date
+                + "\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: " + b.length + "\r\nConnection: close\r\n\r\n";
+            enqueue(new Chunk(ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1)), null));
+            enqueue(new Chunk(ByteBuffer.wrap(b), null));
+            closeWhenFlushed = true;
+        }
+
+        // any thread; blocks handler threads while the client is too far behind
+        void enqueue(Chunk c) throws IOException {
+            if (closed){
+                c.discard();
+                throw new IOException("connection closed");
+            }
+            synchronized (this){ queued += c.remaining(); }
+            out.add(c);
+            wake();
+            if (Thread.currentThread() == loop) return;
+            long deadline = System.currentTimeMillis() + IDLE_MILLIS;
+            synchronized (this){
+                while (queued > HIGH_WATER && !closed){
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    try { wait(wait); } catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new IOException("interrupted"); }
+                }
+                if (closed) throw new IOException("connection closed");
+                if (queued > HIGH_WATER) throw new IOException("client stopped reading");
+            }
+        }
+
+        void wake(){
+            wakeups.add(this);
+            if (Thread.currentThread() != loop) selector.wakeup();
+        }
+
+        // selector thread: something was queued or an exchange finished
+        void onWakeup(){
+            if (closed) return;
+            try {
+                flush();
+                if (exchangeDone){
+                    exchangeDone = false;
+                    boolean keep = current != null && current.keepAlive && !current.broken;
+                    current = null;
+                    lastActive = System.currentTimeMillis();
+                    if (!keep) closeWhenFlushed = true;
+                    else parse();
+                    flush();
+                }
+                updateInterest();
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            Chunk c;
+            while ((c = out.poll()) != null) writing.add(c);
+            while (!writing.isEmpty()){
+                Chunk first = writing.peek();
+                long total = 0;
+                long written;
+                if (first.file != null){
+                    total = first.remaining();
+                    written = first.file.transferTo(first.position, total, ch);
+                    first.position += written;
+                } else {
+                    // gathering write: headers and the first body chunks usually leave in one segment
+                    int n = 0;
+                    for (Chunk c2 : writing){
+                        if (c2.file != null || n == 16) break;
+                        n++;
+                    }
+                    ByteBuffer[] bufs = new ByteBuffer[n];
+                    Iterator<Chunk> it = writing.iterator();
+                    for (int i = 0; i < n; i++){
+                        bufs[i] = it.next().buf;
+                        total += bufs[i].remaining();
+                    }
+                    written = ch.write(bufs, 0, n);
+                }
+                while (!writing.isEmpty() && writing.peek().remaining() == 0) writing.poll().discard();
+                if (written > 0){
+                    synchronized (this){
+                        queued -= written;
+                        if (queued <= LOW_WATER) notifyAll();
+                    }
+                }
+                // socket buffer full: OP_WRITE picks it up from here
+                if (written < total) break;
+            }
+            if (writing.isEmpty() && out.isEmpty() && closeWhenFlushed) close();
+        }
+
+        void updateInterest(){
+            if (closed || !key.isValid()) return;
+            int ops = 0;
+            if (current == null && !closeWhenFlushed) ops |= SelectionKey.OP_READ;
+            if (!writing.isEmpty() || !out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) key.interestOps(ops);
+        }
+
+        void close(){
+            if (closed) return;
+            closed = true;
+            synchronized (this){ notifyAll(); }
+            try { ch.close(); } catch (IOException ignored) {}
+            if (key != null) key.cancel();
+            Chunk c;
+            while ((c = writing.poll()) != null) c.discard();
+            while ((c = out.poll()) != null) c.discard();
+            release(in.array());
+        }
+    }
+
+    private String reason(int status){
+        String r = REASONS.get(status);
+        return r == null ? "Status" : r;
+    }
+
+    private final class NioExchange implements Exchange {
+        final Conn conn;
+        final String method;
+        final URI uri;
+        final HttpHeaders requestHeaders;
+        final long contentLength;
+        final boolean http10;
+        boolean keepAlive;
+        volatile boolean broken;
+        private InputStream requestBody;
+        private final HttpHeaders responseHeaders = new HttpHeaders();
+        private final Map<String, Object> attributes = new HashMap<>(4);
+        private volatile int status = -1;
+        private ResponseStream body;
+        private boolean finished;
+
+        NioExchange(Conn conn, String method, URI uri, HttpHeaders requestHeaders, long contentLength, boolean http10, boolean keepAlive){
+            this.conn = conn;
+            this.method = method;
+            this.uri = uri;
+            this.requestHeaders = requestHeaders;
+            this.contentLength = contentLength;
+            this.http10 = http10;
+            this.keepAlive = keepAlive;
+        }
+
+        NioExchange withBody(byte[] b){
+            requestBody = new ByteArrayInputStream(b);
+            return this;
+        }
+
+        @Override public String getRequestMethod(){ return method; }
+        @Override public URI getRequestURI(){ return uri; }
+        @Override public HttpHeaders getRequestHeaders(){ return requestHeaders; }
+        @Override public InputStream getRequestBody(){ return requestBody; }
+        @Override public HttpHeaders getResponseHeaders(){ return responseHeaders; }
+        @Override public int getResponseCode(){ return status; }
+        @Override public synchronized Object getAttribute(String name){ return attributes.get(name); }
+        @Override public synchronized void setAttribute(String name, Object value){ attributes.put(name, value); }
+
+        @Override
+        public InetSocketAddress getRemoteAddress(){
+            try { return (InetSocketAddress) conn.ch.getRemoteAddress(); } catch (IOException e) { return null; }
+        }
+
+        @Override
+        public synchronized void sendResponseHeaders(int code, long length) throws IOException {
+            if (status != -1) throw new IOException("headers already sent");
+            status = code;
+            boolean noBody = length == -1 || code == 204 || code == 304 || "HEAD".equals(method);
+            boolean chunked = !noBody && length == 0;
+            if (chunked && http10){
+                // no chunked framing in 1.0: the body runs until the connection closes
+                keepAlive = false;
+            }
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\nDate: ").append(date).append("\r\n");
+            for (Map.Entry<String, List<String>> e : responseHeaders.asMap().entrySet()){
+                for (String v : e.getValue()) sb.append(e.getKey()).append(": ").append(v).append("\r\n");
+            }
+            if (chunked && !http10) sb.append("Transfer-Encoding: chunked\r\n");
+            else if (!noBody) sb.append("Content-Length: ").append(length).append("\r\n");
+            else if (code != 204 && code != 304) sb.append("Content-Length: 0\r\n");
+            if (!keepAlive) sb.append("Connection: close\r\n");
+            else if (http10) sb.append("Connection: keep-alive\r\n");
+            sb.append("\r\n");
+            body = new ResponseStream(this, noBody ? 0 : length, chunked && !http10, noBody);
+            body.head = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public OutputStream getResponseBody(){
+            if (body == null) throw new IllegalStateException("sendResponseHeaders first");
+            return body;
+        }
+
+        @Override
+        public void sendBody(ByteBuffer b) throws IOException {
+            if (body == null) throw new IllegalStateException("sendResponseHeaders first");
+            try (ResponseStream os = body) { os.write(b); }
+        }
+
+        @Override
+        public void sendFile(FileChannel file, long position, long count) throws IOException {
+            if (body == null){
+                file.close();
+                throw new IllegalStateException("sendResponseHeaders first");
+            }
+            try (ResponseStream os = body) { os.write(file, position, count); }
+        }
+
+        @Override
+        public void close(){
+            synchronized (this){
+                if (finished) return;
+                finished = true;
+            }
+            try {
+                if (body == null){
+                    // handler never answered; the connection can't be trusted for another request
+                    broken = true;
+                } else {
+                    body.close();
+                }
+            } catch (IOException e) {
+                broken = true;
+            }
+            conn.exchangeDone = true;
+            conn.wake();
+        }
+
+        void abort(){
+            broken = true;
+            close();
+        }
+    }
+
+    // response body: fills pooled buffers, each one sent as a chunk (or raw for Content-Length bodies)
+    private final class ResponseStream extends OutputStream {
+        final NioExchange ex;
+        final long fixedLength;
+        final boolean chunked;
+        final boolean noBody;
+        byte[] head;
+        byte[] buf;
+        int pos;
+        long written;
+        boolean closed;
+
+        ResponseStream(NioExchange ex, long fixedLength, boolean chunked, boolean noBody){
+            this.ex = ex;
+            this.fixedLength = fixedLength;
+            this.chunked = chunked;
+            this.noBody = noBody;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensure();
+            if (pos == BUFFER - CHUNK_TAIL) emit();
+            buf[pos++] = (byte) b;
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0){
+                ensure();
+                int room = BUFFER - CHUNK_TAIL - pos;
+                if (room == 0){ emit(); continue; }
+                int n = Math.min(room, len);
+                System.arraycopy(b, off, buf, pos, n);
+                pos += n;
+                off += n;
+                len -= n;
+                count(n);
+            }
+        }
+
+        private void count(long n) throws IOException {
+            if (noBody) throw new IOException("response has no body");
+            written += n;
+            if (!chunked && fixedLength > 0 && written > fixedLength) throw new IOException("too many bytes to write to stream");
+        }
+
+        private void ensure() throws IOException {
+            if (closed) throw new IOException("stream closed");
+            if (buf == null){
+                buf = acquire();
+                pos = CHUNK_HEAD;
+            }
+        }
+
+        // cached bodies go on the queue as they are instead of through the pooled buffers
+        void write(ByteBuffer src) throws IOException {
+            if (chunked){
+                ResponseCache.copy(src, this);
+                return;
+            }
+            if (closed) throw new IOException("stream closed");
+            count(src.remaining());
+            if (buf != null && pos > CHUNK_HEAD) emit();
+            else sendHead();
+            ex.conn.enqueue(new Chunk(src, null));
+        }
+
+        // static files: the selector thread moves them with transferTo
+        void write(FileChannel file, long position, long count) throws IOException {
+            if (chunked || closed){
+                try (FileChannel f = file) { Exchange.copy(f, position, count, this); }
+                return;
+            }
+            try {
+                count(count);
+                if (buf != null && pos > CHUNK_HEAD) emit();
+                else sendHead();
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            ex.conn.enqueue(new Chunk(file, position, count));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buf != null && pos > CHUNK_HEAD) emit();
+            else sendHead();
+        }
+
+        private void sendHead() throws IOException {
+            if (head == null) return;
+            byte[] h = head;
+            head = null;
+            ex.conn.enqueue(new Chunk(ByteBuffer.wrap(h), null));
+        }
+
+        private void emit() throws IOException {
+            sendHead();
+            byte[] b = buf;
+            int start = CHUNK_HEAD;
+            int end = pos;
+            buf = null;
+            if (chunked){
+                // hex size right-aligned in the reserved head, CRLF after the data
+                int size = end - CHUNK_HEAD;
+                b[--start] = '\n';
+                b[--start] = '\r';
+                do { b[--start] = HEX[size & 0xF]; size >>>= 4; } while (size != 0);
+                b[end++] = '\r';
+                b[end++] = '\n';
+            }
+            ex.conn.enqueue(new Chunk(ByteBuffer.wrap(b, start, end - start), b));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            try {
+                if (buf != null && pos > CHUNK_HEAD) emit();
+                else {
+                    if (buf != null){ release(buf); buf = null; }
+                    sendHead();
+                }
+                if (chunked) ex.conn.enqueue(new Chunk(ByteBuffer.wrap(LAST_CHUNK), null));
+                if (!chunked && !noBody && written != fixedLength) ex.broken = true;
+            } finally {
+                closed = true;
+            }
+        }
+    }
+}
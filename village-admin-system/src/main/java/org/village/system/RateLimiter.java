@@ -0,0 +1,190 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// token buckets per client IP and per Authorization value (and per username on login), checked as router admission
+// so an over-limit request costs one CAS and a canned 429: no worker, no captcha image, no Argon2, no AI call.
+// a bucket is a single AtomicLong holding its "theoretical arrival time" (GCRA); taking a token is one CAS.
+// buckets live in striped maps; a full bucket is indistinguishable from a new one, so idle ones are simply dropped.
+// limits per rule from env: HTTP_RATE_<RULE>_PER_MIN / HTTP_RATE_<RULE>_BURST, 0 per minute turns a rule off.
+final class RateLimiter {
+    private static final int STRIPES = 16;
+    private static final byte[] TOO_MANY = "{\"error\":\"too many requests\"}".getBytes(StandardCharsets.UTF_8);
+
+    // behind nginx every request comes from the proxy; only then is X-Real-IP / X-Forwarded-For worth believing
+    private final boolean trustForwarded = WorkerPools.envInt("HTTP_RATE_TRUST_FORWARDED", 0) == 1;
+    private final int maxKeysPerStripe = Math.max(64, WorkerPools.envInt("HTTP_RATE_MAX_KEYS", 65536) / STRIPES);
+    private final List<ConcurrentHashMap<String, AtomicLong>> stripes = new ArrayList<>(STRIPES);
+    private final AtomicInteger[] ops = new AtomicInteger[STRIPES];
+    private final Map<String, Rule> byRoute = new HashMap<>();
+    private final CopyOnWriteArrayList<Rule> rules = new CopyOnWriteArrayList<>();
+
+    RateLimiter(){
+        for (int i = 0; i < STRIPES; i++){
+            stripes.add(new ConcurrentHashMap<>());
+            ops[i] = new AtomicInteger();
+        }
+    }
+
+    static final class Rule {
+        final String name;
+        final int perMinute;
+        final int burst;
+        // nanos per token, and how far ahead of now the arrival time may run
+        final long interval;
+        final long tolerance;
+        final LongAdder allowed = new LongAdder();
+        final LongAdder limited = new LongAdder();
+
+        private Rule(String name, int perMinute, int burst){
+            this.name = name;
+            this.perMinute = perMinute;
+            this.burst = burst;
+            this.interval = perMinute <= 0 ? 0 : 60_000_000_000L / perMinute;
+            this.tolerance = interval * burst;
+        }
+
+        static Rule fromEnv(String name, int perMinute, int burst){
+            String env = "HTTP_RATE_" + name.toUpperCase().replace('-', '_');
+            return new Rule(name, WorkerPools.envInt(env + "_PER_MIN", perMinute), Math.max(1, WorkerPools.envInt(env + "_BURST", burst)));
+        }
+
+        boolean off(){
+            return interval == 0;
+        }
+    }
+
+    // must be called before the route is added to the router
+    RateLimiter limit(String pattern, Rule rule){
+        byRoute.put(pattern, rule);
+        rules.addIfAbsent(rule);
+        return this;
+    }
+
+    Router.Middleware admission(){
+        return (route, next) -> {
+            Rule rule = byRoute.get(route.pattern);
+            if (rule == null || rule.off()) return next;
+            return ex -> {
+                // preflights are answered by the cors middleware without doing anything expensive
+                if ("OPTIONS".equals(ex.getRequestMethod())){ next.handle(ex); return; }
+                long wait = acquire(rule, "ip:" + clientIp(ex));
+                String auth = ex.getRequestHeaders().getFirst("Authorization");
+                if (wait == 0 && auth != null) wait = acquire(rule, "auth:" + auth);
+                if (wait != 0){
+                    try {
+                        reject(ex, wait);
+                    } finally {
+                        ex.close();
+                    }
+                    return;
+                }
+                next.handle(ex);
+            };
+        };
+    }
+
+    // for keys only a handler knows (the username in a login body); sends the 429 itself when over the limit
+    boolean admit(Exchange ex, Rule rule, String key) throws IOException {
+        if (rule.off() || key == null) return true;
+        rules.addIfAbsent(rule);
+        long wait = acquire(rule, key);
+        if (wait == 0) return true;
+        reject(ex, wait);
+        return false;
+    }
+
+    // 0 when a token was taken, else nanos until one is available
+    long acquire(Rule r, String key){
+        long now = System.nanoTime();
+        String k = r.name + '|' + key;
+        int h = k.hashCode();
+        int i = (h ^ (h >>> 16)) & (STRIPES - 1);
+        ConcurrentHashMap<String, AtomicLong> stripe = stripes.get(i);
+        if ((ops[i].incrementAndGet() & 1023) == 0) sweep(stripe, now);
+        AtomicLong bucket = stripe.get(k);
+        if (bucket == null){
+            if (stripe.size() >= maxKeysPerStripe && sweep(stripe, now) >= maxKeysPerStripe){
+                // table full of clients that are all mid-burst: refusing newcomers keeps memory bounded
+                r.limited.increment();
+                return r.interval;
+            }
+            AtomicLong fresh = new AtomicLong(now);
+            bucket = stripe.putIfAbsent(k, fresh);
+            if (bucket == null) bucket = fresh;
+        }
+        for (;;){
+            long tat = bucket.get();
+            long next = (tat - now > 0 ? tat : now) + r.interval;
+            long ahead = next - now;
+            if (ahead > r.tolerance){
+                r.limited.increment();
+                return ahead - r.tolerance;
+            }
+            if (bucket.compareAndSet(tat, next)){
+                r.allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    // drops buckets that have refilled completely; a request racing the removal at worst gets one extra token
+    private static int sweep(ConcurrentHashMap<String, AtomicLong> stripe, long now){
+        Iterator<Map.Entry<String, AtomicLong>> it = stripe.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<String, AtomicLong> e = it.next();
+            if (e.getValue().get() - now <= 0) stripe.remove(e.getKey(), e.getValue());
+        }
+        return stripe.size();
+    }
+
+    private String clientIp(Exchange ex){
+        if (trustForwarded){
+            String real = ex.getRequestHeaders().getFirst("X-Real-IP");
+            if (real != null && !real.trim().isEmpty()) return real.trim();
+            String fwd = ex.getRequestHeaders().getFirst("X-Forwarded-For");
+            if (fwd != null && !fwd.trim().isEmpty()){
+                int comma = fwd.indexOf(',');
+                return (comma < 0 ? fwd : fwd.substring(0, comma)).trim();
+            }
+        }
+        InetSocketAddress a = ex.getRemoteAddress();
+        return a == null || a.getAddress() == null ? "unknown" : a.getAddress().getHostAddress();
+    }
+
+    private static void reject(Exchange ex, long waitNanos) throws IOException {
+        long seconds = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        HttpHeaders h = ex.getResponseHeaders();
+        h.set("Access-Control-Allow-Origin", "*");
+        h.set("Content-Type", "application/json; charset=utf-8");
+        h.set("Retry-After", String.valueOf(seconds));
+        ex.sendResponseHeaders(429, TOO_MANY.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(TOO_MANY); }
+    }
+
+    String statsJson(){
+        StringBuilder sb = new StringBuilder("{\"rules\":[");
+        for (int i = 0; i < rules.size(); i++){
+            Rule r = rules.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"rule\":\"").append(r.name).append("\",\"per_min\":").append(r.perMinute).append(",\"burst\":").append(r.burst)
+              .append(",\"allowed\":").append(r.allowed.sum()).append(",\"limited\":").append(r.limited.sum()).append('}');
+        }
+        int keys = 0;
+        for (ConcurrentHashMap<String, AtomicLong> s : stripes) keys += s.size();
+        return sb.append("],\"keys\":").append(keys).append('}').toString();
+    }
+}
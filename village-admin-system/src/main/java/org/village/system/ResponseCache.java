@@ -0,0 +1,187 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+// final encoded GET responses for pure functions of a few tables, kept outside the Java heap in direct buffers.
+// each entry carries the identity body and, when large enough, its gzip form, so a hit is neither serialized nor
+// compressed again; entries are tagged with their tables and dropped on the first bump of any of them.
+// LRU by bytes under HTTP_RESPONSE_CACHE_KB. evicted buffers are released when their small heap handle is collected.
+final class ResponseCache {
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override protected byte[] initialValue(){ return new byte[8 * 1024]; }
+    };
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(long maxBytes){
+        this.maxBytes = maxBytes;
+        TableVersions.listen(this::invalidate);
+    }
+
+    static ResponseCache fromEnv(){
+        return new ResponseCache(WorkerPools.envInt("HTTP_RESPONSE_CACHE_KB", 32 * 1024) * 1024L);
+    }
+
+    private static final class Entry {
+        final String[] tables;
+        final String type;
+        final ByteBuffer raw;
+        // null below the gzip threshold
+        final ByteBuffer gz;
+
+        Entry(String[] tables, String type, ByteBuffer raw, ByteBuffer gz){
+            this.tables = tables;
+            this.type = type;
+            this.raw = raw;
+            this.gz = gz;
+        }
+
+        long size(){
+            return raw.capacity() + (gz == null ? 0 : gz.capacity());
+        }
+    }
+
+    // taken before the query runs: the table versions it will be computed from
+    static final class Ticket {
+        final String key;
+        final String[] tables;
+        final long[] versions;
+
+        private Ticket(String key, String[] tables){
+            this.key = key;
+            this.tables = tables;
+            this.versions = new long[tables.length];
+            for (int i = 0; i < tables.length; i++) versions[i] = TableVersions.version(tables[i]);
+        }
+
+        boolean current(){
+            for (int i = 0; i < tables.length; i++) if (TableVersions.version(tables[i]) != versions[i]) return false;
+            return true;
+        }
+    }
+
+    // null when the response is not cacheable: no key, or a batch part. those read the batch's snapshot, which can
+    // predate the versions taken here, so their rows must neither be stored nor be swapped for newer cached ones
+    Ticket ticket(Exchange ex, String key, String... tables){
+        return key == null || ex.getAttribute(Batch.ATTR) != null ? null : new Ticket(key, tables);
+    }
+
+    // true when the response went out from the cache
+    boolean serve(Exchange ex, Ticket t) throws IOException {
+        if (t == null) return false;
+        Entry e;
+        synchronized (this){ e = entries.get(t.key); }
+        if (e == null){
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        write(ex, e);
+        return true;
+    }
+
+    // stores and sends the freshly computed body; false when it can't be kept (too big, or a table moved meanwhile)
+    boolean put(Exchange ex, Ticket t, String type, byte[] body) throws IOException {
+        if (t == null) return false;
+        byte[] gz = body.length >= ResponseCompression.MIN_BYTES ? ResponseCompression.gzip(body, Deflater.BEST_COMPRESSION) : null;
+        long size = body.length + (gz == null ? 0 : gz.length);
+        if (size > maxBytes / 4 || !t.current()) return false;
+        Entry fresh = new Entry(t.tables, type, direct(body), gz == null ? null : direct(gz));
+        synchronized (this){
+            // checked again under the lock: a bump after this point finds the entry and removes it
+            if (!t.current()) return false;
+            Entry old = entries.put(t.key, fresh);
+            if (old != null) bytes -= old.size();
+            bytes += size;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()){
+                Entry victim = it.next().getValue();
+                if (victim == fresh) continue;
+                bytes -= victim.size();
+                it.remove();
+                evictions.increment();
+            }
+        }
+        stores.increment();
+        write(ex, fresh);
+        return true;
+    }
+
+    private void invalidate(String table){
+        synchronized (this){
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()){
+                Entry e = it.next();
+                for (String t : e.tables){
+                    if (t.equals(table)){
+                        bytes -= e.size();
+                        it.remove();
+                        invalidations.increment();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer direct(byte[] b){
+        ByteBuffer buf = ByteBuffer.allocateDirect(b.length);
+        buf.put(b);
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    private static void write(Exchange ex, Entry e) throws IOException {
+        HttpHeaders h = ex.getResponseHeaders();
+        h.set("Content-Type", e.type);
+        ByteBuffer body = e.raw;
+        if (e.gz != null){
+            h.add("Vary", "Accept-Encoding");
+            if (ResponseCompression.acceptsGzip(ex)){
+                h.set("Content-Encoding", "gzip");
+                body = e.gz;
+            }
+        }
+        // every sender gets its own position over the shared bytes
+        body = body.duplicate();
+        if (!body.hasRemaining()){
+            ex.sendResponseHeaders(200, -1);
+            ex.close();
+            return;
+        }
+        ex.sendResponseHeaders(200, body.remaining());
+        ex.sendBody(body);
+    }
+
+    // for engines without a buffer path: through a per-thread scratch array, nothing allocated per response
+    static void copy(ByteBuffer src, OutputStream out) throws IOException {
+        byte[] scratch = SCRATCH.get();
+        while (src.hasRemaining()){
+            int n = Math.min(scratch.length, src.remaining());
+            src.get(scratch, 0, n);
+            out.write(scratch, 0, n);
+        }
+    }
+
+    String statsJson(){
+        synchronized (this){
+            return "{\"entries\":" + entries.size() + ",\"bytes\":" + bytes + ",\"max_bytes\":" + maxBytes + ",\"hits\":" + hits.sum()
+                + ",\"misses\":" + misses.sum() + ",\"stores\":" + stores.sum() + ",\"invalidations\":" + invalidations.sum()
+                + ",\"evictions\":" + evictions.sum() + "}";
+        }
+    }
+}
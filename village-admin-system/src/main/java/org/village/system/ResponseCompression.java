@@ -0,0 +1,108 @@
+package org.village.system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Accept-Encoding aware response writer. bodies under HTTP_GZIP_MIN_BYTES go out as-is;
+// callers that pass a cache key get the gzip body from a byte-bounded LRU when the raw bytes are unchanged.
+final class ResponseCompression {
+    private ResponseCompression() {}
+
+    static final int MIN_BYTES = WorkerPools.envInt("HTTP_GZIP_MIN_BYTES", 1024);
+    private static final long CACHE_MAX_BYTES = WorkerPools.envInt("HTTP_GZIP_CACHE_KB", 16 * 1024) * 1024L;
+
+    private static final Object LOCK = new Object();
+    private static final LinkedHashMap<String, Entry> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private static final class Entry {
+        final byte[] raw;
+        final byte[] gz;
+        Entry(byte[] raw, byte[] gz){ this.raw = raw; this.gz = gz; }
+        long size(){ return raw.length + gz.length; }
+    }
+
+    static void write(Exchange ex, int status, String contentType, byte[] body, String cacheKey) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        // an error must not carry the validator computed for the successful representation
+        if (status >= 400) ex.getResponseHeaders().remove("ETag");
+        byte[] out = body;
+        if (body.length >= MIN_BYTES && status != 204 && status != 304){
+            ex.getResponseHeaders().add("Vary", "Accept-Encoding");
+            if (acceptsGzip(ex)){
+                out = cacheKey == null ? gzip(body, Deflater.BEST_SPEED) : cachedGzip(cacheKey, body);
+                ex.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+        }
+        if (status == 204 || status == 304){
+            ex.sendResponseHeaders(status, -1);
+            ex.close();
+            return;
+        }
+        ex.sendResponseHeaders(status, out.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(out); }
+    }
+
+    static boolean acceptsGzip(Exchange ex){
+        List<String> values = ex.getRequestHeaders().get("Accept-Encoding");
+        if (values == null) return false;
+        for (String v : values){
+            int i = 0, len = v.length();
+            while (i < len){
+                int end = v.indexOf(',', i);
+                if (end < 0) end = len;
+                int semi = v.indexOf(';', i);
+                int tokenEnd = semi >= 0 && semi < end ? semi : end;
+                String token = v.substring(i, tokenEnd).trim();
+                if (token.equalsIgnoreCase("gzip") || token.equals("*")){
+                    return semi < 0 || semi >= end || !isZeroQ(v.substring(semi + 1, end));
+                }
+                i = end + 1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQ(String params){
+        String p = params.trim();
+        if (!p.startsWith("q=")) return false;
+        try { return Double.parseDouble(p.substring(2).trim()) == 0; } catch (NumberFormatException e) { return false; }
+    }
+
+    private static byte[] cachedGzip(String key, byte[] raw) throws IOException {
+        synchronized (LOCK){
+            Entry e = CACHE.get(key);
+            if (e != null && Arrays.equals(e.raw, raw)) return e.gz;
+        }
+        // deflated once at full strength, then served from memory until the payload changes
+        Entry fresh = new Entry(raw, gzip(raw, Deflater.BEST_COMPRESSION));
+        if (fresh.size() > CACHE_MAX_BYTES / 4) return fresh.gz;
+        synchronized (LOCK){
+            Entry old = CACHE.put(key, fresh);
+            if (old != null) cachedBytes -= old.size();
+            cachedBytes += fresh.size();
+            Iterator<Map.Entry<String, Entry>> it = CACHE.entrySet().iterator();
+            while (cachedBytes > CACHE_MAX_BYTES && it.hasNext()){
+                cachedBytes -= it.next().getValue().size();
+                it.remove();
+            }
+        }
+        return fresh.gz;
+    }
+
+    static byte[] gzip(byte[] raw, final int level) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(bout, 8192) { { def.setLevel(level); } }) {
+            gz.write(raw);
+        }
+        return bout.toByteArray();
+    }
+}
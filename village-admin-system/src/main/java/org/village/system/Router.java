@@ -0,0 +1,253 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.village.system.WorkerPools.RouteClass;
+
+// route table compiled once into a segment trie. patterns look like /api/users/{id:int};
+// matching walks the raw path in place (no regex, no split) and only allocates the boxed path params.
+final class Router implements Handler {
+    private static final byte[] NOT_FOUND = "{\"error\":\"not found\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INVALID_ID = "invalid id".getBytes(StandardCharsets.UTF_8);
+
+    private final WorkerPools workers;
+    private final List<Middleware> middleware = new ArrayList<>();
+    private final List<Middleware> admission = new ArrayList<>();
+    private final List<Route> routes = new ArrayList<>();
+    private final Node root = new Node();
+    private Route fallback;
+
+    Router(WorkerPools workers){
+        this.workers = workers;
+    }
+
+    // middleware runs in registration order, outermost first; must be added before routes
+    Router use(Middleware m){
+        if (!routes.isEmpty()) throw new IllegalStateException("middleware must be registered before routes");
+        middleware.add(m);
+        return this;
+    }
+
+    // like use(), but runs on the accepting thread in front of the bulkhead: a request turned away here never takes a
+    // queue slot or a worker. must be cheap and never block
+    Router admission(Middleware m){
+        if (!routes.isEmpty()) throw new IllegalStateException("admission must be registered before routes");
+        admission.add(m);
+        return this;
+    }
+
+    Router add(String pattern, RouteClass cls, Handler handler){
+        Route route = compile(pattern, cls, handler);
+
+        Node n = root;
+        for (String seg : segments(pattern)){
+            if (seg.startsWith("{") && seg.endsWith("}")){
+                String spec = seg.substring(1, seg.length() - 1);
+                int colon = spec.indexOf(':');
+                String name = colon < 0 ? spec : spec.substring(0, colon);
+                ParamType type = colon < 0 ? ParamType.STRING : ParamType.of(spec.substring(colon + 1));
+                if (n.param == null){
+                    n.param = new Node();
+                    n.paramName = name;
+                    n.paramType = type;
+                } else if (!n.paramName.equals(name) || n.paramType != type){
+                    throw new IllegalArgumentException("conflicting path param at " + pattern);
+                }
+                n = n.param;
+            } else {
+                n = n.literal(seg);
+            }
+        }
+        if (n.route != null) throw new IllegalArgumentException("duplicate route " + pattern);
+        n.route = route;
+        routes.add(route);
+        return this;
+    }
+
+    // everything outside /api that no route matched, e.g. the frontend files
+    Router fallback(RouteClass cls, Handler handler){
+        if (fallback != null) throw new IllegalStateException("fallback already set");
+        fallback = compile("/**", cls, handler);
+        routes.add(fallback);
+        return this;
+    }
+
+    private Route compile(String pattern, RouteClass cls, Handler handler){
+        Route route = new Route(pattern, cls);
+        Handler h = handler;
+        for (int i = middleware.size() - 1; i >= 0; i--) h = middleware.get(i).wrap(route, h);
+        Handler d = workers.route(cls, h);
+        for (int i = admission.size() - 1; i >= 0; i--) d = admission.get(i).wrap(route, d);
+        route.dispatch = d;
+        return route;
+    }
+
+    @Override
+    public void handle(Exchange ex) throws IOException {
+        String path = ex.getRequestURI().getRawPath();
+        Node n = root;
+        int len = path.length();
+        int i = 0;
+        while (n != null){
+            while (i < len && path.charAt(i) == '/') i++;
+            if (i >= len) break;
+            int end = path.indexOf('/', i);
+            if (end < 0) end = len;
+            Node next = n.matchLiteral(path, i, end);
+            if (next == null && n.param != null){
+                Object value = n.paramType.parse(path, i, end);
+                if (value == null){ reply(ex, 400, "text/plain; charset=utf-8", INVALID_ID); return; }
+                ex.setAttribute(n.paramName, value);
+                next = n.param;
+            }
+            n = next;
+            i = end;
+        }
+        if (n == null || n.route == null){
+            if (fallback != null && !path.equals("/api") && !path.startsWith("/api/")){ fallback.dispatch.handle(ex); return; }
+            reply(ex, 404, "application/json; charset=utf-8", NOT_FOUND);
+            return;
+        }
+        n.route.dispatch.handle(ex);
+    }
+
+    static int pathInt(Exchange ex, String name){
+        return (Integer) ex.getAttribute(name);
+    }
+
+    static String pathString(Exchange ex, String name){
+        return (String) ex.getAttribute(name);
+    }
+
+    String statsJson(){
+        StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (Route r : routes){
+            if (!first) sb.append(','); first = false;
+            long count = r.count.sum();
+            sb.append("{\"route\":\"").append(r.pattern).append("\",\"pool\":\"").append(r.routeClass.name().toLowerCase())
+              .append("\",\"count\":").append(count)
+              .append(",\"errors\":").append(r.errors.sum())
+              .append(",\"avg_ms\":").append(count == 0 ? 0 : r.nanos.sum() / count / 1_000_000.0)
+              .append(",\"max_ms\":").append(r.maxNanos.get() / 1_000_000.0)
+              .append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void reply(Exchange ex, int status, String type, byte[] body) throws IOException {
+        try {
+            ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            ex.getResponseHeaders().set("Content-Type", type);
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static List<String> segments(String pattern){
+        List<String> out = new ArrayList<>();
+        int i = 0, len = pattern.length();
+        while (i < len){
+            while (i < len && pattern.charAt(i) == '/') i++;
+            if (i >= len) break;
+            int end = pattern.indexOf('/', i);
+            if (end < 0) end = len;
+            out.add(pattern.substring(i, end));
+            i = end;
+        }
+        return out;
+    }
+
+    interface Middleware {
+        Handler wrap(Route route, Handler next);
+    }
+
+    static final class Route {
+        final String pattern;
+        final RouteClass routeClass;
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        Handler dispatch;
+
+        Route(String pattern, RouteClass routeClass){
+            this.pattern = pattern;
+            this.routeClass = routeClass;
+        }
+
+        void record(long elapsedNanos, boolean error){
+            count.increment();
+            nanos.add(elapsedNanos);
+            if (error) errors.increment();
+            long max;
+            while (elapsedNanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, elapsedNanos)) { /* retry */ }
+        }
+    }
+
+    enum ParamType {
+        INT {
+            Object parse(String s, int from, int to){
+                int n = to - from;
+                if (n == 0 || n > 10) return null;
+                long v = 0;
+                for (int i = from; i < to; i++){
+                    char c = s.charAt(i);
+                    if (c < '0' || c > '9') return null;
+                    v = v * 10 + (c - '0');
+                }
+                return v > Integer.MAX_VALUE ? null : Integer.valueOf((int) v);
+            }
+        },
+        STRING {
+            Object parse(String s, int from, int to){ return s.substring(from, to); }
+        };
+
+        abstract Object parse(String s, int from, int to);
+
+        static ParamType of(String name){
+            if ("int".equals(name)) return INT;
+            if ("string".equals(name)) return STRING;
+            throw new IllegalArgumentException("unknown path param type " + name);
+        }
+    }
+
+    private static final class Node {
+        String[] literalKeys = new String[0];
+        Node[] literalNodes = new Node[0];
+        Node param;
+        String paramName;
+        ParamType paramType;
+        Route route;
+
+        Node literal(String seg){
+            for (int i = 0; i < literalKeys.length; i++) if (literalKeys[i].equals(seg)) return literalNodes[i];
+            int n = literalKeys.length;
+            String[] keys = new String[n + 1];
+            Node[] nodes = new Node[n + 1];
+            System.arraycopy(literalKeys, 0, keys, 0, n);
+            System.arraycopy(literalNodes, 0, nodes, 0, n);
+            keys[n] = seg;
+            nodes[n] = new Node();
+            literalKeys = keys;
+            literalNodes = nodes;
+            return nodes[n];
+        }
+
+        Node matchLiteral(String path, int from, int to){
+            int len = to - from;
+            for (int i = 0; i < literalKeys.length; i++){
+                String k = literalKeys[i];
+                if (k.length() == len && path.regionMatches(from, k, 0, len)) return literalNodes[i];
+            }
+            return null;
+        }
+    }
+}
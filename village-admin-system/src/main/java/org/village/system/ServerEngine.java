@@ -0,0 +1,26 @@
+package org.village.system;
+
+import java.io.IOException;
+
+// the HTTP server underneath the router, chosen with HTTP_ENGINE: "jdk" (com.sun.net.httpserver, default)
+// or "nio" (NioEngine: selector-driven keep-alive connections with pipelined request parsing)
+interface ServerEngine {
+    void start(Handler root) throws IOException;
+
+    // actual bound port, useful when started on port 0
+    int port();
+
+    void stop();
+
+    String name();
+
+    static ServerEngine create(String name, int port){
+        if (name == null || name.isEmpty() || "jdk".equalsIgnoreCase(name)) return new JdkEngine(port);
+        if ("nio".equalsIgnoreCase(name)) return new NioEngine(port);
+        throw new IllegalArgumentException("unknown HTTP_ENGINE " + name);
+    }
+
+    static ServerEngine fromEnv(int port){
+        return create(System.getenv("HTTP_ENGINE"), port);
+    }
+}
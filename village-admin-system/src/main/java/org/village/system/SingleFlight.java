@@ -0,0 +1,186 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.village.system.WorkerPools.RouteClass;
+
+// identical GETs that arrive while one is already running wait for it and get a copy of its response instead of
+// running the same query again. the first request (the leader) streams to its own client as usual while a copy of
+// the bytes is kept; followers replay that copy. the flight is gone as soon as the leader finishes, and the key
+// carries the versions (TableVersions) of the tables the route reads, taken when the request arrived, so a request
+// that comes in after a write to one of them never joins a flight that may have read from before it: no staleness,
+// only sharing of work already in progress. routes registered without reads() key on the global write epoch.
+// key: table versions, path, sorted query, and every request header that can change the response (auth scope,
+// encoding, format, validators). CRUD and EXPORT routes only; AUTH/AI answers are per call (captchas, model output).
+// followers hold a worker while they wait, so at most half of a route class's workers (HTTP_COALESCE_MAX_WAITERS)
+// wait at once, each for at most HTTP_COALESCE_WAIT_MS; the others run the request themselves.
+final class SingleFlight {
+    private static final String[] KEY_HEADERS = { "Authorization", "Accept", "Accept-Encoding", "If-None-Match" };
+
+    private final WorkerPools workers;
+    private final int maxBytes;
+    private final long waitMillis;
+    // 0: half the route class's workers
+    private final int maxWaiters;
+    private final Map<String, String[]> reads = new HashMap<>();
+    private final Map<RouteClass, Semaphore> waiting = new EnumMap<>(RouteClass.class);
+    private final ConcurrentHashMap<String, Flight> inflight = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder oversize = new LongAdder();
+    private final LongAdder crowded = new LongAdder();
+
+    SingleFlight(WorkerPools workers, int maxBytes, long waitMillis, int maxWaiters){
+        this.workers = workers;
+        this.maxBytes = maxBytes;
+        this.waitMillis = waitMillis;
+        this.maxWaiters = maxWaiters;
+    }
+
+    static SingleFlight fromEnv(WorkerPools workers){
+        return new SingleFlight(workers, WorkerPools.envInt("HTTP_COALESCE_MAX_KB", 4 * 1024) * 1024,
+            Math.max(0, WorkerPools.envInt("HTTP_COALESCE_WAIT_MS", 5_000)), Math.max(0, WorkerPools.envInt("HTTP_COALESCE_MAX_WAITERS", 0)));
+    }
+
+    // the tables a route's GET reads, as in its ETag / ResponseCache ticket; before the route is added to the router
+    SingleFlight reads(String pattern, String... tables){
+        reads.put(pattern, tables);
+        return this;
+    }
+
+    private static final class Captured {
+        final int status;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+
+        Captured(int status, Map<String, List<String>> headers, byte[] body){
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        // null when the leader failed or its body was too large to keep
+        volatile Captured result;
+    }
+
+    Router.Middleware middleware(){
+        return (route, next) -> {
+            if (route.routeClass != RouteClass.CRUD && route.routeClass != RouteClass.EXPORT) return next;
+            String[] tables = reads.get(route.pattern);
+            Semaphore waiters = waiters(route.routeClass);
+            return ex -> {
+                // batch parts read their own snapshot and must not borrow another one
+                if (!"GET".equals(ex.getRequestMethod()) || ex.getAttribute(Batch.ATTR) != null){ next.handle(ex); return; }
+                String key = key(ex, tables);
+                Flight mine = new Flight();
+                Flight running = inflight.putIfAbsent(key, mine);
+                if (running == null) lead(key, mine, ex, next);
+                else if (waiters.tryAcquire()){
+                    try { follow(running, ex, next); } finally { waiters.release(); }
+                } else {
+                    // enough workers are parked on flights already; this one stays useful
+                    crowded.increment();
+                    next.handle(ex);
+                }
+            };
+        };
+    }
+
+    private synchronized Semaphore waiters(RouteClass cls){
+        Semaphore s = waiting.get(cls);
+        if (s == null){
+            s = new Semaphore(maxWaiters > 0 ? maxWaiters : Math.max(1, workers.threads(cls) / 2));
+            waiting.put(cls, s);
+        }
+        return s;
+    }
+
+    private void lead(String key, Flight f, Exchange ex, Handler next) throws IOException {
+        leaders.increment();
+        // too much to copy: let the followers start their own instead of waiting for the whole stream
+        TeeExchange tee = new TeeExchange(ex, maxBytes, () -> {
+            oversize.increment();
+            release(key, f);
+        });
+        try {
+            next.handle(tee);
+            if (tee.captured()) f.result = new Captured(tee.status(), tee.headers(), tee.body());
+        } finally {
+            release(key, f);
+        }
+    }
+
+    private void release(String key, Flight f){
+        inflight.remove(key, f);
+        f.done.countDown();
+    }
+
+    private void follow(Flight f, Exchange ex, Handler next) throws IOException {
+        try {
+            f.done.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Captured c = f.result;
+        if (c == null){
+            // leader failed, timed out or is streaming too much to copy: do the work ourselves
+            fallbacks.increment();
+            next.handle(ex);
+            return;
+        }
+        merged.increment();
+        HttpHeaders h = ex.getResponseHeaders();
+        for (Map.Entry<String, List<String>> e : c.headers.entrySet()) h.put(e.getKey(), new ArrayList<>(e.getValue()));
+        if (c.body.length == 0){
+            ex.sendResponseHeaders(c.status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(c.status, c.body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(c.body); }
+    }
+
+    private static String key(Exchange ex, String[] tables){
+        URI uri = ex.getRequestURI();
+        // read first: a write acknowledged before this request arrived has bumped them already
+        StringBuilder sb = new StringBuilder(128);
+        if (tables == null) sb.append('*').append(TableVersions.epoch());
+        else for (String t : tables) sb.append(TableVersions.version(t)).append(',');
+        sb.append(' ').append(uri.getRawPath()).append('?');
+        String q = uri.getRawQuery();
+        if (q != null && !q.isEmpty()){
+            // parameter order never changes the answer (filters are ANDed, see ListQuery)
+            String[] parts = q.split("&");
+            Arrays.sort(parts);
+            for (String p : parts) if (!p.isEmpty()) sb.append(p).append('&');
+        }
+        HttpHeaders h = ex.getRequestHeaders();
+        for (String name : KEY_HEADERS){
+            List<String> v = h.get(name);
+            sb.append('\n');
+            if (v != null) sb.append(v);
+        }
+        return sb.toString();
+    }
+
+    String statsJson(){
+        return "{\"leaders\":" + leaders.sum() + ",\"merged\":" + merged.sum() + ",\"fallbacks\":" + fallbacks.sum()
+            + ",\"oversize\":" + oversize.sum() + ",\"crowded\":" + crowded.sum() + ",\"inflight\":" + inflight.size()
+            + ",\"max_bytes\":" + maxBytes + ",\"wait_ms\":" + waitMillis + "}";
+    }
+}
@@ -0,0 +1,422 @@
+package org.village.system;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import org.village.common.json.JsonWriter;
+
+// times every statement that runs through the wrapped DataSource and files it under its shape: the SQL with string
+// and number literals replaced by ? and IN lists folded to (...), so "WHERE id=7" and "WHERE id=8" (or IN lists of
+// any length) are one entry. per shape: executions, errors, rows, total/max time and a latency histogram. for a
+// query the time is the execute call plus every ResultSet.next(), i.e. what the driver spends fetching, not what
+// the handler spends writing rows out; it is recorded when the result set is exhausted or closed. statements over
+// DB_SLOW_MS are logged and the last ones kept for the report. at most DB_PROFILE_MAX_SHAPES shapes, the rest
+// count as "(other)". DB_PROFILE=0 leaves the DataSource unwrapped.
+final class SqlProfiler {
+    // histogram bucket upper bounds in microseconds; the last bucket is open
+    private static final long[] BOUNDS_US = {100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000};
+    private static final int SLOW_KEPT = 50;
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    private static final String OTHER = "(other)";
+
+    private final boolean enabled;
+    private final long slowNanos;
+    private final int maxShapes;
+    private final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<>();
+    // raw SQL -> shape, so constant strings are normalized once
+    private final ConcurrentHashMap<String, Shape> bySql = new ConcurrentHashMap<>();
+    // guarded by itself
+    private final ArrayDeque<String> slow = new ArrayDeque<>();
+    private final LongAdder slowCount = new LongAdder();
+    private volatile long since = System.currentTimeMillis();
+
+    SqlProfiler(boolean enabled, long slowMillis, int maxShapes){
+        this.enabled = enabled;
+        this.slowNanos = slowMillis * 1_000_000L;
+        this.maxShapes = maxShapes;
+    }
+
+    static SqlProfiler fromEnv(){
+        return new SqlProfiler(WorkerPools.envInt("DB_PROFILE", 1) != 0, Math.max(1, WorkerPools.envInt("DB_SLOW_MS", 200)),
+            Math.max(16, WorkerPools.envInt("DB_PROFILE_MAX_SHAPES", 1000)));
+    }
+
+    javax.sql.DataSource wrap(final javax.sql.DataSource target){
+        if (!enabled) return target;
+        return proxy(javax.sql.DataSource.class, (p, m, args) -> {
+            Object result = call(target, m, args);
+            if ("getConnection".equals(m.getName())) return proxy(java.sql.Connection.class, new Conn((java.sql.Connection) result));
+            return result;
+        });
+    }
+
+    static final class Shape {
+        final String sql;
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder[] buckets = new LongAdder[BOUNDS_US.length + 1];
+
+        Shape(String sql){
+            this.sql = sql;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long elapsedNanos, long rowCount, boolean error){
+            count.increment();
+            nanos.add(elapsedNanos);
+            rows.add(rowCount);
+            if (error) errors.increment();
+            long us = elapsedNanos / 1000;
+            int b = 0;
+            while (b < BOUNDS_US.length && us > BOUNDS_US[b]) b++;
+            buckets[b].increment();
+            long max;
+            while (elapsedNanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, elapsedNanos)) { /* retry */ }
+        }
+
+        // upper bound of the bucket holding the p-th percentile, capped at the max (which the open bucket reports)
+        double percentileMillis(double p){
+            long n = 0;
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) n += counts[i] = buckets[i].sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p * n), seen = 0;
+            for (int i = 0; i < BOUNDS_US.length; i++){
+                seen += counts[i];
+                if (seen >= rank) return Math.min(BOUNDS_US[i] / 1000.0, maxNanos.get() / 1_000_000.0);
+            }
+            return maxNanos.get() / 1_000_000.0;
+        }
+    }
+
+    Shape shape(String sql){
+        if (sql == null) sql = "";
+        Shape s = bySql.get(sql);
+        if (s != null) return s;
+        String norm = normalize(sql);
+        s = shapes.get(norm);
+        if (s == null){
+            if (shapes.size() >= maxShapes) norm = OTHER;
+            Shape fresh = new Shape(norm);
+            s = shapes.putIfAbsent(norm, fresh);
+            if (s == null) s = fresh;
+        }
+        // SQL built per request (IN lists, filters) would fill this up; those are normalized each time instead
+        if (bySql.size() < maxShapes * 4) bySql.put(sql, s);
+        return s;
+    }
+
+    // literals to ?, whitespace runs to one space, IN (?,?,..) to IN (...)
+    static String normalize(String sql){
+        StringBuilder sb = new StringBuilder(sql.length());
+        int n = sql.length();
+        for (int i = 0; i < n; ){
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"'){
+                int j = i + 1;
+                while (j < n){
+                    char d = sql.charAt(j);
+                    if (d == '\\'){ j += 2; continue; }
+                    if (d == c){
+                        if (j + 1 < n && sql.charAt(j + 1) == c){ j += 2; continue; }
+                        break;
+                    }
+                    j++;
+                }
+                sb.append('?');
+                i = j + 1;
+            } else if (c == '`'){
+                int j = sql.indexOf('`', i + 1);
+                if (j < 0) j = n - 1;
+                sb.append(sql, i, j + 1);
+                i = j + 1;
+            } else if (c >= '0' && c <= '9' && !identifierBefore(sb)){
+                int j = i + 1;
+                while (j < n && (Character.isLetterOrDigit(sql.charAt(j)) || sql.charAt(j) == '.')) j++;
+                sb.append('?');
+                i = j;
+            } else if (Character.isWhitespace(c)){
+                while (i < n && Character.isWhitespace(sql.charAt(i))) i++;
+                if (sb.length() > 0) sb.append(' ');
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') end--;
+        sb.setLength(end);
+        return IN_LIST.matcher(sb).replaceAll("IN (...)");
+    }
+
+    private static boolean identifierBefore(StringBuilder sb){
+        if (sb.length() == 0) return false;
+        char p = sb.charAt(sb.length() - 1);
+        return Character.isLetterOrDigit(p) || p == '_' || p == '$';
+    }
+
+    // one execution; queries stay open until their result set is done
+    private final class Exec {
+        final Shape shape;
+        long nanos;
+        long rows;
+        boolean done;
+
+        Exec(Shape shape, long nanos){
+            this.shape = shape;
+            this.nanos = nanos;
+        }
+
+        void finish(boolean error){
+            if (done) return;
+            done = true;
+            shape.record(nanos, rows, error);
+            if (nanos > slowNanos){
+                slowCount.increment();
+                String line = "{\"at\":" + System.currentTimeMillis() + ",\"ms\":" + nanos / 1_000_000.0 + ",\"rows\":" + rows
+                    + ",\"thread\":\"" + JsonWriter.escape(Thread.currentThread().getName()) + "\",\"sql\":\"" + JsonWriter.escape(shape.sql) + "\"}";
+                synchronized (slow){
+                    slow.addLast(line);
+                    if (slow.size() > SLOW_KEPT) slow.pollFirst();
+                }
+                System.err.println("[SLOW SQL] " + (nanos / 1_000_000) + "ms rows=" + rows + " " + shape.sql);
+            }
+        }
+    }
+
+    // a connection is used by one thread at a time, so the handlers below need no locking
+    private final class Conn implements InvocationHandler {
+        final java.sql.Connection target;
+        final List<Stmt> open = new ArrayList<>();
+
+        Conn(java.sql.Connection target){
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()){
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "close":
+                case "abort":
+                    // statements the handler forgot are closed underneath us by the pool
+                    for (Stmt s : open) s.finishPending();
+                    open.clear();
+                    break;
+                default:
+                    break;
+            }
+            Object result = call(target, m, args);
+            if (result instanceof java.sql.Statement){
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Stmt s = new Stmt((java.sql.Statement) result, sql == null ? null : shape(sql), this);
+                open.add(s);
+                Class<?> type = result instanceof java.sql.CallableStatement ? java.sql.CallableStatement.class
+                    : result instanceof java.sql.PreparedStatement ? java.sql.PreparedStatement.class : java.sql.Statement.class;
+                return proxy(type, s);
+            }
+            return result;
+        }
+    }
+
+    private final class Stmt implements InvocationHandler {
+        final java.sql.Statement target;
+        // set for prepared statements; plain ones get it per execute
+        final Shape prepared;
+        final Conn conn;
+        Shape batch;
+        Exec pending;
+
+        Stmt(java.sql.Statement target, Shape prepared, Conn conn){
+            this.target = target;
+            this.prepared = prepared;
+            this.conn = conn;
+        }
+
+        void finishPending(){
+            if (pending != null) pending.finish(false);
+            pending = null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+            switch (name){
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "close":
+                    finishPending();
+                    conn.open.remove(this);
+                    return call(target, m, args);
+                case "addBatch":
+                    if (batch == null) batch = args != null && args.length > 0 ? shape((String) args[0]) : prepared;
+                    return call(target, m, args);
+                case "getResultSet":
+                    Object rs = call(target, m, args);
+                    return rs == null || pending == null ? rs : proxy(java.sql.ResultSet.class, new Rows((java.sql.ResultSet) rs, pending));
+                default:
+                    break;
+            }
+            if (!name.startsWith("execute")) return call(target, m, args);
+
+            // a new execution closes the previous result set
+            finishPending();
+            Shape shape;
+            if (name.endsWith("Batch")){
+                shape = batch != null ? batch : shape("(empty batch)");
+                batch = null;
+            } else {
+                shape = args != null && args.length > 0 && args[0] instanceof String ? shape((String) args[0]) : prepared;
+                if (shape == null) shape = shape("");
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = call(target, m, args);
+            } catch (Throwable t) {
+                new Exec(shape, System.nanoTime() - start).finish(true);
+                throw t;
+            }
+            Exec exec = new Exec(shape, System.nanoTime() - start);
+            if (result instanceof java.sql.ResultSet){
+                pending = exec;
+                return proxy(java.sql.ResultSet.class, new Rows((java.sql.ResultSet) result, exec));
+            }
+            if (Boolean.TRUE.equals(result)){
+                // execute() that produced a result set: fetched through getResultSet()
+                pending = exec;
+                return result;
+            }
+            exec.rows = affected(result);
+            exec.finish(false);
+            return result;
+        }
+    }
+
+    private static long affected(Object result){
+        if (result instanceof Integer || result instanceof Long) return Math.max(0, ((Number) result).longValue());
+        long n = 0;
+        if (result instanceof int[]) for (int x : (int[]) result) n += Math.max(0, x);
+        if (result instanceof long[]) for (long x : (long[]) result) n += Math.max(0, x);
+        return n;
+    }
+
+    private final class Rows implements InvocationHandler {
+        final java.sql.ResultSet target;
+        final Exec exec;
+
+        Rows(java.sql.ResultSet target, Exec exec){
+            this.target = target;
+            this.exec = exec;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()){
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "next": {
+                    long start = System.nanoTime();
+                    boolean more;
+                    try {
+                        more = (Boolean) call(target, m, args);
+                    } catch (Throwable t) {
+                        exec.nanos += System.nanoTime() - start;
+                        exec.finish(true);
+                        throw t;
+                    }
+                    exec.nanos += System.nanoTime() - start;
+                    if (more) exec.rows++;
+                    else exec.finish(false);
+                    return more;
+                }
+                case "close":
+                    exec.finish(false);
+                    return call(target, m, args);
+                default:
+                    return call(target, m, args);
+            }
+        }
+    }
+
+    private static Object call(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler h){
+        return type.cast(Proxy.newProxyInstance(SqlProfiler.class.getClassLoader(), new Class<?>[] { type }, h));
+    }
+
+    // the limit shapes with the most of sortKey: total, avg, max, p99, count, rows or errors
+    String report(String sortKey, int limit){
+        final Comparator<Shape> order;
+        switch (sortKey){
+            case "total": order = Comparator.comparingLong(s -> s.nanos.sum()); break;
+            case "avg": order = Comparator.comparingDouble(s -> s.count.sum() == 0 ? 0 : s.nanos.sum() / (double) s.count.sum()); break;
+            case "max": order = Comparator.comparingLong(s -> s.maxNanos.get()); break;
+            case "p99": order = Comparator.comparingDouble(s -> s.percentileMillis(0.99)); break;
+            case "count": order = Comparator.comparingLong(s -> s.count.sum()); break;
+            case "rows": order = Comparator.comparingLong(s -> s.rows.sum()); break;
+            case "errors": order = Comparator.comparingLong(s -> s.errors.sum()); break;
+            default: throw new IllegalArgumentException("unknown sort: " + sortKey + " (total, avg, max, p99, count, rows, errors)");
+        }
+        List<Shape> all = new ArrayList<>(shapes.values());
+        all.sort(order.reversed());
+        long statements = 0;
+        for (Shape s : all) statements += s.count.sum();
+
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"enabled\":").append(enabled).append(",\"since\":").append(since).append(",\"slow_ms\":").append(slowNanos / 1_000_000)
+          .append(",\"shapes\":").append(all.size()).append(",\"statements\":").append(statements).append(",\"slow_count\":").append(slowCount.sum())
+          .append(",\"sort\":\"").append(sortKey).append("\",\"buckets_ms\":[");
+        for (int i = 0; i < BOUNDS_US.length; i++) sb.append(i == 0 ? "" : ",").append(BOUNDS_US[i] / 1000.0);
+        sb.append("],\"top\":[");
+        for (int i = 0; i < Math.min(limit, all.size()); i++){
+            Shape s = all.get(i);
+            long n = s.count.sum();
+            long nanos = s.nanos.sum();
+            long rows = s.rows.sum();
+            if (i > 0) sb.append(',');
+            sb.append("{\"sql\":\"").append(JsonWriter.escape(s.sql)).append("\",\"count\":").append(n).append(",\"errors\":").append(s.errors.sum())
+              .append(",\"total_ms\":").append(nanos / 1_000_000.0).append(",\"avg_ms\":").append(n == 0 ? 0 : nanos / n / 1_000_000.0)
+              .append(",\"max_ms\":").append(s.maxNanos.get() / 1_000_000.0)
+              .append(",\"p50_ms\":").append(s.percentileMillis(0.5)).append(",\"p95_ms\":").append(s.percentileMillis(0.95)).append(",\"p99_ms\":").append(s.percentileMillis(0.99))
+              .append(",\"rows\":").append(rows).append(",\"avg_rows\":").append(n == 0 ? 0 : rows / (double) n).append(",\"histogram\":[");
+            for (int b = 0; b < s.buckets.length; b++) sb.append(b == 0 ? "" : ",").append(s.buckets[b].sum());
+            sb.append("]}");
+        }
+        sb.append("],\"recent_slow\":[");
+        synchronized (slow){
+            boolean first = true;
+            // newest first
+            for (Iterator<String> it = slow.descendingIterator(); it.hasNext(); first = false) sb.append(first ? "" : ",").append(it.next());
+        }
+        return sb.append("]}").toString();
+    }
+
+    void reset(){
+        shapes.clear();
+        bySql.clear();
+        synchronized (slow){ slow.clear(); }
+        slowCount.reset();
+        since = System.currentTimeMillis();
+    }
+}
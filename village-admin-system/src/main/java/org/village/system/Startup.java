@@ -0,0 +1,213 @@
+package org.village.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.village.system.WorkerPools.RouteClass;
+
+// the server binds first and brings the database up behind it: connect, migrate, then warm up, retried with backoff
+// (up to DB_BOOTSTRAP_MAX_BACKOFF_S) for as long as MySQL is unreachable. until that finishes, routes that need the
+// database are answered 503 + Retry-After at admission instead of queueing on a connection that isn't there;
+// /api/health/live says the process is up, /api/health/ready says traffic can come. warm-up sends the hot GETs through
+// the router HTTP_WARMUP_ROUNDS times (bounded by HTTP_WARMUP_MS): that fills the response cache, the dashboard
+// snapshot and the map, opens pooled connections and gets the handlers, JSON writer and gzip path compiled, so the
+// first real request doesn't pay for any of it. warm-up requests count in route and SQL statistics like others.
+final class Startup {
+    static final String WARMUP = "warmup";
+
+    enum Phase { CONNECTING, MIGRATING, WARMING, READY }
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private final long maxBackoffMillis;
+    private final int warmupRounds;
+    private final long warmupMillis;
+    private final long started = System.currentTimeMillis();
+    private volatile Phase phase = Phase.CONNECTING;
+    private volatile String lastError;
+    private volatile int attempts;
+    private volatile long readyAt;
+    private volatile int warmupRequests;
+    private volatile long warmupTook;
+    private final LongAdder turnedAway = new LongAdder();
+
+    Startup(long maxBackoffMillis, int warmupRounds, long warmupMillis){
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.warmupRounds = warmupRounds;
+        this.warmupMillis = warmupMillis;
+    }
+
+    static Startup fromEnv(){
+        return new Startup(Math.max(1, WorkerPools.envInt("DB_BOOTSTRAP_MAX_BACKOFF_S", 30)) * 1000L,
+            Math.max(0, WorkerPools.envInt("HTTP_WARMUP_ROUNDS", 30)), Math.max(0, WorkerPools.envInt("HTTP_WARMUP_MS", 15_000)));
+    }
+
+    boolean ready(){
+        return phase == Phase.READY;
+    }
+
+    // 503 for everything but the given patterns (and static files, event streams, CORS preflights) until ready.
+    // decided per route up front, so the check on the accepting thread is one volatile read
+    Router.Middleware admission(String... openPatterns){
+        final Set<String> open = new HashSet<>(Arrays.asList(openPatterns));
+        return (route, next) -> {
+            if (route.routeClass == RouteClass.STATIC || route.routeClass == RouteClass.STREAM || open.contains(route.pattern)) return next;
+            return ex -> {
+                if (phase == Phase.READY || "OPTIONS".equals(ex.getRequestMethod()) || ex.getAttribute(WARMUP) != null){ next.handle(ex); return; }
+                turnedAway.increment();
+                try {
+                    // in front of the cors middleware, so the browser can read the 503
+                    ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                    ex.getResponseHeaders().set("Retry-After", "2");
+                    json(ex, 503, "{\"error\":\"starting\",\"phase\":\"" + phase.name().toLowerCase() + "\"}");
+                } finally {
+                    ex.close();
+                }
+            };
+        };
+    }
+
+    // on a daemon thread; returns at once
+    void begin(final Task connect, final Task migrate, final Handler router, final String... warmupPaths){
+        Thread t = new Thread(() -> {
+            long backoff = 1000;
+            for (attempts = 1; ; attempts++){
+                try {
+                    phase = Phase.CONNECTING;
+                    connect.run();
+                    phase = Phase.MIGRATING;
+                    migrate.run();
+                    lastError = null;
+                    break;
+                } catch (Exception e) {
+                    lastError = e.getMessage();
+                    System.err.println("database not ready (attempt " + attempts + ", " + phase.name().toLowerCase() + "): " + e.getMessage()
+                        + "; retrying in " + backoff / 1000 + "s");
+                    try { Thread.sleep(backoff); } catch (InterruptedException ie) { return; }
+                    backoff = Math.min(maxBackoffMillis, backoff * 2);
+                }
+            }
+            phase = Phase.WARMING;
+            warmUp(router, warmupPaths);
+            readyAt = System.currentTimeMillis();
+            phase = Phase.READY;
+            System.out.println("ready after " + (readyAt - started) + " ms (warm-up: " + warmupRequests + " requests in " + warmupTook + " ms)");
+        }, "db-bootstrap");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // one request at a time, so warm-up never competes with itself for workers or connections
+    private void warmUp(Handler router, String[] paths){
+        long start = System.currentTimeMillis();
+        int n = 0;
+        outer:
+        for (int round = 0; round < warmupRounds; round++){
+            for (String path : paths){
+                if (System.currentTimeMillis() - start > warmupMillis) break outer;
+                // every other round asks for gzip so both encodings get compiled
+                Local ex = new Local(URI.create(path), round % 2 == 1);
+                try {
+                    router.handle(ex);
+                    if (!ex.done.await(30, TimeUnit.SECONDS)) break outer;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break outer;
+                } catch (Exception e) {
+                    // a failing route is the route's problem; warm-up goes on with the rest
+                }
+                n++;
+            }
+        }
+        warmupRequests = n;
+        warmupTook = System.currentTimeMillis() - start;
+    }
+
+    // GET /api/health/live
+    void live(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())){ ex.getResponseHeaders().set("Allow", "GET"); json(ex, 405, "{\"error\":\"method not allowed\"}"); return; }
+        json(ex, 200, "{\"status\":\"live\",\"uptime_ms\":" + (System.currentTimeMillis() - started) + "}");
+    }
+
+    // GET /api/health/ready
+    void ready(Exchange ex) throws IOException {
+        if (!"GET".equals(ex.getRequestMethod())){ ex.getResponseHeaders().set("Allow", "GET"); json(ex, 405, "{\"error\":\"method not allowed\"}"); return; }
+        if (!ready()) ex.getResponseHeaders().set("Retry-After", "2");
+        json(ex, ready() ? 200 : 503, statsJson());
+    }
+
+    String statsJson(){
+        String err = lastError;
+        Phase p = phase;
+        return "{\"status\":\"" + (p == Phase.READY ? "ready" : "starting") + "\",\"phase\":\"" + p.name().toLowerCase() + "\",\"attempts\":" + attempts
+            + ",\"ready_after_ms\":" + (p == Phase.READY ? readyAt - started : -1) + ",\"warmup_requests\":" + warmupRequests + ",\"warmup_ms\":" + warmupTook
+            + ",\"turned_away\":" + turnedAway.sum() + ",\"last_error\":" + (err == null ? "null" : "\"" + org.village.common.json.JsonWriter.escape(err) + "\"") + "}";
+    }
+
+    private static void json(Exchange ex, int status, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    // an in-process GET whose response is read and dropped
+    private static final class Local implements Exchange {
+        private static final InetSocketAddress LOOPBACK = new InetSocketAddress("127.0.0.1", 0);
+        private final URI uri;
+        private final HttpHeaders requestHeaders = new HttpHeaders();
+        private final HttpHeaders responseHeaders = new HttpHeaders();
+        private final Map<String, Object> attributes = new HashMap<>(4);
+        final CountDownLatch done = new CountDownLatch(1);
+        private volatile int status = -1;
+
+        Local(URI uri, boolean gzip){
+            this.uri = uri;
+            if (gzip) requestHeaders.set("Accept-Encoding", "gzip");
+            attributes.put(WARMUP, Boolean.TRUE);
+        }
+
+        @Override public String getRequestMethod(){ return "GET"; }
+        @Override public URI getRequestURI(){ return uri; }
+        @Override public HttpHeaders getRequestHeaders(){ return requestHeaders; }
+        @Override public InputStream getRequestBody(){ return new ByteArrayInputStream(new byte[0]); }
+        @Override public InetSocketAddress getRemoteAddress(){ return LOOPBACK; }
+        @Override public HttpHeaders getResponseHeaders(){ return responseHeaders; }
+        @Override public int getResponseCode(){ return status; }
+        @Override public synchronized Object getAttribute(String name){ return attributes.get(name); }
+        @Override public synchronized void setAttribute(String name, Object value){ attributes.put(name, value); }
+
+        @Override
+        public void sendResponseHeaders(int status, long length){
+            this.status = status;
+        }
+
+        @Override
+        public OutputStream getResponseBody(){
+            return new OutputStream() {
+                @Override public void write(int b){ }
+                @Override public void write(byte[] b, int off, int len){ }
+            };
+        }
+
+        // the worker closes the exchange once the handler returned
+        @Override
+        public void close(){
+            done.countDown();
+        }
+    }
+}
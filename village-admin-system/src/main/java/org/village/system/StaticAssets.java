@@ -0,0 +1,296 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// the frontend straight from the backend, replacing the separate static server. files are sent with
+// Exchange.sendFile (transferTo on the nio engine) and validated by a strong content-hash ETag. a sibling
+// <file>.gz written at build time (run main) is served to gzip clients; missing ones are made once into
+// HTTP_STATIC_GZ_DIR. requests carrying ?v=<hash> of the current content are immutable for a year, the rest
+// revalidate. single byte ranges (Range / If-Range) are honoured; unknown extensionless paths get index.html.
+final class StaticAssets implements Handler {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final Map<String, String> TYPES = new HashMap<>();
+    static {
+        TYPES.put("html", "text/html; charset=utf-8");
+        TYPES.put("js", "application/javascript; charset=utf-8");
+        TYPES.put("css", "text/css; charset=utf-8");
+        TYPES.put("json", "application/json; charset=utf-8");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("txt", "text/plain; charset=utf-8");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("woff2", "font/woff2");
+    }
+
+    private final Path root;
+    private final Path gzDir;
+    private final ConcurrentHashMap<Path, Asset> assets = new ConcurrentHashMap<>();
+
+    StaticAssets(Path root, Path gzDir){
+        this.root = root.toAbsolutePath().normalize();
+        this.gzDir = gzDir;
+    }
+
+    // null when HTTP_STATIC_DIR (default ./frontend) is not a directory; /api is then all there is
+    static StaticAssets fromEnv(){
+        String dir = System.getenv("HTTP_STATIC_DIR");
+        Path root = Paths.get(dir == null || dir.trim().isEmpty() ? "frontend" : dir.trim());
+        if (!Files.isDirectory(root)) return null;
+        String gz = System.getenv("HTTP_STATIC_GZ_DIR");
+        return new StaticAssets(root, Paths.get(gz == null || gz.trim().isEmpty() ? System.getProperty("java.io.tmpdir") + "/village-static" : gz.trim()));
+    }
+
+    private static final class Asset {
+        final Path file;
+        final long size;
+        final long modified;
+        final String hash;
+        final String type;
+        // null when no smaller gzip form exists
+        final Path gz;
+        final long gzSize;
+
+        Asset(Path file, long size, long modified, String hash, String type, Path gz, long gzSize){
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.type = type;
+            this.gz = gz;
+            this.gzSize = gzSize;
+        }
+    }
+
+    @Override
+    public void handle(Exchange ex) throws IOException {
+        String method = ex.getRequestMethod();
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)){
+            ex.getResponseHeaders().set("Allow", "GET, HEAD");
+            text(ex, 405, "Method Not Allowed");
+            return;
+        }
+        Asset a = lookup(ex.getRequestURI().getPath());
+        if (a == null){ text(ex, 404, "not found"); return; }
+
+        HttpHeaders h = ex.getResponseHeaders();
+        boolean gz = a.gz != null && ResponseCompression.acceptsGzip(ex);
+        String etag = "\"" + a.hash + (gz ? ".gz\"" : "\"");
+        h.set("Content-Type", a.type);
+        h.set("ETag", etag);
+        h.set("Accept-Ranges", "bytes");
+        h.set("Cache-Control", a.hash.equals(param(ex.getRequestURI().getRawQuery(), "v")) ? IMMUTABLE : "no-cache");
+        if (a.gz != null) h.add("Vary", "Accept-Encoding");
+        if (gz) h.set("Content-Encoding", "gzip");
+        if (matches(ex.getRequestHeaders().getFirst("If-None-Match"), etag)){
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+
+        long size = gz ? a.gzSize : a.size;
+        long start = 0, length = size;
+        int status = 200;
+        String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+        long[] range = ifRange == null || ifRange.trim().equals(etag) ? range(ex.getRequestHeaders().getFirst("Range"), size) : null;
+        if (range != null && range.length == 0){
+            h.set("Content-Range", "bytes */" + size);
+            text(ex, 416, "range not satisfiable");
+            return;
+        }
+        if (range != null){
+            start = range[0];
+            length = range[1] - range[0] + 1;
+            status = 206;
+            h.set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        if (head || length == 0){
+            ex.sendResponseHeaders(status, -1);
+            ex.close();
+            return;
+        }
+        // opened first so a vanished file still gets an error status; sendFile owns the channel from there on
+        FileChannel file = FileChannel.open(gz ? a.gz : a.file, StandardOpenOption.READ);
+        try {
+            ex.sendResponseHeaders(status, length);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        ex.sendFile(file, start, length);
+    }
+
+    private Asset lookup(String path) throws IOException {
+        if (path == null || path.isEmpty()) path = "/";
+        String rel = path.substring(1);
+        if (rel.isEmpty() || rel.endsWith("/")) rel += "index.html";
+        for (String seg : rel.split("/")){
+            // no traversal, no dot files, nothing a Windows path would read as a drive or separator
+            if (seg.isEmpty() || seg.startsWith(".") || seg.indexOf('\\') >= 0 || seg.indexOf(':') >= 0 || seg.indexOf('\0') >= 0) return null;
+        }
+        Path file = root.resolve(rel).normalize();
+        if (!file.startsWith(root)) return null;
+        if (Files.isDirectory(file)) file = file.resolve("index.html");
+        if (!Files.isRegularFile(file)){
+            // client-side routes: anything without an extension gets the app shell, like try_files ... /index.html
+            if (rel.substring(rel.lastIndexOf('/') + 1).indexOf('.') >= 0) return null;
+            file = root.resolve("index.html");
+            if (!Files.isRegularFile(file)) return null;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        Asset a = assets.get(file);
+        if (a != null && a.size == attrs.size() && a.modified == attrs.lastModifiedTime().toMillis()) return a;
+        // first request or the file changed on disk
+        a = load(file, attrs);
+        assets.put(file, a);
+        return a;
+    }
+
+    private Asset load(Path file, BasicFileAttributes attrs) throws IOException {
+        byte[] body = Files.readAllBytes(file);
+        String hash = hash(body);
+        String type = type(file);
+        long modified = attrs.lastModifiedTime().toMillis();
+        Path gz = null;
+        Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+        if (Files.isRegularFile(sibling) && Files.getLastModifiedTime(sibling).toMillis() >= modified){
+            gz = sibling;
+        } else if (compressible(type) && body.length >= ResponseCompression.MIN_BYTES){
+            gz = gzDir.resolve(hash + ".gz");
+            if (!Files.isRegularFile(gz)){
+                try {
+                    Files.createDirectories(gzDir);
+                    Path tmp = Files.createTempFile(gzDir, hash, ".tmp");
+                    Files.write(tmp, ResponseCompression.gzip(body, Deflater.BEST_COMPRESSION));
+                    Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    System.err.println("static gzip failed for " + file + ": " + e.getMessage());
+                    gz = null;
+                }
+            }
+        }
+        long gzSize = gz == null ? 0 : Files.size(gz);
+        // not worth a second representation
+        if (gz != null && gzSize >= body.length * 9L / 10){
+            gz = null;
+            gzSize = 0;
+        }
+        return new Asset(file, body.length, modified, hash, type, gz, gzSize);
+    }
+
+    private static String type(Path file){
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String t = dot < 0 ? null : TYPES.get(name.substring(dot + 1).toLowerCase());
+        return t == null ? "application/octet-stream" : t;
+    }
+
+    private static boolean compressible(String type){
+        return type.startsWith("text/") || type.startsWith("application/javascript") || type.startsWith("application/json") || type.equals("image/svg+xml");
+    }
+
+    private static String hash(byte[] body){
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder sb = new StringBuilder(20);
+            for (int i = 0; i < 10; i++) sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16)).append(Character.forDigit(d[i] & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean matches(String inm, String etag){
+        if (inm == null) return false;
+        for (String tag : inm.split(",")){
+            String t = tag.trim();
+            if (t.equals(etag) || t.equals("*")) return true;
+        }
+        return false;
+    }
+
+    // {first, last} of a single "bytes=" range; null for none, several or unparseable (send everything);
+    // an empty array when it can't be satisfied
+    static long[] range(String header, long size){
+        if (header == null || !header.startsWith("bytes=")) return null;
+        String spec = header.substring(6).trim();
+        if (spec.indexOf(',') >= 0) return null;
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()){
+                if (to.isEmpty()) return null;
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0 || size == 0) return new long[0];
+                return new long[] { Math.max(0, size - suffix), size - 1 };
+            }
+            long first = Long.parseLong(from);
+            long last = to.isEmpty() ? size - 1 : Long.parseLong(to);
+            if (first >= size) return new long[0];
+            if (last < first) return null;
+            return new long[] { first, Math.min(last, size - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String param(String rawQuery, String name){
+        if (rawQuery == null) return null;
+        for (String p : rawQuery.split("&")){
+            int eq = p.indexOf('=');
+            if (eq > 0 && p.substring(0, eq).equals(name)) return p.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void text(Exchange ex, int status, String msg) throws IOException {
+        ResponseCompression.write(ex, status, "text/plain; charset=utf-8", msg.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    // build step: writes <file>.gz next to every compressible file that lacks an up-to-date one.
+    // run: java -cp <classpath> org.village.system.StaticAssets frontend
+    public static void main(String[] args) throws IOException {
+        for (String dir : args.length == 0 ? new String[] { "frontend" } : args){
+            List<Path> files;
+            try (Stream<Path> s = Files.walk(Paths.get(dir))){
+                files = s.filter(Files::isRegularFile).filter(p -> !p.getFileName().toString().endsWith(".gz")).collect(Collectors.toList());
+            }
+            for (Path f : files){
+                if (!compressible(type(f)) || Files.size(f) < ResponseCompression.MIN_BYTES) continue;
+                Path gz = f.resolveSibling(f.getFileName() + ".gz");
+                if (Files.isRegularFile(gz) && Files.getLastModifiedTime(gz).compareTo(Files.getLastModifiedTime(f)) >= 0) continue;
+                try (InputStream in = Files.newInputStream(f);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz), 8192) { { def.setLevel(Deflater.BEST_COMPRESSION); } }) {
+                    byte[] buf = new byte[8192];
+                    for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+                }
+                System.out.println(f + ": " + Files.size(f) + " -> " + Files.size(gz) + " bytes");
+            }
+        }
+    }
+}
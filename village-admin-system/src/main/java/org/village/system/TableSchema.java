@@ -0,0 +1,123 @@
+package org.village.system;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.village.common.json.JsonWriter;
+
+// column whitelist for a list endpoint. specs read "field", "field:int" or "field=column[:int]",
+// where field is the JSON name the API exposes; nothing outside this list reaches SQL.
+// timed(field) names the row's event time: the column from/to filter on (see TimeRange, TemporalBackfill).
+final class TableSchema {
+    enum Type { INT, TEXT }
+
+    static final class Column {
+        final String field;
+        final String column;
+        final Type type;
+        final JsonWriter.Name name;
+
+        Column(String field, String column, Type type){
+            this.field = field;
+            this.column = column;
+            this.type = type;
+            this.name = JsonWriter.Name.of(field);
+        }
+    }
+
+    final String table;
+    final List<Column> columns;
+    final String select;
+    // the event time and its indexed DATETIME(3) shadow, or both null
+    final Column time;
+    final String timeShadow;
+    private final Map<String, Column> byField = new HashMap<>();
+
+    private TableSchema(String table, List<Column> columns, Column time){
+        this.table = table;
+        this.columns = Collections.unmodifiableList(columns);
+        this.time = time;
+        this.timeShadow = time == null ? null : time.column + "_ts";
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++){
+            Column c = columns.get(i);
+            if (i > 0) sb.append(',');
+            sb.append(c.column);
+            byField.put(c.field, c);
+        }
+        this.select = sb.append(" FROM ").append(table).toString();
+        if (!byField.containsKey("id")) throw new IllegalArgumentException(table + ": schema needs an id column");
+    }
+
+    static TableSchema of(String table, String... specs){
+        List<Column> cols = new ArrayList<>(specs.length);
+        for (String spec : specs){
+            Type type = Type.TEXT;
+            String s = spec;
+            int colon = s.indexOf(':');
+            if (colon >= 0){
+                if (!"int".equals(s.substring(colon + 1))) throw new IllegalArgumentException(table + ": unknown column type in " + spec);
+                type = Type.INT;
+                s = s.substring(0, colon);
+            }
+            int eq = s.indexOf('=');
+            cols.add(eq < 0 ? new Column(s, s, type) : new Column(s.substring(0, eq), s.substring(eq + 1), type));
+        }
+        return new TableSchema(table, cols, null);
+    }
+
+    // same columns, with field as the event time; only for columns written once, when the row is created
+    TableSchema timed(String field){
+        Column c = byField.get(field);
+        if (c == null || c.type != Type.TEXT) throw new IllegalArgumentException(table + ": no text column " + field);
+        return new TableSchema(table, new ArrayList<>(columns), c);
+    }
+
+    Column field(String name){
+        return byField.get(name);
+    }
+
+    // SELECT of just these columns, in this order
+    String select(List<Column> cols){
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < cols.size(); i++){
+            if (i > 0) sb.append(',');
+            sb.append(cols.get(i).column);
+        }
+        return sb.append(" FROM ").append(table).toString();
+    }
+
+    // one row of a result set selected with this.select, read by position; a NULL text column stays "" as the API always sent it
+    void writeRow(JsonWriter w, java.sql.ResultSet rs) throws IOException, java.sql.SQLException {
+        writeRow(w, rs, columns);
+    }
+
+    // same, for a result set whose first cols.size() columns are cols
+    void writeRow(JsonWriter w, java.sql.ResultSet rs, List<Column> cols) throws IOException, java.sql.SQLException {
+        w.beginObject();
+        for (int i = 0; i < cols.size(); i++){
+            w.name(cols.get(i).name);
+            writeValue(w, rs, i + 1, cols.get(i));
+        }
+        w.endObject();
+    }
+
+    // the row as a bare value array, for the columnar format
+    void writeValues(JsonWriter w, java.sql.ResultSet rs, List<Column> cols) throws IOException, java.sql.SQLException {
+        w.beginArray();
+        for (int i = 0; i < cols.size(); i++) writeValue(w, rs, i + 1, cols.get(i));
+        w.endArray();
+    }
+
+    private static void writeValue(JsonWriter w, java.sql.ResultSet rs, int index, Column c) throws IOException, java.sql.SQLException {
+        if (c.type == Type.INT){
+            w.value(rs.getInt(index));
+        } else {
+            String v = rs.getString(index);
+            w.value(v == null ? "" : v);
+        }
+    }
+}
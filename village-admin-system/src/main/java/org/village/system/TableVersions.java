@@ -0,0 +1,58 @@
+package org.village.system;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// monotonically increasing per-table write counters. write handlers bump after their statement succeeds,
+// readers derive strong ETags from them. the boot stamp keeps tags from one process from matching another's.
+final class TableVersions {
+    private TableVersions() {}
+
+    private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+    private static final ConcurrentHashMap<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+    private static final CopyOnWriteArrayList<Consumer<String>> LISTENERS = new CopyOnWriteArrayList<>();
+    // bumps of any table, for readers that can't tell which tables a response depends on
+    private static final AtomicLong EPOCH = new AtomicLong();
+
+    static long bump(String table){
+        long v = counter(table).incrementAndGet();
+        EPOCH.incrementAndGet();
+        for (Consumer<String> l : LISTENERS){
+            try { l.accept(table); } catch (RuntimeException e) { System.err.println("table listener failed: " + e); }
+        }
+        return v;
+    }
+
+    // called on the writing thread right after every bump; listeners must only note the change and return
+    static void listen(Consumer<String> listener){
+        LISTENERS.add(listener);
+    }
+
+    static long epoch(){
+        return EPOCH.get();
+    }
+
+    static long version(String table){
+        return counter(table).get();
+    }
+
+    private static AtomicLong counter(String table){
+        AtomicLong v = VERSIONS.get(table);
+        if (v == null){
+            AtomicLong created = new AtomicLong();
+            v = VERSIONS.putIfAbsent(table, created);
+            if (v == null) v = created;
+        }
+        return v;
+    }
+
+    // strong validator for a response that depends on the given tables and on the request target
+    static String etag(String target, String... tables){
+        StringBuilder sb = new StringBuilder(48).append('"').append(BOOT);
+        for (String t : tables) sb.append('.').append(version(t));
+        if (target != null && !target.isEmpty()) sb.append('.').append(Integer.toHexString(target.hashCode()));
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,140 @@
+package org.village.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// an exchange that answers the real client as usual and keeps a copy of status, headers and body on the side,
+// for middleware that wants to hand the same response to someone else later. bodies larger than maxBytes are not
+// kept (onOverflow runs once when that becomes clear). optionally replays an already read request body.
+final class TeeExchange implements Exchange {
+    private final Exchange ex;
+    private final int maxBytes;
+    private final Runnable onOverflow;
+    private final ByteArrayOutputStream copy = new ByteArrayOutputStream(4096);
+    private InputStream requestBody;
+    private Map<String, List<String>> headers;
+    private OutputStream body;
+    private boolean overflow;
+
+    TeeExchange(Exchange ex, int maxBytes, Runnable onOverflow){
+        this.ex = ex;
+        this.maxBytes = maxBytes;
+        this.onOverflow = onOverflow;
+    }
+
+    TeeExchange withRequestBody(byte[] b){
+        requestBody = new ByteArrayInputStream(b);
+        return this;
+    }
+
+    // true once headers went out and the whole body fit
+    boolean captured(){
+        return headers != null && !overflow;
+    }
+
+    int status(){
+        return ex.getResponseCode();
+    }
+
+    // the response headers as they were when sent
+    Map<String, List<String>> headers(){
+        return headers;
+    }
+
+    byte[] body(){
+        return copy.toByteArray();
+    }
+
+    @Override public String getRequestMethod(){ return ex.getRequestMethod(); }
+    @Override public URI getRequestURI(){ return ex.getRequestURI(); }
+    @Override public HttpHeaders getRequestHeaders(){ return ex.getRequestHeaders(); }
+    @Override public InputStream getRequestBody(){ return requestBody != null ? requestBody : ex.getRequestBody(); }
+    @Override public InetSocketAddress getRemoteAddress(){ return ex.getRemoteAddress(); }
+    @Override public HttpHeaders getResponseHeaders(){ return ex.getResponseHeaders(); }
+    @Override public int getResponseCode(){ return ex.getResponseCode(); }
+    @Override public Object getAttribute(String name){ return ex.getAttribute(name); }
+    @Override public void setAttribute(String name, Object value){ ex.setAttribute(name, value); }
+    @Override public void close(){ ex.close(); }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) throws IOException {
+        Map<String, List<String>> h = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> e : ex.getResponseHeaders().asMap().entrySet()) h.put(e.getKey(), new ArrayList<>(e.getValue()));
+        headers = h;
+        ex.sendResponseHeaders(status, length);
+    }
+
+    @Override
+    public OutputStream getResponseBody(){
+        if (body == null){
+            final OutputStream out = ex.getResponseBody();
+            body = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    keep(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    keep(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+        }
+        return body;
+    }
+
+    // cached bodies still leave through the engine's buffer path; the copy is taken from a second view
+    @Override
+    public void sendBody(ByteBuffer b) throws IOException {
+        ByteBuffer mine = b.duplicate();
+        ex.sendBody(b);
+        if (copy.size() + mine.remaining() > maxBytes){
+            keep(null, 0, mine.remaining());
+            return;
+        }
+        ResponseCache.copy(mine, new OutputStream() {
+            @Override
+            public void write(int x){
+                keep(new byte[] { (byte) x }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] x, int off, int len){
+                keep(x, off, len);
+            }
+        });
+    }
+
+    private void keep(byte[] b, int off, int len){
+        if (overflow) return;
+        if (copy.size() + len > maxBytes){
+            overflow = true;
+            copy.reset();
+            if (onOverflow != null) onOverflow.run();
+            return;
+        }
+        copy.write(b, off, len);
+    }
+}
@@ -0,0 +1,186 @@
+package org.village.system;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// event times are VARCHAR(64) strings from Instant.toString(), and the API sends them back exactly as stored, so
+// they stay; next to each one sits an indexed DATETIME(3) copy (<column>_ts, UTC) that range queries scan instead.
+// adding a nullable column and an index are online DDL in MySQL, so the migration is quick and blocks no writes;
+// the copies are filled here afterwards, off the request path: batches of DB_BACKFILL_BATCH rows in id order with
+// DB_BACKFILL_PAUSE_MS between them, resuming after the last id seen. new rows get theirs shortly after the insert
+// (TableVersions bump, debounced), rows written outside this process on the next hourly pass. a value that doesn't
+// parse keeps a NULL copy; TimeRange falls back to the string for those.
+final class TemporalBackfill {
+    private static final long DEBOUNCE_MILLIS = 200;
+    private static final long SWEEP_MILLIS = 3_600_000;
+
+    private static final class Target {
+        final TableSchema schema;
+        final String select;
+        final String update;
+        volatile boolean dirty = true;
+        // everything up to here was looked at; unparseable rows below it aren't read again until the next sweep.
+        // written by the worker thread only
+        volatile long after;
+        volatile long filled;
+        volatile long unparseable;
+
+        Target(TableSchema schema){
+            this.schema = schema;
+            this.select = "SELECT id," + schema.time.column + " FROM " + schema.table + " WHERE " + schema.timeShadow + " IS NULL AND id > ? ORDER BY id LIMIT ?";
+            this.update = "UPDATE " + schema.table + " SET " + schema.timeShadow + "=? WHERE id=? AND " + schema.timeShadow + " IS NULL";
+        }
+    }
+
+    private final Callable<java.sql.Connection> open;
+    private final int batch;
+    private final long pauseMillis;
+    private final List<Target> targets = new ArrayList<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "temporal-backfill");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean started;
+    private volatile long passes;
+    private volatile long lastMillis;
+    private volatile String lastError;
+
+    TemporalBackfill(Callable<java.sql.Connection> open, int batch, long pauseMillis, TableSchema... schemas){
+        this.open = open;
+        this.batch = batch;
+        this.pauseMillis = pauseMillis;
+        for (TableSchema s : schemas) if (s.time != null) targets.add(new Target(s));
+        TableVersions.listen(this::changed);
+    }
+
+    static TemporalBackfill fromEnv(Callable<java.sql.Connection> open, TableSchema... schemas){
+        return new TemporalBackfill(open, Math.max(1, WorkerPools.envInt("DB_BACKFILL_BATCH", 500)),
+            Math.max(0, WorkerPools.envInt("DB_BACKFILL_PAUSE_MS", 20)), schemas);
+    }
+
+    // the DDL for the shadow columns and their indexes, as migration steps
+    Migrations.Step[] migrationSteps(){
+        List<Migrations.Step> steps = new ArrayList<>();
+        for (Target t : targets){
+            steps.add(Migrations.addColumn(t.schema.table, t.schema.timeShadow + " DATETIME(3) NULL"));
+            steps.add(Migrations.addIndex(t.schema.table, "idx_" + t.schema.table + "_" + t.schema.timeShadow, t.schema.timeShadow));
+        }
+        return steps.toArray(new Migrations.Step[0]);
+    }
+
+    // once the columns exist (after migrating); returns at once
+    void start(){
+        if (started) return;
+        started = true;
+        worker.scheduleWithFixedDelay(() -> {
+            for (Target t : targets){
+                t.after = 0;
+                t.unparseable = 0;
+                t.dirty = true;
+            }
+            pass();
+        }, 0, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void changed(String table){
+        if (!started) return;
+        for (Target t : targets){
+            if (t.schema.table.equals(table)){
+                t.dirty = true;
+                if (scheduled.compareAndSet(false, true)){
+                    worker.schedule(() -> { scheduled.set(false); pass(); }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    // always on the worker thread
+    private void pass(){
+        long start = System.nanoTime();
+        try {
+            for (Target t : targets){
+                if (!t.dirty) continue;
+                // cleared first, so an insert that lands meanwhile brings us back
+                t.dirty = false;
+                try {
+                    while (fill(t)) if (pauseMillis > 0) Thread.sleep(pauseMillis);
+                } catch (Exception e) {
+                    t.dirty = true;
+                    throw e;
+                }
+            }
+            if (lastError != null) System.err.println("temporal backfill running again");
+            lastError = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (lastError == null) System.err.println("temporal backfill failed: " + e.getMessage());
+            lastError = e.getMessage();
+        }
+        passes++;
+        lastMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // one batch, on its own short transaction; false when the table is done
+    private boolean fill(Target t) throws Exception {
+        List<Long> ids = new ArrayList<>(batch);
+        List<String> values = new ArrayList<>(batch);
+        try (java.sql.Connection c = open.call()){
+            try (java.sql.PreparedStatement ps = c.prepareStatement(t.select)){
+                ps.setLong(1, t.after);
+                ps.setInt(2, batch);
+                try (java.sql.ResultSet rs = ps.executeQuery()){
+                    while (rs.next()){
+                        ids.add(rs.getLong(1));
+                        values.add(rs.getString(2));
+                    }
+                }
+            }
+            if (ids.isEmpty()) return false;
+            int updates = 0;
+            // one commit per batch
+            c.setAutoCommit(false);
+            try (java.sql.PreparedStatement ps = c.prepareStatement(t.update)){
+                for (int i = 0; i < ids.size(); i++){
+                    Instant at = TimeRange.parse(values.get(i));
+                    if (at == null){ t.unparseable++; continue; }
+                    ps.setString(1, TimeRange.utc(at));
+                    ps.setLong(2, ids.get(i));
+                    ps.addBatch();
+                    updates++;
+                }
+                if (updates > 0) ps.executeBatch();
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            t.filled += updates;
+            t.after = ids.get(ids.size() - 1);
+            return ids.size() == batch;
+        }
+    }
+
+    String statsJson(){
+        StringBuilder sb = new StringBuilder("{\"started\":").append(started).append(",\"batch\":").append(batch).append(",\"pause_ms\":").append(pauseMillis)
+            .append(",\"passes\":").append(passes).append(",\"last_ms\":").append(lastMillis).append(",\"tables\":[");
+        for (int i = 0; i < targets.size(); i++){
+            Target t = targets.get(i);
+            sb.append(i == 0 ? "" : ",").append("{\"table\":\"").append(t.schema.table).append("\",\"column\":\"").append(t.schema.time.column)
+              .append("\",\"shadow\":\"").append(t.schema.timeShadow).append("\",\"filled\":").append(t.filled)
+              .append(",\"unparseable\":").append(t.unparseable).append(",\"after_id\":").append(t.after).append(",\"pending\":").append(t.dirty).append('}');
+        }
+        String err = lastError;
+        return sb.append("],\"last_error\":").append(err == null ? "null" : "\"" + org.village.common.json.JsonWriter.escape(err) + "\"").append('}').toString();
+    }
+}
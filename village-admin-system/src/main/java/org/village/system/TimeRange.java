@@ -0,0 +1,135 @@
+package org.village.system;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import org.village.system.TableSchema.Column;
+
+// from/to on a table's event time: from inclusive, to exclusive, either one optional. accepted forms are an ISO
+// instant or offset date-time, a local date-time ('T' or space, read as UTC), a bare date (its midnight, UTC) and
+// epoch milliseconds. the scan runs on the indexed DATETIME(3) shadow column (see TemporalBackfill); rows the
+// backfill hasn't reached yet (shadow still NULL) are compared on the original string, so results never depend on
+// how far it got.
+final class TimeRange {
+    static final TimeRange NONE = new TimeRange(null, null, null, null);
+
+    private static final DateTimeFormatter UTC = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+
+    private final Column column;
+    private final String shadow;
+    final Instant from;
+    final Instant to;
+
+    private TimeRange(Column column, String shadow, Instant from, Instant to){
+        this.column = column;
+        this.shadow = shadow;
+        this.from = from;
+        this.to = to;
+    }
+
+    // invalid input throws IllegalArgumentException, which the error middleware turns into a 400
+    static TimeRange of(TableSchema schema, String from, String to){
+        boolean hasFrom = from != null && !from.isEmpty(), hasTo = to != null && !to.isEmpty();
+        if (!hasFrom && !hasTo) return NONE;
+        if (schema.time == null) throw new IllegalArgumentException("from/to: " + schema.table + " has no event time");
+        Instant f = hasFrom ? bound("from", from) : null;
+        Instant t = hasTo ? bound("to", to) : null;
+        return new TimeRange(schema.time, schema.timeShadow, f, t);
+    }
+
+    private static Instant bound(String name, String value){
+        Instant i = parse(value);
+        if (i == null) throw new IllegalArgumentException("invalid " + name + ": " + value);
+        // the shadow column keeps millis; cut the bound the same way so both comparisons agree
+        return i.truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    boolean isEmpty(){
+        return column == null;
+    }
+
+    // part of a plan key: which bounds are bound
+    String shape(){
+        return isEmpty() ? "" : (from != null ? "f" : "") + (to != null ? "t" : "");
+    }
+
+    String predicate(){
+        // Instant.toString() leaves out a zero fraction ("...:30Z" next to "...:30.5Z"), and 'Z' sorts after '.'.
+        // without the 'Z' the stored text orders like the instant it spells: a missing fraction is a prefix, and
+        // fraction digits compare left to right. the bounds are written the same way (see key())
+        String ts = shadow, s = "TRIM(TRAILING 'Z' FROM " + column.column + ")";
+        StringBuilder sb = new StringBuilder(96).append("((");
+        if (from != null) sb.append(ts).append(" >= ?");
+        if (from != null && to != null) sb.append(" AND ");
+        if (to != null) sb.append(ts).append(" < ?");
+        sb.append(") OR (").append(ts).append(" IS NULL");
+        if (from != null) sb.append(" AND ").append(s).append(" >= ?");
+        if (to != null) sb.append(" AND ").append(s).append(" < ?");
+        return sb.append("))").toString();
+    }
+
+    // sql with the predicate ANDed into its WHERE (or as one), ahead of any GROUP BY / ORDER BY
+    String apply(String sql){
+        if (isEmpty()) return sql;
+        int tail = sql.indexOf(" GROUP BY ");
+        if (tail < 0) tail = sql.indexOf(" ORDER BY ");
+        if (tail < 0) tail = sql.length();
+        String head = sql.substring(0, tail);
+        return head + (head.contains(" WHERE ") ? " AND " : " WHERE ") + predicate() + sql.substring(tail);
+    }
+
+    // binds the predicate's parameters from index i on; returns the next free index
+    int bind(java.sql.PreparedStatement ps, int i) throws java.sql.SQLException {
+        if (isEmpty()) return i;
+        // strings rather than Timestamps: the driver would shift those by the JVM's zone
+        if (from != null) ps.setString(i++, UTC.format(from));
+        if (to != null) ps.setString(i++, UTC.format(to));
+        if (from != null) ps.setString(i++, key(from));
+        if (to != null) ps.setString(i++, key(to));
+        return i;
+    }
+
+    // Instant.toString() without the 'Z' and without trailing zeros in the fraction: 2024-05-01T10:20:30.5
+    static String key(Instant i){
+        String s = i.toString();
+        s = s.substring(0, s.length() - 1);
+        if (s.indexOf('.') < 0) return s;
+        int end = s.length();
+        while (s.charAt(end - 1) == '0') end--;
+        if (s.charAt(end - 1) == '.') end--;
+        return s.substring(0, end);
+    }
+
+    // the value for a DATETIME(3) column holding UTC
+    static String utc(Instant i){
+        return UTC.format(i);
+    }
+
+    // null when the text is none of the accepted forms
+    static Instant parse(String s){
+        if (s == null) return null;
+        s = s.trim();
+        if (s.isEmpty()) return null;
+        try {
+            if (isDigits(s)) return s.length() >= 11 ? Instant.ofEpochMilli(Long.parseLong(s)) : null;
+            if (s.length() == 10) return LocalDate.parse(s).atStartOfDay().toInstant(ZoneOffset.UTC);
+            if (s.length() > 10 && s.charAt(10) == ' ') s = s.substring(0, 10) + 'T' + s.substring(11);
+            char last = s.charAt(s.length() - 1);
+            if (last == 'Z' || last == 'z') return Instant.parse(s.substring(0, s.length() - 1) + 'Z');
+            if (s.lastIndexOf('+') > 10 || s.lastIndexOf('-') > 10) return OffsetDateTime.parse(s).toInstant();
+            return LocalDateTime.parse(s).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isDigits(String s){
+        for (int i = 0; i < s.length(); i++) if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package org.village.system;
+
+import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+// one bulkhead per route class so slow AI calls or Argon2 logins cannot starve plain CRUD traffic.
+// sizes come from env: HTTP_<CLASS>_THREADS / HTTP_<CLASS>_QUEUE, e.g. HTTP_AI_THREADS=4
+final class WorkerPools {
+    enum RouteClass { CRUD, AUTH, AI, EXPORT, BATCH, STATIC, STREAM }
+
+    private final Map<RouteClass, Bulkhead> bulkheads = new EnumMap<>(RouteClass.class);
+    private final int retryAfterSeconds;
+
+    private WorkerPools(int retryAfterSeconds){
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    static WorkerPools fromEnv(){
+        int cores = Runtime.getRuntime().availableProcessors();
+        WorkerPools p = new WorkerPools(envInt("HTTP_RETRY_AFTER", 1));
+        p.add(RouteClass.CRUD, Math.max(4, cores * 2), 256);
+        // every Argon2 hash/verify holds 64 MB, keep this small
+        p.add(RouteClass.AUTH, Math.max(1, Math.min(cores, 2)), 32);
+        p.add(RouteClass.AI, 4, 16);
+        p.add(RouteClass.EXPORT, 2, 8);
+        // batch coordinators only wait on their parts; kept apart so they never hold the CRUD threads the parts need
+        p.add(RouteClass.BATCH, Math.max(2, cores), 32);
+        // frontend files: disk and socket bound, kept off the database pools
+        p.add(RouteClass.STATIC, Math.max(2, cores), 128);
+        // one thread per open event stream, mostly asleep; the thread count is the subscriber limit
+        p.add(RouteClass.STREAM, 64, 1);
+        return p;
+    }
+
+    private void add(RouteClass cls, int defThreads, int defQueue){
+        int threads = Math.max(1, envInt("HTTP_" + cls.name() + "_THREADS", defThreads));
+        int queue = Math.max(1, envInt("HTTP_" + cls.name() + "_QUEUE", defQueue));
+        bulkheads.put(cls, new Bulkhead(cls.name().toLowerCase(), threads, queue));
+    }
+
+    // hands the exchange to the bulkhead of its route class; sheds with 503 when that bulkhead is full
+    Handler route(RouteClass cls, Handler handler){
+        final Bulkhead bulkhead = bulkheads.get(cls);
+        return exchange -> {
+            boolean accepted = bulkhead.tryExecute(() -> {
+                try {
+                    handler.handle(exchange);
+                } catch (Throwable t) {
+                    System.err.println("handler error on " + exchange.getRequestURI() + ": " + t);
+                } finally {
+                    exchange.close();
+                }
+            });
+            if (!accepted) shed(exchange);
+        };
+    }
+
+    int threads(RouteClass cls){
+        return bulkheads.get(cls).threads();
+    }
+
+    private void shed(Exchange ex){
+        try {
+            byte[] b = "{\"error\":\"server busy\"}".getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            ex.sendResponseHeaders(503, b.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+        } catch (Exception ignored) {
+        } finally {
+            ex.close();
+        }
+    }
+
+    String toJson(){
+        StringBuilder sb = new StringBuilder("[");
+        boolean first = true;
+        for (Bulkhead b : bulkheads.values()){
+            if (!first) sb.append(','); first = false;
+            sb.append(b.toJson());
+        }
+        return sb.append(']').toString();
+    }
+
+    static int envInt(String name, int def){
+        String v = System.getenv(name);
+        if (v == null || v.trim().isEmpty()) return def;
+        try { return Integer.parseInt(v.trim()); } catch (NumberFormatException e) { return def; }
+    }
+}
@@ -0,0 +1,71 @@
+package org.village.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ChangeLogTest {
+    private static final TableSchema NOTES = TableSchema.of("cl_notes", "id:int", "text");
+    private static final TableSchema OTHER = TableSchema.of("cl_other", "id:int", "text");
+
+    // records the calls a commit makes; the INSERT fails when asked to
+    private static java.sql.Connection connection(List<String> calls, boolean failInsert){
+        return (java.sql.Connection) Proxy.newProxyInstance(ChangeLogTest.class.getClassLoader(), new Class<?>[]{ java.sql.Connection.class }, (c, m, a) -> {
+            switch (m.getName()){
+                case "prepareStatement":
+                    return Proxy.newProxyInstance(ChangeLogTest.class.getClassLoader(), new Class<?>[]{ java.sql.PreparedStatement.class }, (p, pm, pa) -> {
+                        if (pm.getName().equals("executeUpdate")){
+                            calls.add("insert");
+                            if (failInsert) throw new java.sql.SQLException("disk full");
+                            return 1;
+                        }
+                        return null;
+                    });
+                case "setAutoCommit": calls.add("autocommit=" + a[0]); return null;
+                case "commit": case "rollback": calls.add(m.getName()); return null;
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    @Test
+    void unknownTablesFailWhenResolved(){
+        ChangeLog log = new ChangeLog(() -> { throw new IllegalStateException("no database"); }, 100, 86_400_000L, NOTES);
+        assertThrows(IllegalArgumentException.class, () -> log.table(OTHER));
+        // same name, different schema: not the one registered
+        assertThrows(IllegalArgumentException.class, () -> log.table(TableSchema.of("cl_notes", "id:int")));
+        assertEquals("cl_notes", log.table(NOTES).name);
+    }
+
+    @Test
+    void commitLogsCommitsThenBumps() throws Exception {
+        ChangeLog.Table notes = new ChangeLog(() -> null, 100, 86_400_000L, NOTES).table(NOTES);
+        List<String> calls = new ArrayList<>();
+        long before = TableVersions.version("cl_notes");
+        notes.commit(connection(calls, false), 7, 'I');
+        assertEquals(Arrays.asList("insert", "commit", "autocommit=true"), calls);
+        assertEquals(before + 1, TableVersions.version("cl_notes"));
+
+        // no id: nothing to log, the write still commits
+        calls.clear();
+        notes.commit(connection(calls, false), -1, 'I');
+        assertEquals(Arrays.asList("commit", "autocommit=true"), calls);
+        assertEquals(before + 2, TableVersions.version("cl_notes"));
+    }
+
+    @Test
+    void failedLogInsertRollsTheWriteBack() throws Exception {
+        ChangeLog.Table notes = new ChangeLog(() -> null, 100, 86_400_000L, NOTES).table(NOTES);
+        List<String> calls = new ArrayList<>();
+        long before = TableVersions.version("cl_notes");
+        java.sql.SQLException e = assertThrows(java.sql.SQLException.class, () -> notes.commit(connection(calls, true), 7, 'U'));
+        assertEquals("disk full", e.getMessage());
+        assertEquals(Arrays.asList("insert", "rollback"), calls);
+        assertEquals(before, TableVersions.version("cl_notes"));
+    }
+}
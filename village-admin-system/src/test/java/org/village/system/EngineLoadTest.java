@@ -0,0 +1,166 @@
+package org.village.system;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// both engines behind the same router, driven by keep-alive clients on raw sockets so client-side HTTP
+// machinery doesn't blur the numbers. only routes that work without a database are hit.
+// run: java -cp <classpath> org.village.system.EngineLoadTest [seconds-per-engine] [connections]
+final class EngineLoadTest {
+    private EngineLoadTest() {}
+
+    private static final String[] REQUESTS = {
+        "GET /api HTTP/1.1\r\nHost: load\r\n\r\n",
+        "GET /api/ops/executors HTTP/1.1\r\nHost: load\r\nAccept-Encoding: gzip\r\n\r\n",
+        "OPTIONS /api/users HTTP/1.1\r\nHost: load\r\n\r\n",
+        "GET /api/no-such-route HTTP/1.1\r\nHost: load\r\n\r\n",
+    };
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        Router router = Application.buildRouter();
+        for (String engine : new String[] { "jdk", "nio" }){
+            ServerEngine server = ServerEngine.create(engine, 0);
+            server.start(router);
+            try {
+                // first pass warms the JIT and the pools
+                run(server.port(), connections, Math.max(1, seconds / 3));
+                Result r = run(server.port(), connections, seconds);
+                System.out.printf("%-4s %d conns: %,.0f req/s  p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  reconnects %d%n",
+                    engine, connections, r.count / (double) seconds, r.percentile(50), r.percentile(99), r.percentile(99.9), r.reconnects);
+            } finally {
+                server.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static final class Result {
+        long[] nanos = new long[1 << 16];
+        int count;
+        // connections lost mid-run; the jdk server hangs up after a bodiless 4xx, so it reconnects more
+        int reconnects;
+
+        void add(long n){
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = n;
+        }
+
+        void merge(Result o){
+            for (int i = 0; i < o.count; i++) add(o.nanos[i]);
+            reconnects += o.reconnects;
+        }
+
+        double percentile(double p){
+            if (count == 0) return 0;
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            int i = (int) Math.min(count - 1, Math.ceil(p / 100 * count) - 1);
+            return sorted[Math.max(0, i)] / 1e6;
+        }
+    }
+
+    private static Result run(int port, int connections, long seconds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        Result[] results = new Result[connections];
+        for (int t = 0; t < connections; t++){
+            final int id = t;
+            results[t] = new Result();
+            Thread th = new Thread(() -> client(port, id, stop, results[id]), "load-" + t);
+            threads.add(th);
+            th.start();
+        }
+        Thread.sleep(seconds * 1000);
+        stop.set(true);
+        for (Thread th : threads) th.join();
+        Result all = new Result();
+        for (Result r : results) all.merge(r);
+        return all;
+    }
+
+    private static void client(int port, int id, AtomicBoolean stop, Result result){
+        byte[][] reqs = new byte[REQUESTS.length][];
+        for (int i = 0; i < reqs.length; i++) reqs[i] = REQUESTS[i].getBytes(StandardCharsets.US_ASCII);
+        int n = id;
+        while (!stop.get()){
+            try (Socket s = new Socket()){
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress("127.0.0.1", port));
+                s.setSoTimeout(10_000);
+                OutputStream out = s.getOutputStream();
+                InputStream in = new BufferedInputStream(s.getInputStream(), 16 * 1024);
+                while (!stop.get()){
+                    long start = System.nanoTime();
+                    out.write(reqs[n++ % reqs.length]);
+                    out.flush();
+                    if (!readResponse(in)) break;
+                    result.add(System.nanoTime() - start);
+                }
+            } catch (IOException e) {
+                result.reconnects++;
+            }
+        }
+    }
+
+    // true when the connection can carry another request
+    private static boolean readResponse(InputStream in) throws IOException {
+        String status = line(in);
+        if (!status.startsWith("HTTP/1.1 ")) throw new IOException("bad status line: " + status);
+        int code = Integer.parseInt(status.substring(9, 12));
+        long length = -1;
+        boolean chunked = false;
+        boolean close = false;
+        for (String h = line(in); !h.isEmpty(); h = line(in)){
+            int colon = h.indexOf(':');
+            String name = h.substring(0, colon).trim();
+            String value = h.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) length = Long.parseLong(value);
+            else if (name.equalsIgnoreCase("Transfer-Encoding")) chunked = value.equalsIgnoreCase("chunked");
+            else if (name.equalsIgnoreCase("Connection")) close = value.equalsIgnoreCase("close");
+        }
+        if (chunked){
+            for (long size = Long.parseLong(line(in), 16); size > 0; size = Long.parseLong(line(in), 16)){
+                skip(in, size);
+                line(in);
+            }
+            line(in);
+        } else if (length > 0){
+            skip(in, length);
+        } else if (length < 0 && code != 204 && code != 304){
+            return false;
+        }
+        return !close;
+    }
+
+    private static String line(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n'){
+            if (c < 0) throw new IOException("connection closed");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0){
+            long k = in.skip(n);
+            if (k <= 0){
+                if (in.read() < 0) throw new IOException("connection closed");
+                k = 1;
+            }
+            n -= k;
+        }
+    }
+}
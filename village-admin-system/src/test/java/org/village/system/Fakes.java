@@ -0,0 +1,88 @@
+package org.village.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// in-memory stand-ins for the JDBC and HTTP pieces the tests drive; only what the code under test calls is there
+final class Fakes {
+    private Fakes() {}
+
+    // parameters as bound, by index
+    static final class Params {
+        final TreeMap<Integer, Object> values = new TreeMap<>();
+
+        java.sql.PreparedStatement statement(){
+            return (java.sql.PreparedStatement) Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{ java.sql.PreparedStatement.class }, (p, m, a) -> {
+                if (m.getName().equals("setInt") || m.getName().equals("setString")){
+                    values.put((Integer) a[0], a[1]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(m.getName());
+            });
+        }
+
+        List<Object> list(){
+            return Arrays.asList(values.values().toArray());
+        }
+    }
+
+    // rows over the given column names; read by label or by 1-based position
+    static java.sql.ResultSet rows(String[] columns, Object[]... rows){
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) index.put(columns[i], i);
+        int[] at = { -1 };
+        boolean[] wasNull = { false };
+        return (java.sql.ResultSet) Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{ java.sql.ResultSet.class }, (p, m, a) -> {
+            switch (m.getName()){
+                case "next": return ++at[0] < rows.length;
+                case "wasNull": return wasNull[0];
+                case "close": return null;
+                case "getInt":
+                case "getLong":
+                case "getString": {
+                    Object v = rows[at[0]][a[0] instanceof Integer ? (Integer) a[0] - 1 : index.get((String) a[0])];
+                    wasNull[0] = v == null;
+                    if (m.getName().equals("getString")) return v == null ? null : v.toString();
+                    if (m.getName().equals("getLong")) return v == null ? 0L : ((Number) v).longValue();
+                    return v == null ? 0 : ((Number) v).intValue();
+                }
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    static Exchange exchange(String method, String uri){
+        return new Exchange() {
+            private final HttpHeaders requestHeaders = new HttpHeaders();
+            private final HttpHeaders responseHeaders = new HttpHeaders();
+            private final Map<String, Object> attributes = new HashMap<>();
+            private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            private int status = -1;
+
+            @Override public String getRequestMethod(){ return method; }
+            @Override public URI getRequestURI(){ return URI.create(uri); }
+            @Override public HttpHeaders getRequestHeaders(){ return requestHeaders; }
+            @Override public InputStream getRequestBody(){ return new ByteArrayInputStream(new byte[0]); }
+            @Override public InetSocketAddress getRemoteAddress(){ return new InetSocketAddress("127.0.0.1", 0); }
+            @Override public HttpHeaders getResponseHeaders(){ return responseHeaders; }
+            @Override public void sendResponseHeaders(int code, long length){ status = code; }
+            @Override public OutputStream getResponseBody(){ return body; }
+            @Override public int getResponseCode(){ return status; }
+            @Override public Object getAttribute(String name){ return attributes.get(name); }
+            @Override public void setAttribute(String name, Object value){ attributes.put(name, value); }
+            @Override public void close(){}
+            @Override public String toString(){ return new String(body.toByteArray(), StandardCharsets.UTF_8); }
+        };
+    }
+}
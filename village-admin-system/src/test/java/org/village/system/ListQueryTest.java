@@ -0,0 +1,233 @@
+package org.village.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.village.common.json.JsonFields;
+import org.village.common.json.JsonWriter;
+import org.village.system.WorkerPools.RouteClass;
+
+// the plan cache is process-wide: the test that fills it runs last
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ListQueryTest {
+    private static final TableSchema ITEMS = TableSchema.of("items", "id:int", "name", "status", "score:int", "created_at").timed("created_at");
+    private static final String[] COLUMNS = { "id", "name", "status", "score", "created_at" };
+
+    private static String cursor(String plain){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // runs the query over rows and returns the response's next_cursor
+    private static String page(ListQuery q, Object[]... rows) throws Exception {
+        java.sql.ResultSet rs = Fakes.rows(COLUMNS, rows);
+        JsonWriter w = JsonWriter.buffered();
+        q.head(w);
+        while (q.next(rs)) q.writeRow(w, rs);
+        q.tail(w);
+        return JsonFields.parse(new String(w.toByteArray(), StandardCharsets.UTF_8)).string("next_cursor");
+    }
+
+    private static List<Object> bound(ListQuery q) throws Exception {
+        Fakes.Params p = new Fakes.Params();
+        q.bind(p.statement());
+        return p.list();
+    }
+
+    @Test
+    void defaultIsTheWholeTableNewestFirst() throws Exception {
+        ListQuery q = ListQuery.parse((String) null, ITEMS);
+        assertFalse(q.paged());
+        assertEquals("SELECT id,name,status,score,created_at FROM items ORDER BY id DESC", q.sql());
+        assertEquals(Arrays.asList(), bound(q));
+        assertEquals("items", q.cacheKey("items"));
+    }
+
+    @Test
+    void filtersAreTypedAndCanonicallyOrdered() throws Exception {
+        ListQuery q = ListQuery.parse("status!=done&score>=3&name=a%20b&score%3C10", ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE name = ? AND score >= ? AND score < ? AND status <> ? ORDER BY id DESC", q.sql());
+        assertEquals(Arrays.<Object>asList("a b", 3, 10, "done"), bound(q));
+        assertNull(q.cacheKey("items"));
+        assertThrows(IllegalArgumentException.class, () -> ListQuery.parse("score=abc", ITEMS));
+    }
+
+    @Test
+    void unknownFieldsAndOperatorsAreIgnored() throws Exception {
+        String plain = ListQuery.parse((String) null, ITEMS).sql();
+        // no such field, no operator, an operator the grammar doesn't have, an empty value, a cache-buster
+        for (String raw : Arrays.asList("nope=1", "owner>=3", "status", "status~x", "_=1700000000000", "status=", "&&", "=x")){
+            ListQuery q = ListQuery.parse(raw, ITEMS);
+            assertEquals(plain, q.sql(), raw);
+            assertEquals(Arrays.asList(), bound(q), raw);
+        }
+        // "==" is '=' with a value starting with '='
+        assertEquals(Arrays.<Object>asList("=x"), bound(ListQuery.parse("status==x", ITEMS)));
+    }
+
+    @Test
+    void reservedParametersAreChecked(){
+        for (String raw : Arrays.asList("sort=nope", "sort=-nope", "fields=id,nope", "fields=,", "format=xml", "limit=0", "limit=-1",
+                "limit=x", "limit>=5", "sort!=id", "from=yesterday", "to=2024-13-01", "status=%zz")){
+            assertThrows(IllegalArgumentException.class, () -> ListQuery.parse(raw, ITEMS), raw);
+        }
+        // empty values mean "not given"
+        ListQuery q = ListQuery.parse("sort=&fields=&format=&limit=&cursor=&from=&to=", ITEMS);
+        assertFalse(q.paged());
+        assertEquals(ListQuery.parse((String) null, ITEMS).sql(), q.sql());
+    }
+
+    @Test
+    void projectionAndSort() throws Exception {
+        ListQuery q = ListQuery.parse("fields=name,%20status,name&sort=score", ITEMS);
+        // id and the sort column are read for paging even when not asked for
+        assertEquals("SELECT name,status,id,score FROM items ORDER BY score ASC, id ASC", q.sql());
+        assertEquals("SELECT id,name,status,score,created_at FROM items ORDER BY id ASC", ListQuery.parse("sort=id", ITEMS).sql());
+    }
+
+    @Test
+    void limitIsCapped() throws Exception {
+        ListQuery q = ListQuery.parse("limit=100000", ITEMS);
+        assertTrue(q.paged());
+        assertEquals(Arrays.<Object>asList(ListQuery.MAX_LIMIT + 1), bound(q));
+    }
+
+    @Test
+    void lastPageHasNoCursor() throws Exception {
+        ListQuery q = ListQuery.parse("limit=2", ITEMS);
+        assertNull(page(q, new Object[]{ 9, "a", "x", 1, "t" }));
+    }
+
+    @Test
+    void idCursorRoundTrip() throws Exception {
+        String c = page(ListQuery.parse("limit=1", ITEMS), new Object[]{ 9, "a", "x", 1, "t" }, new Object[]{ 8, "b", "y", 2, "t" });
+        assertEquals(cursor("id:9"), c);
+        ListQuery next = ListQuery.parse("limit=1&cursor=" + c, ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE id < ? ORDER BY id DESC LIMIT ?", next.sql());
+        assertEquals(Arrays.<Object>asList(9, 2), bound(next));
+    }
+
+    @Test
+    void cursorRoundTripWithColonsInTheValue() throws Exception {
+        String c = page(ListQuery.parse("sort=-status&limit=1", ITEMS), new Object[]{ 7, "a", "a:b::c", 1, "t" }, new Object[]{ 6, "b", "a", 2, "t" });
+        assertEquals(cursor("status:7:a:b::c"), c);
+        ListQuery next = ListQuery.parse("sort=-status&limit=1&cursor=" + c, ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE (status < ? OR (status = ? AND id < ?) OR status IS NULL) ORDER BY status DESC, id DESC LIMIT ?", next.sql());
+        assertEquals(Arrays.<Object>asList("a:b::c", "a:b::c", 7, 2), bound(next));
+    }
+
+    @Test
+    void cursorRoundTripWithANullSortValue() throws Exception {
+        // descending: NULLs come last, so past a NULL only NULLs with smaller ids remain
+        String c = page(ListQuery.parse("sort=-score&limit=1", ITEMS), new Object[]{ 5, "a", "x", null, "t" }, new Object[]{ 4, "b", "y", null, "t" });
+        assertEquals(cursor("score:5"), c);
+        ListQuery next = ListQuery.parse("sort=-score&limit=1&cursor=" + c, ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE (score IS NULL AND id < ?) ORDER BY score DESC, id DESC LIMIT ?", next.sql());
+        assertEquals(Arrays.<Object>asList(5, 2), bound(next));
+
+        // ascending: NULLs come first, then every non-NULL value
+        c = page(ListQuery.parse("sort=status&limit=1", ITEMS), new Object[]{ 3, "a", null, 1, "t" }, new Object[]{ 4, "b", "y", 2, "t" });
+        assertEquals(cursor("status:3"), c);
+        next = ListQuery.parse("sort=status&limit=1&cursor=" + c, ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE ((status IS NULL AND id > ?) OR status IS NOT NULL) ORDER BY status ASC, id ASC LIMIT ?", next.sql());
+        assertEquals(Arrays.<Object>asList(3, 2), bound(next));
+    }
+
+    @Test
+    void intCursorValuesAreTyped() throws Exception {
+        String c = page(ListQuery.parse("sort=score&limit=1", ITEMS), new Object[]{ 5, "a", "x", -3, "t" }, new Object[]{ 6, "b", "y", 2, "t" });
+        assertEquals(cursor("score:5:-3"), c);
+        assertEquals(Arrays.<Object>asList(-3, -3, 5, 2), bound(ListQuery.parse("sort=score&limit=1&cursor=" + c, ITEMS)));
+    }
+
+    @Test
+    void tamperedCursorsAreRejected(){
+        List<String> bad = new ArrayList<>(Arrays.asList("!!!", "%25%25", cursor("nope"), cursor("name:5"), cursor("id:x"), cursor("id:0"),
+            cursor("id:-4"), cursor("id:99999999999"), cursor("id:5:x"), cursor(":5"), cursor("score:5:notint")));
+        for (String c : bad){
+            String raw = (c.startsWith(cursor("score")) ? "sort=score&" : "") + "cursor=" + c;
+            assertThrows(IllegalArgumentException.class, () -> ListQuery.parse(raw, ITEMS), raw);
+        }
+        // a cursor from another sort order
+        assertThrows(IllegalArgumentException.class, () -> ListQuery.parse("sort=status&cursor=" + cursor("id:5"), ITEMS));
+    }
+
+    @Test
+    void tamperedCursorAnswers400() throws Exception {
+        Router.Route route = new Router.Route("/api/items", RouteClass.CRUD);
+        Handler h = Middlewares.errors().wrap(route, ex -> ListQuery.parse(ex, ITEMS));
+        Exchange ex = Fakes.exchange("GET", "/api/items?limit=5&cursor=" + cursor("id:abc"));
+        h.handle(ex);
+        assertEquals(400, ex.getResponseCode());
+        assertEquals("invalid cursor", ex.toString());
+    }
+
+    @Test
+    void rangeAndCursorBindInOrder() throws Exception {
+        ListQuery q = ListQuery.parse("status=x&from=2024-05-01&limit=3&cursor=" + cursor("id:40"), ITEMS);
+        assertEquals("SELECT id,name,status,score,created_at FROM items WHERE status = ? AND ((created_at_ts >= ?) OR (created_at_ts IS NULL AND TRIM(TRAILING 'Z' FROM created_at) >= ?)) AND id < ? ORDER BY id DESC LIMIT ?", q.sql());
+        assertEquals(Arrays.<Object>asList("x", "2024-05-01 00:00:00.000", "2024-05-01T00:00:00", 40, 4), bound(q));
+    }
+
+    @Test
+    void columnarFormat() throws Exception {
+        ListQuery q = ListQuery.parse("format=columns&fields=id,name", ITEMS);
+        java.sql.ResultSet rs = Fakes.rows(new String[]{ "id", "name" }, new Object[]{ 2, null }, new Object[]{ 1, "b" });
+        JsonWriter w = JsonWriter.buffered();
+        q.head(w);
+        while (q.next(rs)) q.writeRow(w, rs);
+        q.tail(w);
+        // a NULL text column is "" as the API always sent it
+        assertEquals("{\"columns\":[\"id\",\"name\"],\"rows\":[[2,\"\"],[1,\"b\"]]}", new String(w.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sameShapeSharesOnePlan(){
+        ListQuery a = ListQuery.parse("status=a&score>=1&limit=5", ITEMS);
+        ListQuery b = ListQuery.parse("limit=9&score>=100&status=zzz", ITEMS);
+        assertSame(a.sql(), b.sql());
+        assertSame(a.sql(), ListQuery.parse("score%3E=2&status=b&limit=1", ITEMS).sql());
+        // different shapes, different plans
+        assertNotSame(a.sql(), ListQuery.parse("status=a&score<=1&limit=5", ITEMS).sql());
+        assertFalse(a.sql().equals(ListQuery.parse("status=a&score>=1", ITEMS).sql()));
+        assertFalse(a.sql().equals(ListQuery.parse("status=a&score>=1&limit=5&cursor=" + cursor("id:3"), ITEMS).sql()));
+    }
+
+    @Test
+    @Order(Integer.MAX_VALUE)
+    void planCacheIsBounded(){
+        String[] specs = new String[13];
+        specs[0] = "id:int";
+        for (int i = 1; i < specs.length; i++) specs[i] = "c" + i;
+        TableSchema wide = TableSchema.of("wide", specs);
+        ListQuery cached = ListQuery.parse("c1=x", wide);
+        String plan = cached.sql();
+        // every subset of the columns is its own shape: far more than MAX_PLANS
+        for (int mask = 1; mask < 1 << 12 && mask <= ListQuery.MAX_PLANS + 10; mask++){
+            StringBuilder fields = new StringBuilder();
+            for (int i = 0; i < 12; i++) if ((mask & 1 << i) != 0) fields.append(fields.length() == 0 ? "" : ",").append("c").append(i + 1);
+            assertNotNull(ListQuery.parse("fields=" + fields, wide).sql());
+        }
+        // what was cached stays cached; past the cap plans are compiled per query and still correct
+        assertSame(plan, ListQuery.parse("c1=y", wide).sql());
+        ListQuery late = ListQuery.parse("c12=x&sort=c12", wide);
+        String first = late.sql();
+        assertNotSame(first, ListQuery.parse("c12=y&sort=c12", wide).sql());
+        assertEquals(first, ListQuery.parse("c12=y&sort=c12", wide).sql());
+        assertEquals("SELECT id,c1,c2,c3,c4,c5,c6,c7,c8,c9,c10,c11,c12 FROM wide WHERE c12 = ? ORDER BY c12 ASC, id ASC", first);
+    }
+}
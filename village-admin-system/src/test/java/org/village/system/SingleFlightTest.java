@@ -0,0 +1,156 @@
+package org.village.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.village.system.WorkerPools.RouteClass;
+
+class SingleFlightTest {
+    private static final WorkerPools WORKERS = WorkerPools.fromEnv();
+
+    // answers "run<n>"; the first run holds until the gate opens
+    private static final class Slow implements Handler {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void handle(Exchange ex) throws java.io.IOException {
+            int n = runs.incrementAndGet();
+            if (n == 1){
+                started.countDown();
+                try { gate.await(10, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+            byte[] b = ("run" + n).getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, b.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+        }
+    }
+
+    private static final class Call {
+        final Exchange ex = Fakes.exchange("GET", "/api/sf?b=2&a=1");
+        final Thread thread;
+
+        Call(Handler h){
+            thread = new Thread(() -> {
+                try { h.handle(ex); } catch (Exception e) { throw new RuntimeException(e); }
+            });
+            thread.start();
+        }
+
+        String body() throws InterruptedException {
+            thread.join(10_000);
+            return ex.toString();
+        }
+    }
+
+    private static Handler wrap(SingleFlight sf, String pattern, Handler h){
+        return sf.middleware().wrap(new Router.Route(pattern, RouteClass.CRUD), h);
+    }
+
+    // long enough for a started call to have reached its flight
+    private static void settle() throws InterruptedException {
+        Thread.sleep(200);
+    }
+
+    @Test
+    void onlyWritesToTheRoutesTablesSplitFlights() throws Exception {
+        SingleFlight sf = new SingleFlight(WORKERS, 1 << 20, 10_000, 8).reads("/api/sf", "sf_items");
+        Slow slow = new Slow();
+        Handler h = wrap(sf, "/api/sf", slow);
+        List<Call> calls = new ArrayList<>();
+        calls.add(new Call(h));
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        calls.add(new Call(h));
+        TableVersions.bump("sf_unrelated");
+        calls.add(new Call(h));
+        settle();
+        // after a write to the table it reads, a request starts its own flight
+        TableVersions.bump("sf_items");
+        calls.add(new Call(h));
+        settle();
+        slow.gate.countDown();
+        assertEquals("run1", calls.get(0).body());
+        assertEquals("run1", calls.get(1).body());
+        assertEquals("run1", calls.get(2).body());
+        assertEquals("run2", calls.get(3).body());
+        assertEquals(2, slow.runs.get());
+    }
+
+    @Test
+    void undeclaredRoutesSplitOnAnyWrite() throws Exception {
+        SingleFlight sf = new SingleFlight(WORKERS, 1 << 20, 10_000, 8);
+        Slow slow = new Slow();
+        Handler h = wrap(sf, "/api/sf", slow);
+        Call first = new Call(h);
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        Call joined = new Call(h);
+        settle();
+        TableVersions.bump("sf_unrelated");
+        Call split = new Call(h);
+        settle();
+        slow.gate.countDown();
+        assertEquals("run1", first.body());
+        assertEquals("run1", joined.body());
+        assertEquals("run2", split.body());
+    }
+
+    @Test
+    void waitersAreCapped() throws Exception {
+        SingleFlight sf = new SingleFlight(WORKERS, 1 << 20, 10_000, 1).reads("/api/sf", "sf_items");
+        Slow slow = new Slow();
+        Handler h = wrap(sf, "/api/sf", slow);
+        Call first = new Call(h);
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        Call waiter = new Call(h);
+        settle();
+        // the one waiting slot is taken: this one runs the request itself, without waiting for the leader
+        Call crowded = new Call(h);
+        assertEquals("run2", crowded.body());
+        slow.gate.countDown();
+        assertEquals("run1", first.body());
+        assertEquals("run1", waiter.body());
+        assertTrue(sf.statsJson().contains("\"crowded\":1"), sf.statsJson());
+    }
+
+    @Test
+    void waitsAreBounded() throws Exception {
+        SingleFlight sf = new SingleFlight(WORKERS, 1 << 20, 100, 8).reads("/api/sf", "sf_items");
+        Slow slow = new Slow();
+        Handler h = wrap(sf, "/api/sf", slow);
+        Call first = new Call(h);
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        Call follower = new Call(h);
+        assertEquals("run2", follower.body());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        slow.gate.countDown();
+        assertEquals("run1", first.body());
+        assertTrue(sf.statsJson().contains("\"fallbacks\":1"), sf.statsJson());
+    }
+
+    @Test
+    void defaultCapIsHalfTheWorkers() throws Exception {
+        SingleFlight sf = new SingleFlight(WORKERS, 1 << 20, 10_000, 0).reads("/api/sf", "sf_items");
+        Slow slow = new Slow();
+        Handler h = wrap(sf, "/api/sf", slow);
+        Call first = new Call(h);
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        int cap = Math.max(1, WORKERS.threads(RouteClass.CRUD) / 2);
+        List<Call> waiters = new ArrayList<>();
+        for (int i = 0; i < cap; i++) waiters.add(new Call(h));
+        settle();
+        assertEquals("run2", new Call(h).body());
+        slow.gate.countDown();
+        assertEquals("run1", first.body());
+        for (Call c : waiters) assertEquals("run1", c.body());
+    }
+}
@@ -0,0 +1,217 @@
+package org.village.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class TimeRangeTest {
+    private static final TableSchema LOGS = TableSchema.of("logs", "id:int", "msg", "created_at").timed("created_at");
+
+    // event times as the handlers store them (Instant.toString(): 0, 3, 6 or 9 fraction digits), around the bounds below
+    private static final List<String> STORED = Arrays.asList(
+        "2024-05-01T10:20:29.999Z", "2024-05-01T10:20:29.999999999Z", "2024-05-01T10:20:30Z", "2024-05-01T10:20:30.000001Z",
+        "2024-05-01T10:20:30.001Z", "2024-05-01T10:20:30.249Z", "2024-05-01T10:20:30.250Z", "2024-05-01T10:20:30.250999Z",
+        "2024-05-01T10:20:30.251Z", "2024-05-01T10:20:30.500Z", "2024-05-01T10:20:31Z", "2024-05-01T10:20:31.100Z",
+        "2024-04-30T23:59:59.999Z", "2024-05-01T00:00:00Z", "2024-05-02T00:00:00Z", "2024-05-01T23:59:59.999999Z");
+
+    // the same instants spelled every way the API accepts
+    private static final List<String> BOUNDS = Arrays.asList(
+        "2024-05-01T10:20:30Z", "2024-05-01t10:20:30z", "2024-05-01T18:20:30+08:00", "2024-05-01T05:20:30.250-05:00",
+        "2024-05-01T10:20:30.250Z", "2024-05-01 10:20:30.25", "2024-05-01T10:20:30.250999Z", "2024-05-01T10:20:30.5Z",
+        "2024-05-01T10:20:31", "2024-05-01", "2024-05-02", "1714558830250", "2024-05-01T10:20:29.999999999Z");
+
+    @Test
+    void acceptedForms(){
+        Instant t = Instant.parse("2024-05-01T10:20:30.250Z");
+        assertEquals(t, TimeRange.parse("2024-05-01T10:20:30.250Z"));
+        assertEquals(t, TimeRange.parse("2024-05-01T10:20:30.25z"));
+        assertEquals(t, TimeRange.parse("2024-05-01T18:20:30.250+08:00"));
+        assertEquals(t, TimeRange.parse("2024-05-01T05:20:30.25-05:00"));
+        assertEquals(t, TimeRange.parse("2024-05-01 10:20:30.250"));
+        assertEquals(t, TimeRange.parse(" 2024-05-01T10:20:30.250 "));
+        assertEquals(t, TimeRange.parse("1714558830250"));
+        assertEquals(Instant.parse("2024-05-01T00:00:00Z"), TimeRange.parse("2024-05-01"));
+        for (String bad : Arrays.asList(null, "", "  ", "yesterday", "2024-13-01", "2024-05-01T25:00", "1714558830", "2024-05-01T10:20:30+25:00", "12345678901234567890")){
+            assertNull(TimeRange.parse(bad), bad);
+        }
+    }
+
+    @Test
+    void invalidRanges(){
+        assertSame(TimeRange.NONE, TimeRange.of(LOGS, null, ""));
+        assertThrows(IllegalArgumentException.class, () -> TimeRange.of(LOGS, "soon", null));
+        assertThrows(IllegalArgumentException.class, () -> TimeRange.of(LOGS, null, "2024-02-30"));
+        TableSchema untimed = TableSchema.of("plain", "id:int", "created_at");
+        assertThrows(IllegalArgumentException.class, () -> TimeRange.of(untimed, "2024-05-01", null));
+        assertSame(TimeRange.NONE, TimeRange.of(untimed, "", null));
+    }
+
+    @Test
+    void boundsAreCutToMillis(){
+        assertEquals(Instant.parse("2024-05-01T10:20:30.250Z"), TimeRange.of(LOGS, "2024-05-01T10:20:30.250999Z", null).from);
+        assertEquals(Instant.parse("2024-05-01T10:20:29.999Z"), TimeRange.of(LOGS, null, "2024-05-01T10:20:29.999999999Z").to);
+    }
+
+    @Test
+    void keys(){
+        assertEquals("2024-05-01T10:20:30", TimeRange.key(Instant.parse("2024-05-01T10:20:30Z")));
+        assertEquals("2024-05-01T10:20:30.5", TimeRange.key(Instant.parse("2024-05-01T10:20:30.500Z")));
+        assertEquals("2024-05-01T10:20:30.25", TimeRange.key(Instant.parse("2024-05-01T10:20:30.250Z")));
+        assertEquals("2024-05-01T10:20:30.001", TimeRange.key(Instant.parse("2024-05-01T10:20:30.001Z")));
+        assertEquals("2024-05-01T10:20:00", TimeRange.key(Instant.parse("2024-05-01T10:20:00Z")));
+        assertEquals("2024-05-01 10:20:30.250", TimeRange.utc(Instant.parse("2024-05-01T10:20:30.250Z")));
+        assertEquals("2024-05-01 10:20:30.000", TimeRange.utc(Instant.parse("2024-05-01T10:20:30Z")));
+    }
+
+    @Test
+    void sqlAndBindOrder() throws Exception {
+        TimeRange r = TimeRange.of(LOGS, "2024-05-01T18:20:30+08:00", "2024-05-02");
+        assertEquals("ft", r.shape());
+        assertEquals("((created_at_ts >= ? AND created_at_ts < ?) OR (created_at_ts IS NULL AND TRIM(TRAILING 'Z' FROM created_at) >= ?"
+            + " AND TRIM(TRAILING 'Z' FROM created_at) < ?))", r.predicate());
+        assertEquals(Arrays.<Object>asList("2024-05-01 10:20:30.000", "2024-05-02 00:00:00.000", "2024-05-01T10:20:30", "2024-05-02T00:00:00"), bound(r, 1));
+
+        TimeRange to = TimeRange.of(LOGS, null, "2024-05-01T10:20:30.5Z");
+        assertEquals("t", to.shape());
+        assertEquals("((created_at_ts < ?) OR (created_at_ts IS NULL AND TRIM(TRAILING 'Z' FROM created_at) < ?))", to.predicate());
+        assertEquals(Arrays.<Object>asList("2024-05-01 10:20:30.500", "2024-05-01T10:20:30.5"), bound(to, 1));
+
+        // parameters continue from the caller's index
+        Fakes.Params p = new Fakes.Params();
+        assertEquals(5, to.bind(p.statement(), 3));
+        assertEquals(Arrays.asList(3, 4), new ArrayList<>(p.values.keySet()));
+        assertEquals(7, TimeRange.NONE.bind(p.statement(), 7));
+    }
+
+    @Test
+    void applyGoesAheadOfGroupAndOrder(){
+        TimeRange r = TimeRange.of(LOGS, "2024-05-01", null);
+        String p = r.predicate();
+        assertEquals("SELECT a FROM logs WHERE " + p, r.apply("SELECT a FROM logs"));
+        assertEquals("SELECT a FROM logs WHERE x = 1 AND " + p + " ORDER BY id", r.apply("SELECT a FROM logs WHERE x = 1 ORDER BY id"));
+        assertEquals("SELECT s, COUNT(*) FROM logs WHERE " + p + " GROUP BY s ORDER BY s", r.apply("SELECT s, COUNT(*) FROM logs GROUP BY s ORDER BY s"));
+        assertEquals("SELECT a FROM logs", TimeRange.NONE.apply("SELECT a FROM logs"));
+    }
+
+    // every from/to pair over every stored value: a backfilled row (shadow column) and a row still waiting for the backfill
+    // (string fallback) must land on the same side of the bounds, and that side must be the right one
+    @Test
+    void backfilledAndPendingRowsAgree() throws Exception {
+        Map<Long, String[]> table = new TreeMap<>();
+        long id = 0;
+        for (String s : STORED) table.put(++id, new String[]{ s, null });
+        table.put(++id, new String[]{ "not a time", null });
+        backfill(table);
+
+        for (String[] row : table.values()){
+            if (row[0].equals("not a time")) assertNull(row[1]);
+            else assertEquals(TimeRange.utc(Instant.parse(row[0]).truncatedTo(ChronoUnit.MILLIS)), row[1], row[0]);
+        }
+        int checked = 0;
+        List<String> optional = new ArrayList<>(BOUNDS);
+        optional.add(null);
+        for (String from : optional){
+            for (String to : optional){
+                if (from == null && to == null) continue;
+                TimeRange r = TimeRange.of(LOGS, from, to);
+                List<Object> params = bound(r, 1);
+                for (String[] row : table.values()){
+                    if (row[1] == null) continue;
+                    Instant at = Instant.parse(row[0]).truncatedTo(ChronoUnit.MILLIS);
+                    boolean expected = (r.from == null || !at.isBefore(r.from)) && (r.to == null || at.isBefore(r.to));
+                    String where = row[0] + " from=" + from + " to=" + to;
+                    assertEquals(expected, matches(r, params, row[0], row[1]), "backfilled " + where);
+                    assertEquals(expected, matches(r, params, row[0], null), "pending " + where);
+                    checked++;
+                }
+            }
+        }
+        assertTrue(checked > 3000);
+    }
+
+    // the predicate evaluated the way MySQL does: DATETIME(3) literals and the trimmed VARCHAR both compare in text order
+    private static boolean matches(TimeRange r, List<Object> params, String stored, String shadow){
+        int i = 0;
+        String fromTs = r.from != null ? (String) params.get(i++) : null;
+        String toTs = r.to != null ? (String) params.get(i++) : null;
+        String fromKey = r.from != null ? (String) params.get(i++) : null;
+        String toKey = r.to != null ? (String) params.get(i++) : null;
+        if (shadow != null) return (fromTs == null || shadow.compareTo(fromTs) >= 0) && (toTs == null || shadow.compareTo(toTs) < 0);
+        String s = stored.endsWith("Z") ? stored.substring(0, stored.length() - 1) : stored;
+        return (fromKey == null || s.compareTo(fromKey) >= 0) && (toKey == null || s.compareTo(toKey) < 0);
+    }
+
+    private static List<Object> bound(TimeRange r, int from) throws Exception {
+        Fakes.Params p = new Fakes.Params();
+        r.bind(p.statement(), from);
+        return p.list();
+    }
+
+    // runs TemporalBackfill over an in-memory table of id -> {value, shadow} until every row has been looked at
+    private static void backfill(Map<Long, String[]> table) throws Exception {
+        TemporalBackfill b = new TemporalBackfill(() -> connection(table), 4, 0, LOGS);
+        b.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!b.statsJson().contains("\"unparseable\":1,\"after_id\":" + table.size())){
+            if (System.currentTimeMillis() > deadline) fail("backfill did not finish: " + b.statsJson());
+            Thread.sleep(10);
+        }
+        assertTrue(b.statsJson().contains("\"filled\":" + (table.size() - 1)), b.statsJson());
+    }
+
+    private static java.sql.Connection connection(Map<Long, String[]> table){
+        return (java.sql.Connection) Proxy.newProxyInstance(TimeRangeTest.class.getClassLoader(), new Class<?>[]{ java.sql.Connection.class }, (c, m, a) -> {
+            switch (m.getName()){
+                case "prepareStatement": return statement(table, (String) a[0]);
+                case "setAutoCommit": case "commit": case "rollback": case "close": return null;
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    private static java.sql.PreparedStatement statement(Map<Long, String[]> table, String sql){
+        assertTrue(sql.equals("SELECT id,created_at FROM logs WHERE created_at_ts IS NULL AND id > ? ORDER BY id LIMIT ?")
+            || sql.equals("UPDATE logs SET created_at_ts=? WHERE id=? AND created_at_ts IS NULL"), sql);
+        Object[] params = new Object[3];
+        List<Object[]> batch = new ArrayList<>();
+        return (java.sql.PreparedStatement) Proxy.newProxyInstance(TimeRangeTest.class.getClassLoader(), new Class<?>[]{ java.sql.PreparedStatement.class }, (p, m, a) -> {
+            switch (m.getName()){
+                case "setLong": case "setInt": case "setString": params[(Integer) a[0]] = a[1]; return null;
+                case "addBatch": batch.add(params.clone()); return null;
+                case "executeBatch":
+                    synchronized (table){
+                        for (Object[] b : batch){
+                            String[] row = table.get((Long) b[2]);
+                            if (row[1] == null) row[1] = (String) b[1];
+                        }
+                    }
+                    return new int[batch.size()];
+                case "executeQuery": {
+                    List<Object[]> rows = new ArrayList<>();
+                    synchronized (table){
+                        for (Map.Entry<Long, String[]> e : table.entrySet()){
+                            if (rows.size() == (Integer) params[2]) break;
+                            if (e.getKey() > (Long) params[1] && e.getValue()[1] == null) rows.add(new Object[]{ e.getKey(), e.getValue()[0] });
+                        }
+                    }
+                    return Fakes.rows(new String[]{ "id", "created_at" }, rows.toArray(new Object[0][]));
+                }
+                case "close": return null;
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+}